@@ -1,22 +1,28 @@
 package net.foxgenesis.filescanner;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Flow;
 
 import org.hibernate.validator.constraints.Range;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.validation.Validator;
 import org.springframework.validation.annotation.Validated;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
 import net.foxgenesis.filescanner.cascade.OpenCVProperties;
@@ -26,10 +32,25 @@ import net.foxgenesis.filescanner.cascade.OpenCVProperties;
 @Validated
 @ConfigurationProperties(prefix = "filescanner")
 public class Config implements Validator {
-	private transient final Logger logger = LoggerFactory.getLogger(getClass());
-
+	/**
+	 * Run scans on the common pool. Ignored when scan stages or scaling are
+	 * enabled, which always use a dedicated pool
+	 */
 	private boolean commonPool = true;
 
+	/**
+	 * Thread type used for blocking scanner I/O
+	 */
+	private ExecutorType executor = ExecutorType.PLATFORM;
+
+	/**
+	 * Number of queued image scans whose attachments are downloaded ahead of
+	 * time in {@link ExecutorType#VIRTUAL} mode. {@code 0} downloads every image
+	 * when its scan starts
+	 */
+	@Min(0)
+	private int prefetch = 4;
+
 	@Range(min = 1, max = 10)
 	private int workers = 2;
 
@@ -44,9 +65,69 @@ public class Config implements Validator {
 
 	private boolean useComponentV2 = true;
 
+	/**
+	 * How long loud video removals are collected per channel before being acted
+	 * on. A zero duration acts on every removal immediately
+	 */
+	@NotNull
+	private Duration moderationWindow = Duration.ofSeconds(2);
+
+	/**
+	 * Share a single scan between identical attachments that are scanned at the
+	 * same time, such as a file posted to several channels at once. Videos are
+	 * matched by URL. Matching re-uploads by content needs videos to be
+	 * downloaded to a temporary file first, which only happens when scan
+	 * stages, the loudness triage or segmented decoding is enabled
+	 */
+	private boolean coalesce = true;
+
 	@Valid
 	private OpenCVProperties opencv = new OpenCVProperties();
 
+	/**
+	 * Addresses of remote scan workers in {@code host:port} form
+	 */
+	private List<String> remoteWorkers = new ArrayList<>();
+
+	/**
+	 * Connect and read timeout for remote scan workers
+	 */
+	@NotNull
+	private Duration remoteTimeout = Duration.ofMinutes(2);
+
+	/**
+	 * Shared secret remote scan workers authenticate connections with. Must
+	 * match the {@code FILESCANNER_WORKER_SECRET} of the workers
+	 */
+	private String remoteSecret;
+
+	@Valid
+	private QueueSettings queue = new QueueSettings();
+
+	@Valid
+	private TimeoutSettings timeout = new TimeoutSettings();
+
+	@Valid
+	private QuotaSettings quota = new QuotaSettings();
+
+	@Valid
+	private AuditSettings audit = new AuditSettings();
+
+	@Valid
+	private DecoderSettings decoder = new DecoderSettings();
+
+	@Valid
+	private FetchSettings fetch = new FetchSettings();
+
+	@Valid
+	private ScalingSettings scaling = new ScalingSettings();
+
+	@Valid
+	private JournalSettings journal = new JournalSettings();
+
+	@Valid
+	private StageSettings stages = new StageSettings();
+
 	@Override
 	public boolean supports(Class<?> clazz) {
 		return Config.class.isAssignableFrom(clazz);
@@ -57,77 +138,458 @@ public class Config implements Validator {
 		ValidationUtils.rejectIfEmptyOrWhitespace(errors, "qtfs", "field.required");
 		ValidationUtils.rejectIfEmptyOrWhitespace(errors, "ffmpegPath", "field.required");
 		ValidationUtils.rejectIfEmptyOrWhitespace(errors, "ffprobePath", "field.required");
+		// Binaries are probed in the background by the beans that use them
+	}
 
-		Config config = (Config) target;
-		try {
-			isFFMPEGInstalled(config.getFfmpegPath());
-		} catch (Exception e) {
-			e.printStackTrace();
-			errors.rejectValue("ffmpegPath", "field.version.failed", new Object[] { config.getFfmpegPath() },
-					"Unnable to validate FFMPEG at path: [" + config.getFfmpegPath() + "]");
-		}
-		try {
-			isFFProbeInstalled(config.getFfprobePath());
-		} catch (Exception e) {
-			e.printStackTrace();
-			errors.rejectValue("ffprobePath", "field.version.failed", new Object[] { config.getFfprobePath() },
-					"Unnable to validate FFProbe at path: [" + config.getFfprobePath() + "]");
-		}
-		try {
-			isQTLibraryValid(config.qtfs);
-		} catch (Exception e) {
-			e.printStackTrace();
-			errors.rejectValue("qtTransformer", "field.version.failed", new Object[] { config.qtfs },
-					"Unnable to validate QuickTime-FastStart at path: [" + config.qtfs + "]");
+	@Getter
+	@Setter
+	@Validated
+	public static class QueueSettings {
+		/**
+		 * Deliver smaller jobs before larger ones
+		 */
+		private boolean shortestJobFirst = true;
+
+		/**
+		 * How long a job may be overtaken by smaller jobs for each megabyte of its
+		 * estimated size
+		 */
+		@NotNull
+		private Duration aging = Duration.ofMillis(100);
+
+		/**
+		 * Get the queue cost of a job.
+		 * 
+		 * @param bytes - estimated size of the job in bytes
+		 * 
+		 * @return Returns the cost in nanoseconds
+		 */
+		public long getCost(long bytes) {
+			if (!shortestJobFirst)
+				return 0;
+			return (long) (bytes / 1_048_576D * aging.toNanos());
 		}
 	}
 
-	private boolean isFFMPEGInstalled(Path path) throws Exception {
-		Process p = null;
-		try {
-			p = new ProcessBuilder(path.toString(), "-version").start();
-			try (InputStream in = p.getInputStream()) {
-				logger.info("FFMPEG version: " + new String(in.readAllBytes()).split("\n", 2)[0].trim());
-			}
-			return true;
-		} finally {
-			if (p != null)
-				p.destroy();
+	@Getter
+	@Setter
+	@Validated
+	public static class TimeoutSettings {
+		/**
+		 * Time given to every attachment regardless of size
+		 */
+		@NotNull
+		private Duration base = Duration.ofSeconds(15);
+
+		/**
+		 * Additional time given for each megabyte of the attachment
+		 */
+		@NotNull
+		private Duration perMegabyte = Duration.ofSeconds(2);
+
+		/**
+		 * Upper bound of the time given to any attachment
+		 */
+		@NotNull
+		private Duration max = Duration.ofMinutes(2);
+
+		/**
+		 * Get the time an attachment may take to be fully processed.
+		 * 
+		 * @param bytes - size of the attachment in bytes
+		 * 
+		 * @return Returns the processing budget of the attachment
+		 */
+		public Duration getBudget(long bytes) {
+			Duration budget = base.plusNanos((long) (Math.max(0, bytes) / 1_048_576D * perMegabyte.toNanos()));
+			return budget.compareTo(max) > 0 ? max : budget;
 		}
 	}
 
-	private boolean isFFProbeInstalled(Path path) throws Exception {
-		Process p = null;
-		try {
-			p = new ProcessBuilder(path.toString(), "-version").start();
-			try (InputStream in = p.getInputStream()) {
-				logger.info("FFProbe version: " + new String(in.readAllBytes()).split("\n", 2)[0].trim());
-			}
-			return true;
-		} finally {
-			if (p != null)
-				p.destroy();
+	@Getter
+	@Setter
+	@Validated
+	public static class QuotaSettings {
+		/**
+		 * Throttle guilds that use more than their quota
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Length of the rolling window usage is summed over
+		 */
+		@NotNull
+		private Duration window = Duration.ofHours(1);
+
+		/**
+		 * CPU and decoder time a guild may use per window
+		 */
+		@NotNull
+		private Duration limit = Duration.ofMinutes(10);
+
+		/**
+		 * Limit overrides keyed by guild id
+		 */
+		@NotNull
+		private Map<Long, Duration> guilds = new HashMap<>();
+
+		/**
+		 * Queue delay added to jobs of guilds over their quota
+		 */
+		@NotNull
+		private Duration penalty = Duration.ofSeconds(30);
+	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class AuditSettings {
+		/**
+		 * Record every scan in the audit log
+		 */
+		private boolean enabled = true;
+
+		/**
+		 * How often buffered records are written
+		 */
+		@NotNull
+		private Duration flushInterval = Duration.ofSeconds(5);
+
+		/**
+		 * Maximum records per JDBC batch
+		 */
+		@Min(1)
+		private int batchSize = 500;
+
+		/**
+		 * Maximum buffered records before new records are dropped
+		 */
+		@Min(1)
+		private int capacity = 10_000;
+	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class DecoderSettings {
+		/**
+		 * Decoder backends in order of preference. Later backends are used when
+		 * earlier ones are unavailable or failing
+		 */
+		@NotEmpty
+		private List<DecoderType> backends = new ArrayList<>(List.of(DecoderType.QTFS, DecoderType.FFMPEG));
+
+		/**
+		 * Consecutive failures before a backend is taken out of rotation
+		 */
+		@Min(1)
+		private int failureThreshold = 3;
+
+		/**
+		 * How long a failing backend is skipped
+		 */
+		@NotNull
+		private Duration cooldown = Duration.ofMinutes(5);
+
+		/**
+		 * Videos used by the decoder benchmark. A generated clip is used when empty
+		 */
+		@NotNull
+		private List<Path> benchmarkFixtures = new ArrayList<>();
+
+		/**
+		 * Runs of every fixture per backend in the decoder benchmark
+		 */
+		@Min(1)
+		private int benchmarkIterations = 3;
+
+		/**
+		 * Measure the peak level of videos before the full loudness analysis and
+		 * clear videos whose loudness ceiling is at or below the guild threshold
+		 */
+		private boolean triage = false;
+
+		/**
+		 * Headroom in dB added to the loudness ceiling derived from the peak level
+		 */
+		@DecimalMin("0")
+		private double triageMargin = 1;
+
+		/**
+		 * Number of segments long videos are split into and measured in parallel.
+		 * {@code 1} measures every video in one piece
+		 */
+		@Min(1)
+		private int segments = 1;
+
+		/**
+		 * Shortest video that is split into segments
+		 */
+		@NotNull
+		private Duration segmentMinDuration = Duration.ofMinutes(2);
+
+		/**
+		 * Time every segment but the first starts early to fill the momentary
+		 * window. At least 400ms
+		 */
+		@NotNull
+		private Duration segmentOverlap = Duration.ofSeconds(1);
+	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class FetchSettings {
+		/**
+		 * Connect timeout of the shared HTTP client
+		 */
+		@NotNull
+		private Duration connectTimeout = Duration.ofSeconds(10);
+
+		/**
+		 * How long to wait for response headers. Bounded by the scan deadline
+		 */
+		@NotNull
+		private Duration responseTimeout = Duration.ofSeconds(30);
+
+		/**
+		 * Check the type and size of linked files before downloading them
+		 */
+		private boolean preflight = true;
+
+		/**
+		 * Largest linked video that is downloaded. Uploaded videos may be as large
+		 * as the Discord upload limit
+		 */
+		@NotNull
+		private DataSize maxVideoSize = DataSize.ofMegabytes(100);
+
+		/**
+		 * Largest linked image that is downloaded. Uploaded images may be as large
+		 * as the Discord upload limit
+		 */
+		@NotNull
+		private DataSize maxImageSize = DataSize.ofMegabytes(25);
+
+		/**
+		 * Largest width or height of images fetched for detection. Larger
+		 * attachments are fetched from the media proxy scaled down to fit. {@code 0}
+		 * always downloads the original
+		 */
+		@Min(0)
+		private int maxImageDimension = 1280;
+
+		/**
+		 * Format of scaled down images requested from the media proxy, such as
+		 * {@code webp}. Unset keeps the format of the original
+		 */
+		private String imageFormat;
+	}
+
+	public enum DecoderType {
+		/**
+		 * Moves the moov atom to the front with QuickTime-FastStart before piping
+		 * into FFMPEG. Handles videos that can not be streamed
+		 */
+		QTFS,
+		/**
+		 * Pipes the video directly into FFMPEG
+		 */
+		FFMPEG,
+		/**
+		 * Decodes the audio in-process with the native FFMPEG libraries of JavaCV.
+		 * Avoids starting processes for every video
+		 */
+		NATIVE
+	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class ScalingSettings {
+		/**
+		 * Scan several items of each pipeline at once and adjust how many with
+		 * the load. When disabled each pipeline scans one item at a time
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Fewest items scanned at once per pipeline
+		 */
+		@Min(1)
+		private int min = 1;
+
+		/**
+		 * Most items scanned at once per pipeline
+		 */
+		@Min(1)
+		private int max = 8;
+
+		/**
+		 * How often the load is sampled
+		 */
+		@NotNull
+		private Duration interval = Duration.ofSeconds(5);
+
+		/**
+		 * Number of consecutive samples that must agree before the concurrency
+		 * changes
+		 */
+		@Min(1)
+		private int samples = 3;
+
+		/**
+		 * Queue wait above which the concurrency grows
+		 */
+		@NotNull
+		private Duration scaleUpWait = Duration.ofSeconds(2);
+
+		/**
+		 * Queue wait below which the concurrency shrinks
+		 */
+		@NotNull
+		private Duration scaleDownWait = Duration.ofMillis(250);
+
+		/**
+		 * System CPU load between {@code 0} and {@code 1} above which the
+		 * concurrency shrinks
+		 */
+		@DecimalMin("0")
+		@DecimalMax("1")
+		private double maxCpuLoad = 0.9;
+
+		/**
+		 * Number of decoder processes a pipeline may run above which its
+		 * concurrency shrinks. {@code 0} uses twice the number of processors
+		 */
+		@Min(0)
+		private int maxProcesses = 0;
+
+		public int getMaxProcesses() {
+			return maxProcesses > 0 ? maxProcesses : Runtime.getRuntime().availableProcessors() * 2;
 		}
 	}
 
-	private void isQTLibraryValid(Path path) throws IOException {
-		Process p = null;
-		try {
-			p = new ProcessBuilder(path.toString(), "-v").start();
-			try (InputStream in = p.getInputStream()) {
-				String version = new String(in.readAllBytes()).split("\n", 2)[0].trim();
+	@Getter
+	@Setter
+	@Validated
+	public static class JournalSettings {
+		/**
+		 * Record queued scans on disk so they survive restarts and bursts larger
+		 * than the in-memory buffer
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Directory of the journal files
+		 */
+		@NotNull
+		private Path directory = Path.of("journal");
+
+		/**
+		 * Number of records a journal holds before it is compacted
+		 */
+		@Min(1024)
+		private int capacity = 65_536;
 
-				if (version == null || version.isBlank())
-					throw new IOException("Unable to get version");
+		/**
+		 * Messages older than this are not scanned when replayed
+		 */
+		@NotNull
+		private Duration maxAge = Duration.ofHours(1);
+
+		/**
+		 * How often spilled scans are moved back into the in-memory queue
+		 */
+		@NotNull
+		private Duration replayInterval = Duration.ofSeconds(1);
+
+		/**
+		 * How often recorded scans are forced to disk. Scans recorded since the
+		 * last force survive the bot crashing but not the host
+		 */
+		@NotNull
+		private Duration forceInterval = Duration.ofSeconds(1);
+	}
 
-				logger.info("QuickTime-FastStart library version: {}", version);
+	@Getter
+	@Setter
+	@Validated
+	public static class StageSettings {
+		/**
+		 * Run downloads, transforms, analysis and actions as separate stages with
+		 * their own limits instead of one job at a time from start to finish
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Limits of the download stage
+		 */
+		@Valid
+		@NotNull
+		private Limit download = new Limit(4, 8);
+
+		/**
+		 * Limits of the transform stage. Images are decoded and pre-processed in
+		 * this stage
+		 */
+		@Valid
+		@NotNull
+		private Limit transform = new Limit(2, 4);
+
+		/**
+		 * Limits of the analysis stage
+		 */
+		@Valid
+		@NotNull
+		private Limit analysis = new Limit(2, 4);
+
+		/**
+		 * Limits of the action stage
+		 */
+		@Valid
+		@NotNull
+		private Limit action = new Limit(4, 16);
+
+		@Getter
+		@Setter
+		@Validated
+		public static class Limit {
+			/**
+			 * Number of jobs that may run in the stage at once
+			 */
+			@Min(1)
+			private int concurrency;
+
+			/**
+			 * Number of jobs that may wait for the stage
+			 */
+			@Min(0)
+			private int capacity;
+
+			public Limit() {
+				this(1, 0);
+			}
+
+			public Limit(int concurrency, int capacity) {
+				this.concurrency = concurrency;
+				this.capacity = capacity;
 			}
-		} finally {
-			if (p != null)
-				p.destroy();
 		}
 	}
 
+	public enum ExecutorType {
+		/**
+		 * Platform threads from a cached pool
+		 */
+		PLATFORM,
+		/**
+		 * One virtual thread per task. CPU bound OpenCV work stays on the platform
+		 * worker pool
+		 */
+		VIRTUAL
+	}
+
 	private static String getQTLibraryBySystem(String system) {
 		if (system.startsWith("linux"))
 			return "qtfs";
@@ -1,16 +1,13 @@
 package net.foxgenesis.filescanner;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Function;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -19,10 +16,8 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.lang.Nullable;
 
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.emoji.Emoji;
@@ -31,10 +26,16 @@ import net.dv8tion.jda.api.requests.ErrorResponse;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.foxgenesis.filescanner.cascade.CascadeEntry;
 import net.foxgenesis.filescanner.cascade.CascadeScanner;
-import net.foxgenesis.filescanner.cascade.haar.FinalizedHaarCascade;
+import net.foxgenesis.filescanner.cascade.OpenCVProperties.CascadeSettings;
 import net.foxgenesis.filescanner.cascade.haar.HaarCascade;
 import net.foxgenesis.filescanner.database.FileScannerConfigurationService;
+import net.foxgenesis.filescanner.loud.DecoderBackends;
 import net.foxgenesis.filescanner.loud.FileScanner;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.Processes;
+import net.foxgenesis.filescanner.util.ScanCancellation;
+import net.foxgenesis.filescanner.util.ScanExecutors;
+import net.foxgenesis.filescanner.util.ScanUsage;
 import net.foxgenesis.springJDA.annotation.GatewayIntents;
 import net.foxgenesis.springJDA.annotation.Permissions;
 import net.foxgenesis.springJDA.annotation.SpringJDAAutoConfiguration;
@@ -57,64 +58,103 @@ public class FileScannerAutoConfiguration {
 	@Permissions({ Permission.MESSAGE_MANAGE, Permission.MESSAGE_EMBED_LINKS })
 	@GatewayIntents({ GatewayIntent.GUILD_MESSAGES, GatewayIntent.MESSAGE_CONTENT })
 	FileScanner fileScannerListener(FileScannerConfigurationService service, Config config,
-			DiscordLocaleMessageSource messages) {
-		return new FileScanner(service, messages, config);
+			DiscordLocaleMessageSource messages, ScanCancellation cancellation, ScanUsage usage,
+			DecoderBackends decoderBackends) {
+		return new FileScanner(service, messages, config, cancellation, usage, decoderBackends);
+	}
+
+	@Bean
+	DecoderBackends decoderBackends(Config config) {
+		DecoderBackends backends = DecoderBackends.create(config, ScanExecutors.io(config, "Video Reader"));
+		// Probe off the startup thread. Decoding waits for the probe to finish
+		backends.probeAsync(Thread.ofVirtual().name("Decoder Probe")::start);
+		backends.registerMBean();
+		logFFProbeVersion(config.getFfprobePath());
+		return backends;
+	}
+
+	/**
+	 * Log the version of FFProbe in the background. Nothing scans with FFProbe,
+	 * so a missing binary is only logged.
+	 */
+	private static void logFFProbeVersion(Path ffprobe) {
+		CompletableFuture.runAsync(() -> {
+			try {
+				String output = Processes.output(Duration.ofSeconds(10), ffprobe.toString(), "-version");
+				logger.info("FFProbe version: {}", output.split("\n", 2)[0].trim());
+			} catch (IOException e) {
+				logger.warn("Unable to validate FFProbe at path: [{}]", ffprobe, e);
+			}
+		}, Thread.ofVirtual().name("FFProbe Probe")::start);
+	}
+
+	@Bean
+	AttachmentFetcher attachmentFetcher(Config config) {
+		AttachmentFetcher fetcher = new AttachmentFetcher(config.getFetch(),
+				ScanExecutors.io(config, "Attachment Fetcher"));
+		fetcher.registerMBean();
+		return fetcher;
+	}
+
+	@Bean
+	ScanUsage scanUsage(Config config) {
+		return new ScanUsage(config.getQuota());
+	}
+
+	@Bean
+	@GatewayIntents({ GatewayIntent.GUILD_MESSAGES })
+	ScanCancellation scanCancellation() {
+		return new ScanCancellation();
 	}
 
 	@Configuration
 	@ConditionalOnProperty(value = HAAR_CASCADE, matchIfMissing = true)
 	public static class HaarCascades {
-		static {
-			logger.info("Attempting to load OpenCV natives");
-			OpenCV.loadLocally();
-		}
-
 		@Bean
 		@Permissions({ Permission.MESSAGE_ADD_REACTION, Permission.MESSAGE_EMBED_LINKS, Permission.MODERATE_MEMBERS })
 		@GatewayIntents({ GatewayIntent.GUILD_MESSAGES, GatewayIntent.MESSAGE_CONTENT })
 		CascadeScanner catScanner(FileScannerConfigurationService service, Config config,
-				DiscordLocaleMessageSource messages, ResourceLoader loader) throws IOException {
-			List<CascadeEntry> cascades = new ArrayList<>();
-			cascades.add(getCatCascade(loader));
-			return new CascadeScanner(service, messages, config, cascades);
-		}
-
-		private final CascadeEntry getCatCascade(ResourceLoader loader) throws IOException {
-			HaarCascade cascade = getCascade(loader,
-					ResourceLoader.CLASSPATH_URL_PREFIX + "/haar/haarcascade_frontalcatface_extended.xml", mat -> 1.1,
-					mat -> 4, null, null);
-			return new CascadeEntry(cascade, scannerData -> {
-				if (!scannerData.getConfig().isExcluded(scannerData.getMessage().getChannel()))
-					scannerData.getMessage().reply("This is a cat!").queue();
-
-				scannerData.getMessage().addReaction(Emoji.fromCustom("happeh", 478378484025131010L, false))
-						.queue(v -> {
-						}, new ErrorHandler().ignore(ErrorResponse.REACTION_BLOCKED));
+				DiscordLocaleMessageSource messages, ScanCancellation cancellation, ScanUsage usage,
+				ResourceLoader loader) {
+			// Load natives off the startup thread
+			CompletableFuture<Void> natives = CompletableFuture.runAsync(() -> {
+				logger.info("Attempting to load OpenCV natives");
+				OpenCV.loadLocally();
 			});
+
+			// Parse all cascades in parallel once the natives are loaded
+			List<CompletableFuture<CascadeEntry>> loading = new ArrayList<>();
+			for (CascadeSettings settings : config.getOpencv().getCascades())
+				loading.add(natives.thenApplyAsync(v -> {
+					try {
+						return getCascadeEntry(loader, settings);
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				}));
+
+			CompletableFuture<List<CascadeEntry>> cascades = CompletableFuture
+					.allOf(loading.toArray(CompletableFuture[]::new))
+					.thenApply(v -> loading.stream().map(CompletableFuture::join).toList());
+			return new CascadeScanner(service, messages, config, cancellation, usage, cascades);
 		}
 
-		private static HaarCascade getCascade(ResourceLoader loader, String location,
-				@Nullable Function<Mat, Double> scaleFactor, @Nullable Function<Mat, Integer> minimumNeighbors,
-				@Nullable Function<Mat, Size> minimumSize, @Nullable Function<Mat, Size> maximumSize)
+		private final CascadeEntry getCascadeEntry(ResourceLoader loader, CascadeSettings settings)
 				throws IOException {
-			Resource resource = loader.getResource(location);
-			try {
-				return new FinalizedHaarCascade(resource, scaleFactor, minimumNeighbors, minimumSize, maximumSize);
-			} catch (IOException e) {
-				return getTempResource(resource, scaleFactor, minimumNeighbors, minimumSize, maximumSize);
-			}
-		}
+			logger.info("Loading {} cascade from {}", settings.getName(), settings.getLocation());
+			HaarCascade cascade = settings.createCascade(loader);
 
-		private static HaarCascade getTempResource(Resource location, @Nullable Function<Mat, Double> scaleFactor,
-				@Nullable Function<Mat, Integer> minimumNeighbors, @Nullable Function<Mat, Size> minimumSize,
-				@Nullable Function<Mat, Size> maximumSize) throws IOException {
-			try (InputStream in = location.getInputStream()) {
-				Path tempFile = Files.createTempFile(null, ".xml");
-				logger.warn("Failed to open {}. Attempting to open via temporary file: {}", location, tempFile);
-				tempFile.toFile().deleteOnExit();
-				Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
-				return new FinalizedHaarCascade(tempFile, scaleFactor, minimumNeighbors, minimumSize, maximumSize);
-			}
+			final String reply = "This is a " + settings.getName() + "!";
+			final Emoji reaction = settings.getReaction() == null ? null : Emoji.fromFormatted(settings.getReaction());
+
+			return new CascadeEntry(settings.getName(), cascade, scannerData -> {
+				if (settings.isReply() && !scannerData.getConfig().isExcluded(scannerData.getMessage().getChannel()))
+					scannerData.getMessage().reply(reply).queue();
+
+				if (reaction != null)
+					scannerData.getMessage().addReaction(reaction).queue(v -> {
+					}, new ErrorHandler().ignore(ErrorResponse.REACTION_BLOCKED));
+			});
 		}
 	}
 }
@@ -0,0 +1,85 @@
+package net.foxgenesis.filescanner.batch;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes {@link BatchResult BatchResults} as CSV or JSON.
+ */
+public enum BatchReport {
+	CSV {
+		@Override
+		public void write(List<BatchResult> results, Writer out) throws IOException {
+			out.write("file,type,outcome,detail,bytes,millis,loudness,peak\n");
+			for (BatchResult result : results)
+				out.write(String.join(",", csv(result.file().toString()), result.type().name(),
+						result.outcome().name(), csv(result.detail()), Long.toString(result.bytes()),
+						Long.toString(result.millis()), number(result.loudness(), ""), number(result.peak(), ""))
+						+ "\n");
+		}
+	},
+	JSON {
+		@Override
+		public void write(List<BatchResult> results, Writer out) throws IOException {
+			out.write("[\n");
+			for (int i = 0; i < results.size(); i++) {
+				BatchResult result = results.get(i);
+				out.write("""
+						  {"file": %s, "type": %s, "outcome": %s, "detail": %s, "bytes": %d, "millis": %d, \
+						"loudness": %s, "peak": %s}%s
+						""".formatted(json(result.file().toString()), json(result.type().name()),
+						json(result.outcome().name()), json(result.detail()), result.bytes(), result.millis(),
+						number(result.loudness(), "null"), number(result.peak(), "null"),
+						i + 1 < results.size() ? "," : ""));
+			}
+			out.write("]\n");
+		}
+	};
+
+	/**
+	 * Write a report.
+	 * 
+	 * @param results - results to write
+	 * @param out     - destination of the report
+	 * 
+	 * @throws IOException Thrown if writing failed
+	 */
+	public abstract void write(List<BatchResult> results, Writer out) throws IOException;
+
+	private static String number(double value, String missing) {
+		return Double.isFinite(value) ? String.format(Locale.ROOT, "%.4f", value) : missing;
+	}
+
+	private static String csv(String value) {
+		if (value == null)
+			return "";
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	private static String json(String value) {
+		if (value == null)
+			return "null";
+
+		StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"' -> builder.append("\\\"");
+			case '\\' -> builder.append("\\\\");
+			case '\n' -> builder.append("\\n");
+			case '\r' -> builder.append("\\r");
+			case '\t' -> builder.append("\\t");
+			default -> {
+				if (c < 0x20)
+					builder.append("\\u%04x".formatted((int) c));
+				else
+					builder.append(c);
+			}
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
@@ -0,0 +1,30 @@
+package net.foxgenesis.filescanner.batch;
+
+import java.nio.file.Path;
+
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.database.ScanRecord.Outcome;
+import net.foxgenesis.filescanner.database.ScanRecord.Type;
+
+/**
+ * Verdict of a single file scanned by the {@link BatchScanner}.
+ * 
+ * @param file     - scanned file
+ * @param type     - engine that scanned the file
+ * @param outcome  - verdict of the scan
+ * @param detail   - loudness ratio, detected cascade or error
+ * @param bytes    - size of the file
+ * @param millis   - time taken to scan the file
+ * @param loudness - largest fraction of the video above the threshold or
+ *                 {@code NaN} for images
+ * @param peak     - highest momentary loudness in LUFS or {@code NaN} for
+ *                 images and videos without audio
+ */
+public record BatchResult(Path file, Type type, Outcome outcome, @Nullable String detail, long bytes, long millis,
+		double loudness, double peak) {
+
+	static BatchResult error(Path file, Type type, long bytes, long millis, Exception e) {
+		return new BatchResult(file, type, Outcome.ERROR, e.toString(), bytes, millis, Double.NaN, Double.NaN);
+	}
+}
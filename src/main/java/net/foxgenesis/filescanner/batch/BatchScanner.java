@@ -0,0 +1,282 @@
+package net.foxgenesis.filescanner.batch;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.DecoderType;
+import net.foxgenesis.filescanner.cascade.CascadeDetection;
+import net.foxgenesis.filescanner.cascade.CascadeEntry;
+import net.foxgenesis.filescanner.cascade.OpenCVProperties.CascadeSettings;
+import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.database.ScanRecord.Outcome;
+import net.foxgenesis.filescanner.database.ScanRecord.Type;
+import net.foxgenesis.filescanner.loud.DecoderBackends;
+import net.foxgenesis.filescanner.loud.LoudnessAnalysis;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.watame.util.PrefixedThreadFactory;
+import nu.pattern.OpenCV;
+
+/**
+ * Headless entry point that runs the loudness and cascade engines over a
+ * directory without starting Discord or Spring:
+ *
+ * <pre>
+ * java -cp filescanner.jar net.foxgenesis.filescanner.batch.BatchScanner [options] &lt;directory&gt;
+ * </pre>
+ *
+ * Videos are measured with the same {@link DecoderBackends} as
+ * {@link net.foxgenesis.filescanner.loud.LoudScanner LoudScanner} and images
+ * are run through {@link CascadeDetection}. Every file gets the same time
+ * budget it would get in Discord. The report lists the verdict, loudness ratio
+ * and peak of every file so {@code threshold} and {@code strikePercentage} can
+ * be tuned on real corpora.
+ */
+public class BatchScanner implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(BatchScanner.class);
+
+	private static final Set<String> VIDEOS = Set.of("mp4", "m4v", "mov", "webm", "mkv", "avi", "3gp");
+	private static final Set<String> IMAGES = Set.of("png", "jpg", "jpeg", "webp", "bmp", "tif", "tiff");
+
+	private final Config config;
+	private final short threshold;
+	private final short strikePercentage;
+	private final boolean stupidMode;
+
+	private final DecoderBackends decoders;
+	@Nullable
+	private final CascadeDetection detection;
+	private final ExecutorService workers;
+
+	/**
+	 * @param config           - scanner configuration. Only the decoder,
+	 *                         timeout and OpenCV settings are used
+	 * @param threshold        - loudness threshold in LU
+	 * @param strikePercentage - minimum percentage of a video that must be loud
+	 * @param stupidMode       - use relaxed cascade parameters
+	 * @param concurrency      - number of files scanned at once
+	 * @param cascades         - load the cascades and scan images
+	 *
+	 * @throws IOException Thrown if a cascade could not be loaded
+	 */
+	public BatchScanner(Config config, short threshold, short strikePercentage, boolean stupidMode, int concurrency,
+			boolean cascades) throws IOException {
+		this.config = Objects.requireNonNull(config);
+		this.threshold = threshold;
+		this.strikePercentage = strikePercentage;
+		this.stupidMode = stupidMode;
+
+		this.workers = Executors.newFixedThreadPool(concurrency, new PrefixedThreadFactory("Batch Scanner"));
+		this.decoders = DecoderBackends.create(config,
+				Executors.newCachedThreadPool(new PrefixedThreadFactory("Video Reader")));
+		decoders.probe();
+
+		if (cascades) {
+			OpenCV.loadLocally();
+			detection = new CascadeDetection(config.getOpencv());
+			DefaultResourceLoader loader = new DefaultResourceLoader();
+			for (CascadeSettings settings : config.getOpencv().getCascades())
+				detection.addCascades(
+						new CascadeEntry(settings.getName(), settings.createCascade(loader), data -> {}));
+		} else
+			detection = null;
+	}
+
+	/**
+	 * Scan every video and image below a directory.
+	 *
+	 * @param directory - directory to walk
+	 *
+	 * @return Returns the results sorted by file
+	 *
+	 * @throws IOException Thrown if the directory could not be walked
+	 */
+	public List<BatchResult> scan(Path directory) throws IOException {
+		List<Future<BatchResult>> futures = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.filter(Files::isRegularFile).forEach(file -> {
+				String extension = getExtension(file);
+				if (VIDEOS.contains(extension))
+					futures.add(workers.submit(() -> scanVideo(file)));
+				else if (IMAGES.contains(extension) && detection != null)
+					futures.add(workers.submit(() -> scanImage(file)));
+			});
+		}
+
+		logger.info("Scanning {} files", futures.size());
+		List<BatchResult> results = new ArrayList<>(futures.size());
+		for (Future<BatchResult> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while scanning", e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+		results.sort(Comparator.comparing(BatchResult::file));
+		return results;
+	}
+
+	private BatchResult scanVideo(Path file) {
+		return timed(file, Type.LOUDNESS, (bytes, start) -> {
+			List<Double> lu = decoders.decode(() -> Files.newInputStream(file), file.toString(),
+					Deadline.after(config.getTimeout().getBudget(bytes)));
+			LoudnessAnalysis analysis = LoudnessAnalysis.analyze(lu, threshold, strikePercentage);
+			double peak = lu.stream().mapToDouble(Double::doubleValue).max().orElse(Double.NaN);
+
+			return new BatchResult(file, Type.LOUDNESS, analysis.loud() ? Outcome.LOUD : Outcome.CLEAN,
+					"%.4f/%.4f".formatted(analysis.loudness(), analysis.max()), bytes, elapsed(start),
+					analysis.loudness(), peak);
+		});
+	}
+
+	private BatchResult scanImage(Path file) {
+		return timed(file, Type.CASCADE, (bytes, start) -> {
+			String detected = detection.detect(Files.readAllBytes(file), stupidMode);
+			return new BatchResult(file, Type.CASCADE, detected == null ? Outcome.CLEAN : Outcome.DETECTED, detected,
+					bytes, elapsed(start), Double.NaN, Double.NaN);
+		});
+	}
+
+	private static BatchResult timed(Path file, Type type, Scan scan) {
+		long start = System.nanoTime();
+		long bytes = -1;
+		try {
+			bytes = Files.size(file);
+			BatchResult result = scan.run(bytes, start);
+			logger.debug("{} {} in {}ms", result.outcome(), file, result.millis());
+			return result;
+		} catch (Exception e) {
+			logger.warn("Failed to scan {}", file, e);
+			return BatchResult.error(file, type, bytes, elapsed(start), e);
+		}
+	}
+
+	private static long elapsed(long start) {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	private static String getExtension(Path file) {
+		String name = file.getFileName().toString();
+		int index = name.lastIndexOf('.');
+		return index < 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	public void close() throws IOException {
+		workers.shutdownNow();
+		decoders.close();
+	}
+
+	@FunctionalInterface
+	private interface Scan {
+		BatchResult run(long bytes, long start) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Defaults match a newly configured guild
+		FileScannerConfiguration defaults = new FileScannerConfiguration();
+		Config config = new Config();
+		short threshold = defaults.getThreshold();
+		short strikePercentage = defaults.getStrikePercentage();
+		int concurrency = Runtime.getRuntime().availableProcessors();
+		boolean stupidMode = false;
+		boolean cascades = true;
+		BatchReport format = null;
+		Path output = null;
+		Path directory = null;
+
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			String value = option.length > 1 ? option[1] : "";
+			switch (option[0]) {
+			case "--threshold" -> threshold = Short.parseShort(value);
+			case "--strike" -> strikePercentage = Short.parseShort(value);
+			case "--concurrency" -> concurrency = Integer.parseInt(value);
+			case "--ffmpeg" -> config.setFfmpegPath(Path.of(value));
+			case "--qtfs" -> config.setQtfs(Path.of(value));
+			case "--decoders" -> config.getDecoder().setBackends(
+					Arrays.stream(value.split(",")).map(String::trim).map(String::toUpperCase)
+							.map(DecoderType::valueOf).toList());
+			case "--format" -> format = BatchReport.valueOf(value.toUpperCase(Locale.ROOT));
+			case "--output" -> output = Path.of(value);
+			case "--stupid" -> stupidMode = true;
+			case "--upright-only" -> config.getOpencv().getPre().setThorough(false);
+			case "--no-cascades" -> cascades = false;
+			default -> {
+				if (arg.startsWith("--") || directory != null)
+					usage("Unknown option: " + arg);
+				directory = Path.of(arg);
+			}
+			}
+		}
+
+		if (directory == null || !Files.isDirectory(directory))
+			usage("A directory to scan is required");
+		if (format == null)
+			format = output != null && output.toString().toLowerCase(Locale.ROOT).endsWith(".json") ? BatchReport.JSON
+					: BatchReport.CSV;
+
+		long start = System.nanoTime();
+		List<BatchResult> results;
+		try (BatchScanner scanner = new BatchScanner(config, threshold, strikePercentage, stupidMode, concurrency,
+				cascades)) {
+			results = scanner.scan(directory);
+		}
+		long millis = elapsed(start);
+
+		try (Writer out = output == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: Files.newBufferedWriter(output)) {
+			format.write(results, out);
+		}
+
+		Map<Outcome, Long> counts = new EnumMap<>(Outcome.class);
+		results.forEach(result -> counts.merge(result.outcome(), 1L, Long::sum));
+		long bytes = results.stream().mapToLong(result -> Math.max(0, result.bytes())).sum();
+		System.err.printf(Locale.ROOT, "Scanned %d files (%.1f MB) in %.1fs: %s%n", results.size(),
+				bytes / 1_048_576D, millis / 1000D, counts);
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("""
+				Usage: BatchScanner [options] <directory>
+				  --threshold=<LU>          loudness threshold (default: guild default)
+				  --strike=<percent>        minimum loud percentage (default: guild default)
+				  --concurrency=<n>         files scanned at once (default: processors)
+				  --ffmpeg=<path>           path to FFMPEG
+				  --qtfs=<path>             path to QuickTime-FastStart
+				  --decoders=<list>         decoder backends in order, e.g. QTFS,FFMPEG
+				  --format=<csv|json>       report format (default: from output or csv)
+				  --output=<file>           report file (default: stdout)
+				  --stupid                  relaxed cascade parameters
+				  --upright-only            only scan images in their upright orientation
+				  --no-cascades             skip images""");
+		System.exit(1);
+	}
+}
@@ -1,85 +1,311 @@
 package net.foxgenesis.filescanner.cascade;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 
 import net.foxgenesis.filescanner.cascade.haar.HaarCascade;
+import net.foxgenesis.filescanner.cascade.util.MatTracker;
 import net.foxgenesis.filescanner.cascade.util.OpenCVUtils;
+import net.foxgenesis.filescanner.database.ScanAuditLog;
+import net.foxgenesis.filescanner.database.ScanRecord;
+import net.foxgenesis.filescanner.database.ScanRecord.Outcome;
+import net.foxgenesis.filescanner.database.ScanRecord.Type;
+import net.foxgenesis.filescanner.jfr.DetectEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.AttachmentInfo;
+import net.foxgenesis.filescanner.util.AttachmentRejectedException;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanCancellation.Ticket;
+import net.foxgenesis.filescanner.util.ScanStage;
+import net.foxgenesis.filescanner.util.ScanStages;
+import net.foxgenesis.filescanner.util.ScanUsage;
+import net.foxgenesis.filescanner.util.SingleFlight;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 
 public class CascadeDetection implements Subscriber<CascadeDetectionData> {
 
 	private static final Logger logger = LoggerFactory.getLogger(CascadeDetection.class);
 
-	private final CopyOnWriteArrayList<CascadeEntry> cascades = new CopyOnWriteArrayList<>();
+	private final CopyOnWriteArrayList<RankedCascade> cascades = new CopyOnWriteArrayList<>();
 	private final OpenCVProperties properties;
+	private final RotationStrategy rotationStrategy;
 	private Consumer<Exception> errorHandler = null;
 
+	@Nullable
+	private ScanAuditLog auditLog;
+
+	@Nullable
+	private ScanUsage usage;
+
+	/**
+	 * Detections of the same image that are running at once
+	 */
+	private final SingleFlight<String, CascadeEntry> flights = new SingleFlight<>();
+
+	private boolean coalesce = true;
+
+	@Nullable
+	private ScanStages stages;
+
+	/**
+	 * Completed once all cascades are loaded. No items are requested before then.
+	 */
+	private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
 	protected Subscription subscription;
 
 	public CascadeDetection(OpenCVProperties properties) {
 		this.properties = Objects.requireNonNull(properties);
+		this.rotationStrategy = new RotationStrategy(properties.getPre());
 	}
 
 	@Override
 	public final void onSubscribe(Subscription subscription) {
 		this.subscription = Objects.requireNonNull(subscription);
-		subscription.request(1);
+		ready.thenRun(() -> subscription.request(1));
 	}
 
 	@Override
 	public final void onNext(CascadeDetectionData scannerData) {
 		subscription.request(1);
 
-		Mat[] mats = null;
-		try {
+		try (Ticket ticket = scannerData.getTicket()) {
 			attachment: for (AttachmentData attachment : scannerData.getAttachments()) {
-				OpenCVUtils.release(mats);
-
 				String attachmentName = attachment.getFileName();
+				if (ticket.isCancelled()) {
+					logger.debug("Skipping {}. Message was deleted", attachmentName);
+					return;
+				}
 				logger.debug("Getting Mat for {}", attachmentName);
 
 				long start = System.currentTimeMillis();
-				mats = getAllRotations(getMatFromAttachment(attachment));
+				long cpuStart = ScanUsage.cpuTime();
+				byte[] bytes = null;
+				AttachmentInfo info = AttachmentInfo.of(scannerData.getMessage(), attachment);
+				AtomicReference<ScanStage.Permit> permit = new AtomicReference<>();
+				try (ScanContext.Scope scope = new ScanContext(scannerData.getMessage().getGuildIdLong(),
+						attachmentName, Math.max(0, info.size()), ScanContext.CASCADE).open();
+						MatTracker.Scope mats = MatTracker.global().open(attachmentName)) {
+					enter(permit, ScanStages::getDownload);
+					byte[] image = bytes = scannerData.readAttachment(attachment);
+					boolean stupidMode = scannerData.getConfig().isStupidMode();
+					CascadeEntry entry;
+					try {
+						// Scans waiting on a running detection of the same image do not hold a slot
+						entry = coalesce(image, stupidMode, () -> release(permit), () -> {
+							enter(permit, ScanStages::getTransform);
+							try (RotationStrategy.Rotations rotations = rotationStrategy
+									.rotations(getMatFromBytes(image))) {
+								enter(permit, ScanStages::getAnalysis);
+								CascadeEntry found = detect(rotations, stupidMode, ticket::isCancelled);
+								// Waiting scans must not share a partial result
+								if (ticket.isCancelled())
+									throw new CancellationException("Detection of " + attachmentName);
+								return found;
+							}
+						});
+					} catch (CancellationException e) {
+						entry = null;
+					}
+					if (ticket.isCancelled()) {
+						audit(scannerData, attachment, Outcome.CANCELLED, null, start);
+						return;
+					}
 
-				for (CascadeEntry entry : cascades) {
-					if (entry.cascade().findAny(mats, scannerData.getConfig().isStupidMode())) {
-						long end = System.currentTimeMillis();
-						logger.debug("Time Took [{}]: {}ms", attachmentName, (end - start));
+					long end = System.currentTimeMillis();
+					logger.debug("Time Took [{}]: {}ms", attachmentName, (end - start));
+					audit(scannerData, attachment, entry == null ? Outcome.CLEAN : Outcome.DETECTED,
+							entry == null ? null : entry.name(), start);
 
+					if (entry != null) {
+						enter(permit, ScanStages::getAction);
 						entry.consumer().accept(scannerData);
 						break attachment;
 					}
+				} catch (Exception e) {
+					AttachmentRejectedException rejection = AttachmentRejectedException.find(e);
+					if (rejection != null) {
+						logger.debug("Skipping {}: {}", attachmentName, rejection.getMessage());
+						audit(scannerData, attachment, Outcome.REJECTED, rejection.getMessage(), start);
+						continue;
+					}
+					audit(scannerData, attachment, Outcome.ERROR, e.toString(), start);
+					throw e;
+				} finally {
+					release(permit);
+					if (usage != null)
+						usage.record(scannerData.getMessage().getGuildIdLong(), ScanUsage.cpuSince(cpuStart), 0,
+								bytes == null ? 0 : bytes.length);
 				}
-
-				long end = System.currentTimeMillis();
-				logger.debug("Time Took [{}]: {}ms", attachmentName, (end - start));
 			}
 		} catch (Exception e) {
 			if (errorHandler == null)
 				throw new CompletionException(e);
 			else
 				errorHandler.accept(e);
-		} finally {
-			OpenCVUtils.release(mats);
 		}
 	}
 
+	/**
+	 * Move a scan into a stage, handing off the permit of its current stage.
+	 * Does nothing if stages are not set.
+	 * 
+	 * @param permit - holds the permit of the current stage. Empty if the scan
+	 *               has not entered a stage yet
+	 * @param stage  - stage to move to
+	 */
+	private void enter(AtomicReference<ScanStage.Permit> permit, Function<ScanStages, ScanStage> stage) {
+		ScanStages stages = this.stages;
+		if (stages == null)
+			return;
+		ScanStage next = stage.apply(stages);
+		ScanStage.Permit current = permit.get();
+		permit.set(current == null ? next.enter(Deadline.none()) : current.handoff(next, Deadline.none()));
+	}
+
+	/**
+	 * Give up the permit of the current stage. Does nothing if the scan holds no
+	 * permit.
+	 */
+	private static void release(AtomicReference<ScanStage.Permit> permit) {
+		ScanStage.Permit held = permit.getAndSet(null);
+		if (held != null)
+			held.close();
+	}
+
+	private void audit(CascadeDetectionData scannerData, AttachmentData attachment, Outcome outcome,
+			@Nullable String detail, long start) {
+		if (auditLog == null)
+			return;
+		auditLog.record(new ScanRecord(scannerData.getMessage(), attachment.getFileName(), Type.CASCADE, outcome,
+				detail, AttachmentInfo.of(scannerData.getMessage(), attachment).size(),
+				System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Run all cascades over the rotations of an image, starting with the upright
+	 * orientation. Every cascade shares the same pre-processed rotations and
+	 * cascades are tried in order of their expected cost per hit.
+	 * 
+	 * @param rotations  - rotations of the image
+	 * @param stupidMode - use relaxed cascade parameters
+	 * @param cancelled  - checked before every pass. Remaining passes are
+	 *                   skipped once it returns {@code true}
+	 * 
+	 * @return Returns the first {@link CascadeEntry} with a detection or
+	 *         {@code null}
+	 */
+	private CascadeEntry detect(RotationStrategy.Rotations rotations, boolean stupidMode, BooleanSupplier cancelled) {
+		List<RankedCascade> ranked = getRankedCascades();
+
+		for (int pass = 0; pass < rotations.passes() && !cancelled.getAsBoolean(); pass++) {
+			Mat mat = rotations.get(pass);
+			for (RankedCascade cascade : ranked) {
+				DetectEvent event = new DetectEvent();
+				event.begin();
+				long start = System.nanoTime();
+				boolean found = cascade.entry().cascade().find(mat, stupidMode);
+				cascade.statistics().record(System.nanoTime() - start, found);
+
+				event.end();
+				if (event.shouldCommit()) {
+					event.setContext(ScanContext.current());
+					event.setDetection(cascade.entry().name(), pass);
+					event.setOutcome(found ? "detected" : "clean");
+					event.commit();
+				}
+
+				if (found) {
+					rotations.hit(pass);
+					return cascade.entry();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Run a detection unless the same image is already being scanned with the
+	 * same parameters, in which case its result is shared.
+	 * 
+	 * @param bytes      - encoded image
+	 * @param stupidMode - use relaxed cascade parameters
+	 * @param onWait     - run before waiting for a running detection
+	 * @param task       - detection to run
+	 * 
+	 * @return Returns the first {@link CascadeEntry} with a detection or
+	 *         {@code null}
+	 * 
+	 * @throws IOException Thrown if the image could not be decoded
+	 */
+	private CascadeEntry coalesce(byte[] bytes, boolean stupidMode, Runnable onWait,
+			SingleFlight.Task<CascadeEntry, IOException> task) throws IOException {
+		if (!coalesce)
+			return task.call();
+		try {
+			String key = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)) + ":"
+					+ stupidMode;
+			return flights.run(key, Deadline.none(), onWait, task);
+		} catch (NoSuchAlgorithmException e) {
+			return task.call();
+		}
+	}
+
+	/**
+	 * Run all cascades over an encoded image outside of the publishing pipeline.
+	 * 
+	 * @param bytes      - encoded image
+	 * @param stupidMode - use relaxed cascade parameters
+	 * 
+	 * @return Returns the name of the first cascade with a detection or
+	 *         {@code null}
+	 * 
+	 * @throws IOException Thrown if the image could not be decoded
+	 */
+	@Nullable
+	public String detect(byte[] bytes, boolean stupidMode) throws IOException {
+		try (RotationStrategy.Rotations rotations = rotationStrategy.rotations(getMatFromBytes(bytes))) {
+			CascadeEntry entry = detect(rotations, stupidMode, () -> false);
+			return entry == null ? null : entry.name();
+		}
+	}
+
+	private List<RankedCascade> getRankedCascades() {
+		List<RankedCascade> ranked = new ArrayList<>(cascades);
+		ranked.sort(Comparator.comparingDouble(cascade -> cascade.statistics().getScore()));
+		return ranked;
+	}
+
 	@Override
 	public void onError(Throwable throwable) {
 		logger.error("Error in CascadeDetection", throwable);
@@ -91,10 +317,22 @@ public class CascadeDetection implements Subscriber<CascadeDetectionData> {
 		logger.info("Queue Finished");
 	}
 
-	private Mat getMatFromAttachment(AttachmentData attachment) throws IOException {
+	/**
+	 * Decode an image and apply the configured pre-processing.
+	 * 
+	 * @param bytes - encoded image
+	 * 
+	 * @return Returns the grayscale, blurred and equalized image
+	 * 
+	 * @throws IOException                 Thrown if {@code bytes} is empty
+	 * @throws AttachmentRejectedException Thrown if the decoded image exceeds
+	 *                                     the native memory limit
+	 */
+	Mat getMatFromBytes(byte[] bytes) throws IOException {
+		MatTracker tracker = MatTracker.global();
 		Mat image = null;
-		try (InputStream in = attachment.openConnection()) {
-			MatOfByte mob = new MatOfByte(in.readAllBytes());
+		try {
+			MatOfByte mob = new MatOfByte(bytes);
 			if (mob.empty()) {
 				mob.release();
 				throw new IOException("MatOfByte was empty from conversion");
@@ -103,44 +341,73 @@ public class CascadeDetection implements Subscriber<CascadeDetectionData> {
 			image = Imgcodecs.imdecode(mob, Imgcodecs.IMREAD_COLOR); // Or IMREAD_GRAYSCALE, IMREAD_UNCHANGED
 			mob.release(); // Release the MatOfByte
 
+			// The color image is the largest this scan holds at once
+			tracker.track(image, "decode");
+			tracker.admit(image, "image of " + bytes.length + " bytes");
+
 			// Pre-process
 			Imgproc.cvtColor(image, image, Imgproc.COLOR_BGR2GRAY);
 			Imgproc.medianBlur(image, image, properties.getPre().getBlurSize());
 			Imgproc.equalizeHist(image, image);
-			return image;
+			return tracker.track(image, "decode");
 		} catch (Exception e) {
 			OpenCVUtils.release(image);
 			throw e;
 		}
 	}
 
-	private Mat[] getAllRotations(Mat mat) {
-		double rotation = properties.getPre().getRotation();
-		if (rotation <= 0)
-			return new Mat[] { mat };
-
-		Mat[] mats = new Mat[(int) (360 / rotation)];
-		mats[0] = mat;
+	/**
+	 * Register the cascades once they are loaded and start requesting items.
+	 * Items submitted before then stay queued in the publisher.
+	 * 
+	 * @param loading - stage that completes with the loaded cascades
+	 * 
+	 * @return Returns a {@link CompletableFuture} that completes when this
+	 *         detector is ready
+	 */
+	public CompletableFuture<Void> load(CompletionStage<? extends Collection<CascadeEntry>> loading) {
+		loading.whenComplete((entries, err) -> {
+			if (err != null) {
+				ready.completeExceptionally(err);
+				return;
+			}
+			addCascades(entries);
+			if (properties.isWarmup())
+				warmup();
+			ready.complete(null);
+		});
+		return ready;
+	}
 
-		logger.debug("Getting {} rotations", mats.length - 1);
+	/**
+	 * Run the decode, pre-process, rotation and detection steps on a generated
+	 * noise image so the first real scans do not pay for JIT and native
+	 * initialization. Statistics are not recorded.
+	 */
+	private void warmup() {
 		long start = System.currentTimeMillis();
+		Mat noise = new Mat(480, 640, CvType.CV_8UC3);
+		MatOfByte encoded = new MatOfByte();
 		try {
-			int index = 1;
-			for (double rot = rotation; rot < 360; rot += rotation)
-				mats[index++] = OpenCVUtils.getRotation(mat, rot);
+			Core.randu(noise, 0, 255);
+			Imgcodecs.imencode(".png", noise, encoded);
 
-			return mats;
+			try (RotationStrategy.Rotations rotations = rotationStrategy
+					.rotations(getMatFromBytes(encoded.toArray()))) {
+				for (int pass = 0; pass < rotations.passes(); pass++)
+					for (RankedCascade cascade : cascades)
+						cascade.entry().cascade().find(rotations.get(pass), false);
+			}
+			logger.info("Cascade warmup took {}ms", System.currentTimeMillis() - start);
 		} catch (Exception e) {
-			OpenCVUtils.release(mats);
-			throw e;
+			logger.warn("Cascade warmup failed", e);
 		} finally {
-			long end = System.currentTimeMillis();
-			logger.debug("Rotation time took: " + (end - start) + "ms");
+			OpenCVUtils.release(noise, encoded);
 		}
 	}
 
 	public boolean addCascade(HaarCascade cascade, Consumer<CascadeDetectionData> consumer) {
-		return cascades.add(new CascadeEntry(cascade, consumer));
+		return addCascades(new CascadeEntry(cascade, consumer));
 	}
 
 	public boolean addCascades(CascadeEntry... cascades) {
@@ -148,10 +415,50 @@ public class CascadeDetection implements Subscriber<CascadeDetectionData> {
 	}
 
 	public boolean addCascades(Collection<CascadeEntry> cascades) {
-		return this.cascades.addAll(cascades);
+		return this.cascades.addAll(cascades.stream().map(RankedCascade::new).toList());
+	}
+
+	/**
+	 * Get the statistics of every registered cascade.
+	 * 
+	 * @return Returns a {@link Map} of cascade name to {@link CascadeStatistics}
+	 */
+	public Map<String, CascadeStatistics> getStatistics() {
+		Map<String, CascadeStatistics> map = new LinkedHashMap<>();
+		cascades.forEach(cascade -> map.put(cascade.entry().name(), cascade.statistics()));
+		return map;
+	}
+
+	public void setAuditLog(@Nullable ScanAuditLog auditLog) {
+		this.auditLog = auditLog;
+	}
+
+	public void setUsage(@Nullable ScanUsage usage) {
+		this.usage = usage;
+	}
+
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * Run downloads, decoding, detection and the actions of detected cascades
+	 * in separate stages.
+	 * 
+	 * @param stages - stages of the pipeline or {@code null} to run each scan
+	 *               from start to finish
+	 */
+	public void setStages(@Nullable ScanStages stages) {
+		this.stages = stages;
 	}
 
 	public void setErrorHandler(Consumer<Exception> handler) {
 		this.errorHandler = handler;
 	}
+
+	private record RankedCascade(CascadeEntry entry, CascadeStatistics statistics) {
+		RankedCascade(CascadeEntry entry) {
+			this(Objects.requireNonNull(entry), new CascadeStatistics());
+		}
+	}
 }
@@ -1,17 +1,40 @@
 package net.foxgenesis.filescanner.cascade;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
+import org.springframework.lang.Nullable;
+
+import lombok.AccessLevel;
 import lombok.Getter;
 import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.Message.Attachment;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.jfr.DownloadEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.AttachmentFetcher.Kind;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanCancellation.Ticket;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 import net.foxgenesis.watame.util.lang.DiscordLocaleMessageSource;
 
 @Getter
 public class CascadeDetectionData {
+	/**
+	 * Size assumed for linked images since their dimensions are unknown
+	 */
+	private static final long UNKNOWN_SIZE = 1920 * 1080;
 
 	private final Message message;
 	private final FileScannerConfiguration config;
@@ -19,10 +42,122 @@ public class CascadeDetectionData {
 
 	private final List<AttachmentData> attachments;
 
-	public CascadeDetectionData(Message message, List<AttachmentData> attachments, FileScannerConfiguration config, DiscordLocaleMessageSource messages) {
+	private final Ticket ticket;
+
+	@Nullable
+	@Getter(AccessLevel.NONE)
+	private final AttachmentFetcher fetcher;
+
+	@Getter(AccessLevel.NONE)
+	private final Map<AttachmentData, CompletableFuture<byte[]>> downloads = Collections
+			.synchronizedMap(new IdentityHashMap<>());
+
+	public CascadeDetectionData(Message message, List<AttachmentData> attachments, FileScannerConfiguration config,
+			DiscordLocaleMessageSource messages, Ticket ticket, @Nullable AttachmentFetcher fetcher) {
 		this.message = Objects.requireNonNull(message);
+		this.ticket = Objects.requireNonNull(ticket);
+		this.fetcher = fetcher;
 		this.config = Objects.requireNonNull(config);
 		this.messages = Objects.requireNonNull(messages);
 		this.attachments = Collections.unmodifiableList(attachments);
 	}
+
+	/**
+	 * Estimate the amount of data that must be scanned. Uses the image dimensions
+	 * reported by Discord when available and the file size otherwise.
+	 * 
+	 * @return Returns the estimated number of pixels or bytes to scan
+	 */
+	public long estimateSize() {
+		long size = 0;
+		int known = 0;
+		for (Attachment attachment : message.getAttachments())
+			if (attachment.isImage()) {
+				long pixels = (long) attachment.getWidth() * attachment.getHeight();
+				size += pixels > 0 ? pixels : attachment.getSize();
+				known++;
+			}
+		return size + Math.max(0, attachments.size() - known) * UNKNOWN_SIZE;
+	}
+
+	/**
+	 * Start downloading all attachments on the specified executor so the
+	 * detection workers do not block on the network. The downloads are bounded
+	 * by a deadline that is attached to the ticket, so they are abandoned when
+	 * the message is deleted, and the downloads are cancelled once the ticket
+	 * closes.
+	 * 
+	 * @param executor - executor to download on
+	 * @param timeout  - time the downloads may take
+	 * 
+	 * @return Returns this instance
+	 */
+	public CascadeDetectionData prefetch(Executor executor, Duration timeout) {
+		Deadline deadline = Deadline.after(timeout);
+		ticket.attach(deadline);
+		for (AttachmentData attachment : attachments)
+			downloads.put(attachment, CompletableFuture.supplyAsync(() -> {
+				try {
+					return download(attachment, deadline);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor));
+		ticket.onClose(() -> {
+			deadline.cancel();
+			downloads.values().forEach(download -> download.cancel(false));
+		});
+		return this;
+	}
+
+	/**
+	 * Get the contents of an attachment. Uses the prefetched download if one was
+	 * started, otherwise the attachment is downloaded on the calling thread.
+	 * 
+	 * @param attachment - attachment to read
+	 * 
+	 * @return Returns the attachment contents
+	 * 
+	 * @throws IOException Thrown if the download failed
+	 */
+	public byte[] readAttachment(AttachmentData attachment) throws IOException {
+		CompletableFuture<byte[]> download = downloads.get(attachment);
+		if (download == null)
+			return download(attachment, Deadline.none());
+
+		try {
+			return download.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException io)
+				throw io.getCause();
+			throw e;
+		}
+	}
+
+	private byte[] download(AttachmentData attachment, Deadline deadline) throws IOException {
+		DownloadEvent event = new DownloadEvent();
+		event.begin();
+
+		byte[] bytes = null;
+		try (InputStream in = fetcher == null ? attachment.openConnection()
+				: fetcher.open(message, attachment, Kind.IMAGE, deadline);
+				Deadline.Watch watch = deadline.watch(() -> closeQuietly(in))) {
+			return bytes = in.readAllBytes();
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.setContext(
+						new ScanContext(message.getGuildIdLong(), attachment.getFileName(), 0, ScanContext.CASCADE));
+				event.setBytes(bytes == null ? 0 : bytes.length);
+				event.setOutcome(bytes == null ? "failed" : "ok");
+				event.commit();
+			}
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {}
+	}
 }
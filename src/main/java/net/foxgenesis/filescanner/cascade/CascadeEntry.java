@@ -4,6 +4,9 @@ import java.util.function.Consumer;
 
 import net.foxgenesis.filescanner.cascade.haar.HaarCascade;
 
-public record CascadeEntry(HaarCascade cascade, Consumer<CascadeDetectionData> consumer) {
+public record CascadeEntry(String name, HaarCascade cascade, Consumer<CascadeDetectionData> consumer) {
 
-}
\ No newline at end of file
+	public CascadeEntry(HaarCascade cascade, Consumer<CascadeDetectionData> consumer) {
+		this(cascade.getClass().getSimpleName(), cascade, consumer);
+	}
+}
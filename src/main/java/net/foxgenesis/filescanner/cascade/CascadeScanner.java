@@ -1,14 +1,16 @@
 package net.foxgenesis.filescanner.cascade;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -17,6 +19,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
@@ -25,12 +28,25 @@ import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageType;
 import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.exceptions.HttpException;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.ExecutorType;
+import net.foxgenesis.filescanner.cascade.util.MatTracker;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
 import net.foxgenesis.filescanner.database.FileScannerConfigurationService;
-import net.foxgenesis.watame.util.PrefixedThreadFactory;
+import net.foxgenesis.filescanner.database.ScanAuditLog;
+import net.foxgenesis.filescanner.jfr.AdmissionEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.AdaptiveConcurrency;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.PriorityPublisher;
+import net.foxgenesis.filescanner.util.ScanCancellation;
+import net.foxgenesis.filescanner.util.ScanExecutors;
+import net.foxgenesis.filescanner.util.ScanJournal;
+import net.foxgenesis.filescanner.util.ScanStages;
+import net.foxgenesis.filescanner.util.ScanUsage;
 import net.foxgenesis.watame.util.PushbulletService;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 import net.foxgenesis.watame.util.discord.DiscordUtils;
@@ -45,24 +61,74 @@ public class CascadeScanner extends ListenerAdapter implements AutoCloseable {
 	private final FileScannerConfigurationService service;
 	private final DiscordLocaleMessageSource messages;
 
-	private final SubmissionPublisher<CascadeDetectionData> publisher;
+	private final PriorityPublisher<CascadeDetectionData> publisher;
 	private final ExecutorService executor;
+	@Nullable
+	private final AdaptiveConcurrency concurrency;
+	@Nullable
+	private final ScanJournal journal;
+	@Nullable
+	private final ScanStages stages;
+
+	/**
+	 * Executor used to prefetch attachments or {@code null} to download on the
+	 * detection workers. Staged scans download in the download stage instead
+	 */
+	private final ExecutorService downloader;
+
+	/**
+	 * Scans that may hold prefetched attachments at once
+	 */
+	private final Semaphore prefetch;
+
+	/**
+	 * Time a prefetch may take before it is abandoned
+	 */
+	private final Duration prefetchTimeout;
+
+	private final CascadeDetection detection;
+	private final ScanCancellation cancellation;
 
 	@Autowired
 	private Optional<PushbulletService> pushbullet;
 
+	@Nullable
+	private AttachmentFetcher fetcher;
+
 	public CascadeScanner(FileScannerConfigurationService service, DiscordLocaleMessageSource messages, Config config,
-			Collection<CascadeEntry> cascadeEntries) {
+			ScanCancellation cancellation, ScanUsage usage, Collection<CascadeEntry> cascadeEntries) {
+		this(service, messages, config, cancellation, usage, CompletableFuture.completedFuture(cascadeEntries));
+	}
+
+	public CascadeScanner(FileScannerConfigurationService service, DiscordLocaleMessageSource messages, Config config,
+			ScanCancellation cancellation, ScanUsage usage,
+			CompletionStage<? extends Collection<CascadeEntry>> cascadeEntries) {
 		this.service = Objects.requireNonNull(service);
 		this.messages = Objects.requireNonNull(messages);
+		this.cancellation = Objects.requireNonNull(cancellation);
+
+		// Setup Subscriber/Publisher. OpenCV work always stays on platform threads
+		this.executor = ScanExecutors.workers(config, "Cascade Scanning");
+		this.downloader = config.getExecutor() == ExecutorType.VIRTUAL && !config.getStages().isEnabled()
+				&& config.getPrefetch() > 0 ? ScanExecutors.io(config, "Cascade Download") : null;
+		this.prefetch = new Semaphore(config.getPrefetch());
+		this.prefetchTimeout = config.getTimeout().getMax();
+		this.publisher = new PriorityPublisher<>("Cascade Scanning", executor, config.getBuffer(),
+				data -> config.getQueue().getCost(data.estimateSize())
+						+ usage.getPenalty(data.getMessage().getGuildIdLong()),
+				data -> new ScanContext(data.getMessage().getGuildIdLong(), "", 0, ScanContext.CASCADE));
+		// Cascades run in process and start no decoders
+		this.concurrency = ScanExecutors.scale(config, "Cascade Scanning", publisher, () -> 0);
+		this.journal = ScanJournal.open(config.getJournal(), "cascade");
+		this.stages = ScanExecutors.stages(config, "Cascade Scanning", publisher);
 
-		// Setup Subscriber/Publisher
-		this.executor = config.isCommonPool() ? ForkJoinPool.commonPool()
-				: Executors.newFixedThreadPool(config.getWorkers(), new PrefixedThreadFactory("Cascade Scanning"));
-		this.publisher = new SubmissionPublisher<>(executor, config.getBuffer());
+		MatTracker.global().configure(config.getOpencv().getMemory());
+		MatTracker.global().registerMBean();
 
-		CascadeDetection detection = new CascadeDetection(config.getOpencv());
-		detection.addCascades(cascadeEntries);
+		this.detection = new CascadeDetection(config.getOpencv());
+		detection.setUsage(usage);
+		detection.setStages(stages);
+		detection.setCoalesce(config.isCoalesce());
 		detection.setErrorHandler(err -> {
 			Logger logger = LoggerFactory.getLogger(detection.getClass());
 			if (err instanceof HttpException || err instanceof IOException) {
@@ -74,31 +140,81 @@ public class CascadeScanner extends ListenerAdapter implements AutoCloseable {
 					.ifPresent(pb -> pb.sendPushNote("Error in cascade detection", ExceptionUtils.getStackTrace(err)));
 		});
 		publisher.subscribe(detection);
+
+		// Images received before the cascades are loaded stay queued
+		detection.load(cascadeEntries).whenComplete((v, err) -> {
+			Logger logger = LoggerFactory.getLogger(getClass());
+			if (err == null) {
+				logger.info("Cascade detection ready");
+				return;
+			}
+			logger.error("Failed to load cascades. Disabling cascade detection", err);
+			publisher.close();
+		});
+	}
+
+	@Autowired
+	void setAuditLog(Optional<ScanAuditLog> auditLog) {
+		detection.setAuditLog(auditLog.orElse(null));
+	}
+
+	@Autowired
+	void setFetcher(AttachmentFetcher fetcher) {
+		this.fetcher = fetcher;
+	}
+
+	@Override
+	public void onReady(ReadyEvent event) {
+		if (journal != null)
+			journal.start(event.getJDA(), publisher::remainingCapacity, message -> isAdmitted(admit(message, true)));
 	}
 
 	@Override
 	public void onMessageReceived(MessageReceivedEvent e) {
-		if (!e.isFromGuild())
-			return;
+		AdmissionEvent event = new AdmissionEvent();
+		event.begin();
+		String outcome = admit(e.getMessage(), false);
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.setContext(
+					new ScanContext(e.isFromGuild() ? e.getGuild().getIdLong() : 0, "", 0, ScanContext.CASCADE));
+			event.setMessage(e.getMessageIdLong());
+			event.setOutcome(outcome);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Queue a received or replayed message for detection if it should be
+	 * scanned.
+	 * 
+	 * @param message  - message to scan
+	 * @param replayed - message was replayed from the journal. Replies to
+	 *                 detections are only answered when first received
+	 * 
+	 * @return Returns why the message was or was not queued
+	 */
+	private String admit(Message message, boolean replayed) {
+		if (!message.isFromGuild())
+			return "not from guild";
 
-		Guild guild = e.getGuild();
+		Guild guild = message.getGuild();
 		// Do not scan non user messages
-		if (e.getAuthor().isBot() || e.getAuthor().isSystem())
-			return;
+		if (message.getAuthor().isBot() || message.getAuthor().isSystem())
+			return "not from user";
 
 		// Check if we can talk, send embeds and delete messages
-		if (!(e.getChannel().canTalk() && guild.getSelfMember().hasPermission(e.getGuildChannel(),
+		if (!(message.getChannel().canTalk() && guild.getSelfMember().hasPermission(message.getGuildChannel(),
 				Permission.MESSAGE_ADD_REACTION, Permission.MESSAGE_EMBED_LINKS)))
-			return;
+			return "missing permissions";
 
 		// Stop is publisher is closed
 		if (publisher.isClosed())
-			return;
-
-		Message message = e.getMessage();
+			return "closed";
 
 		// Check if message is reply to detection and permission to timeout
-		if (isReplyToDetection(message) && canTimeout(message, e.getGuildChannel())) {
+		if (!replayed && isReplyToDetection(message) && canTimeout(message, message.getGuildChannel())) {
 			Message ref = message.getReferencedMessage();
 
 			String detected = getDetected(ref);
@@ -112,19 +228,53 @@ public class CascadeScanner extends ListenerAdapter implements AutoCloseable {
 					.queue();
 		}
 
-		service.get(guild)
-				// Check if enabled
-				.filter(FileScannerConfiguration::isEnabled)
-				// If enabled, submit
-				.ifPresent(config -> {
-					List<AttachmentData> attachments = DiscordUtils.getAttachments(e.getMessage(), true);
-					if (attachments.isEmpty())
-						return;
-					attachments.removeIf(AttachmentData::isVideo);
-					attachments.removeIf(data -> !data.isStandardImage());
-					if (!attachments.isEmpty())
-						publisher.submit(new CascadeDetectionData(e.getMessage(), attachments, config, messages));
-				});
+		// Check if enabled
+		Optional<FileScannerConfiguration> config = service.get(guild).filter(FileScannerConfiguration::isEnabled);
+		if (config.isEmpty())
+			return "disabled";
+
+		List<AttachmentData> attachments = DiscordUtils.getAttachments(message, true);
+		attachments.removeIf(AttachmentData::isVideo);
+		attachments.removeIf(data -> !data.isStandardImage());
+		if (attachments.isEmpty())
+			return "no images";
+
+		CascadeDetectionData data = new CascadeDetectionData(message, attachments, config.get(), messages,
+				cancellation.register(message.getIdLong()), fetcher);
+		if (journal == null) {
+			prefetch(data);
+			publisher.submit(data);
+			return "queued";
+		}
+
+		// Only prefetch images that will be scanned from memory
+		if (publisher.remainingCapacity() > 0)
+			prefetch(data);
+		return journal.submit(message, publisher, data, data.getTicket()) ? "queued" : "spilled";
+	}
+
+	/**
+	 * Start downloading the attachments of a scan if fewer than
+	 * {@link Config#getPrefetch()} scans hold prefetched attachments. The slot is
+	 * freed and unfinished downloads are abandoned once the scan's ticket closes.
+	 */
+	private void prefetch(CascadeDetectionData data) {
+		if (downloader == null || !prefetch.tryAcquire())
+			return;
+		data.getTicket().onClose(prefetch::release);
+		data.prefetch(downloader, prefetchTimeout);
+	}
+
+	/**
+	 * Check if a replayed message is still in the journal after admission.
+	 * Messages that were not queued because the publisher closed are kept for the
+	 * next start.
+	 */
+	private static boolean isAdmitted(String outcome) {
+		return switch (outcome) {
+		case "queued", "spilled", "closed" -> true;
+		default -> false;
+		};
 	}
 
 	@Override
@@ -134,10 +284,19 @@ public class CascadeScanner extends ListenerAdapter implements AutoCloseable {
 			logger.info("Closing Cascade publisher");
 			publisher.close();
 		}
+		if (concurrency != null)
+			concurrency.close();
+		if (journal != null)
+			journal.close();
+		if (stages != null)
+			stages.close();
 		if (!executor.equals(ForkJoinPool.commonPool())) {
 			logger.info("Closing Cascade executor");
 			executor.shutdown();
 		}
+		if (downloader != null)
+			downloader.shutdown();
+		MatTracker.global().unregisterMBean();
 	}
 
 	private boolean isReplyToDetection(Message message) {
@@ -0,0 +1,52 @@
+package net.foxgenesis.filescanner.cascade;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running cost and hit rate of a single cascade, used to order cascades so
+ * that cheap or likely ones are evaluated first.
+ */
+public class CascadeStatistics {
+	/**
+	 * Hit rate used for cascades that have not found anything yet
+	 */
+	private static final double MIN_HIT_RATE = 0.01;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	public void record(long elapsedNanos, boolean hit) {
+		calls.increment();
+		nanos.add(elapsedNanos);
+		if (hit)
+			hits.increment();
+	}
+
+	/**
+	 * Get the expected cost of finding a hit with this cascade. Cascades that
+	 * have never been run score {@code 0} so they are measured first.
+	 * 
+	 * @return Returns the average cost divided by the hit rate
+	 */
+	public double getScore() {
+		long calls = this.calls.sum();
+		if (calls == 0)
+			return 0;
+		double averageCost = nanos.sum() / (double) calls;
+		double hitRate = Math.max(MIN_HIT_RATE, hits.sum() / (double) calls);
+		return averageCost / hitRate;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getTotalNanos() {
+		return nanos.sum();
+	}
+}
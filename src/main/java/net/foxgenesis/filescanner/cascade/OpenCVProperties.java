@@ -1,12 +1,26 @@
 package net.foxgenesis.filescanner.cascade;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Size;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
+import net.foxgenesis.filescanner.cascade.haar.FinalizedHaarCascade;
+import net.foxgenesis.filescanner.cascade.haar.HaarCascade;
 import net.foxgenesis.filescanner.util.Odd;
 
 @Getter
@@ -17,6 +31,18 @@ public class OpenCVProperties {
 	@Valid
 	private PreProcessSettings pre = new PreProcessSettings();
 
+	/**
+	 * Run the detection pipeline on a generated image once the cascades are
+	 * loaded
+	 */
+	private boolean warmup = false;
+
+	@Valid
+	private MemorySettings memory = new MemorySettings();
+
+	@Valid
+	private List<CascadeSettings> cascades = new ArrayList<>(List.of(CascadeSettings.cat()));
+
 	// =====================================================
 
 	@Getter
@@ -27,8 +53,98 @@ public class OpenCVProperties {
 		@Max(360)
 		private double rotation = 90;
 
+		/**
+		 * Try the remaining rotations, most hits first, when the upright
+		 * orientation has no detections. Disable to only scan the upright image
+		 */
+		private boolean thorough = true;
+
 		@Odd
 		@Min(1)
 		private int blurSize = 5;
 	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class MemorySettings {
+		/**
+		 * Count live Mats and their native memory by allocation site and report
+		 * Mats that are still live once their scan ends
+		 */
+		private boolean tracking = false;
+
+		/**
+		 * Native memory held by Mats above which decoded images are rejected.
+		 * {@code 0} disables the limit. Mats are tracked while a limit is set
+		 */
+		@NotNull
+		private DataSize limit = DataSize.ofBytes(0);
+	}
+
+	@Getter
+	@Setter
+	@Validated
+	public static class CascadeSettings {
+		/**
+		 * Name of the detected object used in replies
+		 */
+		@NotBlank
+		private String name;
+
+		/**
+		 * Location of the cascade XML
+		 */
+		@NotBlank
+		private String location;
+
+		@DecimalMin(value = "1.0", inclusive = false)
+		private double scaleFactor = 1.1;
+
+		@Min(0)
+		private int minimumNeighbors = 4;
+
+		/**
+		 * Minimum object size as a fraction of the image height
+		 */
+		@DecimalMin("0.0")
+		@DecimalMax("1.0")
+		private float minimumSize = 0.1f;
+
+		/**
+		 * Reply to the message when detected
+		 */
+		private boolean reply = true;
+
+		/**
+		 * Formatted emoji to react with when detected
+		 */
+		@Nullable
+		private String reaction;
+
+		/**
+		 * Load the cascade described by these settings.
+		 * 
+		 * @param loader - loader used to resolve {@link #getLocation()}
+		 * 
+		 * @return Returns the loaded cascade
+		 * 
+		 * @throws IOException Thrown if the cascade could not be read
+		 */
+		public HaarCascade createCascade(ResourceLoader loader) throws IOException {
+			return FinalizedHaarCascade.open(loader.getResource(location), mat -> scaleFactor,
+					mat -> minimumNeighbors, mat -> {
+						int size = Math.round(mat.rows() * minimumSize);
+						return new Size(size, size);
+					}, null);
+		}
+
+		private static CascadeSettings cat() {
+			CascadeSettings settings = new CascadeSettings();
+			settings.setName("cat");
+			settings.setLocation(ResourceLoader.CLASSPATH_URL_PREFIX + "/haar/haarcascade_frontalcatface_extended.xml");
+			settings.setReaction("<:happeh:478378484025131010>");
+			return settings;
+		}
+	}
 }
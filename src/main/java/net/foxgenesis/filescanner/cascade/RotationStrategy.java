@@ -0,0 +1,140 @@
+package net.foxgenesis.filescanner.cascade;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.foxgenesis.filescanner.cascade.util.OpenCVCloseable;
+import net.foxgenesis.filescanner.cascade.util.OpenCVUtils;
+import net.foxgenesis.filescanner.jfr.RotationEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+
+/**
+ * Decides which rotations of an image are handed to the cascades and in which
+ * order.
+ * <p>
+ * Images are decoded with their EXIF orientation applied (see
+ * {@link org.opencv.imgcodecs.Imgcodecs#IMREAD_COLOR}), so the decoded
+ * {@link Mat} is always tried first as the upright orientation. The remaining
+ * rotations are only generated when needed and are ordered by how often each
+ * angle has produced a detection.
+ */
+public class RotationStrategy {
+	private static final Logger logger = LoggerFactory.getLogger(RotationStrategy.class);
+
+	private final double[] angles;
+	private final LongAdder[] hits;
+	private final boolean thorough;
+
+	public RotationStrategy(OpenCVProperties.PreProcessSettings settings) {
+		Objects.requireNonNull(settings);
+		double step = settings.getRotation();
+
+		this.angles = step <= 0 ? new double[] { 0 }
+				: IntStream.range(0, (int) (360 / step)).mapToDouble(i -> i * step).toArray();
+		this.hits = new LongAdder[angles.length];
+		for (int i = 0; i < hits.length; i++)
+			hits[i] = new LongAdder();
+		this.thorough = settings.isThorough();
+	}
+
+	/**
+	 * Create the rotation set for a single upright image. The returned
+	 * {@link Rotations} takes ownership of {@code upright}.
+	 *
+	 * @param upright - EXIF corrected image
+	 *
+	 * @return Returns a lazily populated {@link Rotations}
+	 */
+	public Rotations rotations(Mat upright) {
+		return new Rotations(Objects.requireNonNull(upright));
+	}
+
+	/**
+	 * Get the order in which the remaining (non upright) angles should be tried.
+	 *
+	 * @return Returns the indices into {@link #angles} ordered by hit count
+	 */
+	private Integer[] getFallbackOrder() {
+		Integer[] order = new Integer[angles.length - 1];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i + 1;
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> hits[i].sum()).reversed());
+		return order;
+	}
+
+	public boolean isThorough() {
+		return thorough;
+	}
+
+	public class Rotations implements OpenCVCloseable {
+		private final Mat[] mats = new Mat[angles.length];
+		private final Integer[] order;
+
+		private Rotations(Mat upright) {
+			this.mats[0] = upright;
+			this.order = getFallbackOrder();
+		}
+
+		/**
+		 * Get the number of passes that should be made over this image. Passes
+		 * after the first only run when the earlier ones found nothing. Only the
+		 * upright orientation is used when thorough mode is disabled.
+		 *
+		 * @return Returns the number of passes
+		 */
+		public int passes() {
+			return thorough ? mats.length : 1;
+		}
+
+		/**
+		 * Get the image for the specified pass, rotating it if needed.
+		 *
+		 * @param pass - pass number starting at {@code 0} (upright)
+		 *
+		 * @return Returns the image to run detection on
+		 */
+		public Mat get(int pass) {
+			int index = indexOf(pass);
+			if (mats[index] == null) {
+				RotationEvent event = new RotationEvent();
+				event.begin();
+				long start = System.currentTimeMillis();
+				mats[index] = OpenCVUtils.getRotation(mats[0], angles[index]);
+				logger.debug("Rotation {} took: {}ms", angles[index], System.currentTimeMillis() - start);
+
+				event.end();
+				if (event.shouldCommit()) {
+					event.setContext(ScanContext.current());
+					event.setRotation(angles[index], mats[index].cols(), mats[index].rows());
+					event.commit();
+				}
+			}
+			return mats[index];
+		}
+
+		/**
+		 * Record a detection for the specified pass.
+		 *
+		 * @param pass - pass that resulted in a detection
+		 */
+		public void hit(int pass) {
+			hits[indexOf(pass)].increment();
+		}
+
+		private int indexOf(int pass) {
+			return pass == 0 ? 0 : order[pass - 1];
+		}
+
+		@Override
+		public void close() {
+			OpenCVUtils.release(mats);
+		}
+	}
+}
@@ -13,6 +13,8 @@ import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.objdetect.Objdetect;
 import org.springframework.core.io.Resource;
 
+import net.foxgenesis.filescanner.cascade.util.MatTracker;
+
 public abstract class BasicHaarCascade implements HaarCascade {
 	private final CascadeClassifier cascade;
 
@@ -64,7 +66,7 @@ public abstract class BasicHaarCascade implements HaarCascade {
 			facesDetected.release();
 			throw e;
 		}
-		return facesDetected;
+		return MatTracker.global().track(facesDetected, "detect");
 	}
 
 	protected Size getMinimumFaceSize(Mat loadedImage) {
@@ -1,16 +1,22 @@
 package net.foxgenesis.filescanner.cascade.haar;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Objects;
 import java.util.function.Function;
 
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.lang.Nullable;
 
 public class FinalizedHaarCascade extends BasicHaarCascade {
+	private static final Logger logger = LoggerFactory.getLogger(FinalizedHaarCascade.class);
 
 	private final Function<Mat, Size> minimumSize, maximumSize;
 	private final Function<Mat, Double> scaleFactor;
@@ -42,6 +48,38 @@ public class FinalizedHaarCascade extends BasicHaarCascade {
 		this.maximumSize = maximumSize == null ? mat -> new Size() : maximumSize;
 	}
 
+	/**
+	 * Load a cascade from a resource, copying it to a temporary file first when
+	 * it is not a file on disk (such as inside a jar).
+	 * 
+	 * @param resource         - cascade XML
+	 * @param scaleFactor      - scale factor or {@code null} for the default
+	 * @param minimumNeighbors - minimum neighbors or {@code null} for the default
+	 * @param minimumSize      - minimum object size or {@code null} for the
+	 *                         default
+	 * @param maximumSize      - maximum object size or {@code null} for the
+	 *                         default
+	 * 
+	 * @return Returns the loaded cascade
+	 * 
+	 * @throws IOException Thrown if the resource could not be read
+	 */
+	public static FinalizedHaarCascade open(Resource resource, @Nullable Function<Mat, Double> scaleFactor,
+			@Nullable Function<Mat, Integer> minimumNeighbors, @Nullable Function<Mat, Size> minimumSize,
+			@Nullable Function<Mat, Size> maximumSize) throws IOException {
+		try {
+			return new FinalizedHaarCascade(resource, scaleFactor, minimumNeighbors, minimumSize, maximumSize);
+		} catch (IOException e) {
+			try (InputStream in = resource.getInputStream()) {
+				Path tempFile = Files.createTempFile(null, ".xml");
+				logger.warn("Failed to open {}. Attempting to open via temporary file: {}", resource, tempFile);
+				tempFile.toFile().deleteOnExit();
+				Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+				return new FinalizedHaarCascade(tempFile, scaleFactor, minimumNeighbors, minimumSize, maximumSize);
+			}
+		}
+	}
+
 	protected Size getMinimumFaceSize(Mat loadedImage) {
 		return minimumSize.apply(loadedImage);
 	}
@@ -3,6 +3,8 @@ package net.foxgenesis.filescanner.cascade.haar;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 
+import net.foxgenesis.filescanner.cascade.util.OpenCVUtils;
+
 @FunctionalInterface
 public interface HaarCascade {
 	default MatOfRect detect(Mat mat) {
@@ -18,7 +20,7 @@ public interface HaarCascade {
 	default boolean find(Mat mat, boolean stupidMode) {
 		MatOfRect rect = detect(mat, stupidMode);
 		boolean found = !rect.empty();
-		rect.release();
+		OpenCVUtils.release(rect);
 		return found;
 	}
 	
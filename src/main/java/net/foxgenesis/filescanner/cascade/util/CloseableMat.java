@@ -14,6 +14,7 @@ public class CloseableMat extends Mat implements OpenCVCloseable  {
 
 	@Override
 	public void close() {
+		MatTracker.global().untrack(this);
 		release();
 	}
 }
@@ -10,6 +10,7 @@ public class CloseableMatOfByte extends MatOfByte implements OpenCVCloseable {
 
 	@Override
 	public void close() {
+		MatTracker.global().untrack(this);
 		release();
 	}
 }
@@ -0,0 +1,300 @@
+package net.foxgenesis.filescanner.cascade.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+import net.foxgenesis.filescanner.cascade.OpenCVProperties.MemorySettings;
+import net.foxgenesis.filescanner.util.AttachmentRejectedException;
+
+/**
+ * Accounts for the native memory held by OpenCV {@link Mat Mats}.
+ * <p>
+ * Mats are {@link #track(Mat, String) tracked} with the name of the site that
+ * allocated them once their contents are filled in, and untracked when they
+ * are released through {@link OpenCVUtils#release(Mat...)} or an
+ * {@link OpenCVCloseable}. Live Mats and bytes are counted per site.
+ * <p>
+ * Mats tracked inside a {@link #open(String) scope} that are still live once
+ * the scope closes are reported as leaks. Leaked Mats are no longer counted
+ * as live once reported, so a leak does not hold native memory against the
+ * {@link #admit(Mat, String) limit} until the Mat is garbage collected.
+ * <p>
+ * When a {@link MemorySettings#getLimit() limit} is set, decoded images that
+ * would take the live native memory over it are
+ * {@link #admit(Mat, String) rejected}.
+ */
+public final class MatTracker implements MatTrackerMBean {
+	private static final Logger logger = LoggerFactory.getLogger(MatTracker.class);
+
+	public static final String OBJECT_NAME = "net.foxgenesis.filescanner:type=MatTracker";
+
+	private static final MatTracker GLOBAL = new MatTracker();
+
+	private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+	private final ConcurrentHashMap<Long, Allocation> live = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Site> sites = new ConcurrentHashMap<>();
+
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final AtomicLong peakBytes = new AtomicLong();
+	private final LongAdder leaks = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	private volatile boolean tracking;
+	private volatile long limit;
+
+	private volatile ObjectName objectName;
+
+	/**
+	 * Get the tracker used by {@link OpenCVUtils} and the cascade pipeline.
+	 *
+	 * @return Returns the shared {@link MatTracker}
+	 */
+	public static MatTracker global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Apply memory settings. Mats tracked before tracking was disabled are
+	 * still untracked when released.
+	 *
+	 * @param settings - native memory settings
+	 */
+	public void configure(MemorySettings settings) {
+		this.tracking = settings.isTracking();
+		this.limit = settings.getLimit().toBytes();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return tracking || limit > 0;
+	}
+
+	/**
+	 * Start tracking a Mat. Tracking a Mat again updates its size, for example
+	 * after it was converted in place.
+	 *
+	 * @param <M>  - type of Mat
+	 * @param mat  - Mat with its contents filled in
+	 * @param site - name of the site that allocated the Mat
+	 *
+	 * @return Returns {@code mat}
+	 */
+	public <M extends Mat> M track(M mat, String site) {
+		if (mat == null || !isEnabled())
+			return mat;
+
+		Allocation allocation = new Allocation(site, mat.total() * mat.elemSize(), SCOPE.get());
+		Site stats = sites.computeIfAbsent(site, Site::new);
+		stats.add(1, allocation.bytes());
+
+		Allocation previous = live.put(mat.nativeObj, allocation);
+		if (previous != null)
+			forget(previous);
+		else
+			stats.allocations.increment();
+
+		peakBytes.accumulateAndGet(liveBytes.addAndGet(allocation.bytes()), Math::max);
+		return mat;
+	}
+
+	/**
+	 * Stop tracking a Mat that is about to be released.
+	 *
+	 * @param mat - Mat to untrack
+	 */
+	public void untrack(Mat mat) {
+		if (mat == null || live.isEmpty())
+			return;
+		Allocation allocation = live.remove(mat.nativeObj);
+		if (allocation != null)
+			forget(allocation);
+	}
+
+	private void forget(Allocation allocation) {
+		liveBytes.addAndGet(-allocation.bytes());
+		sites.get(allocation.site()).add(-1, -allocation.bytes());
+	}
+
+	/**
+	 * Check that a tracked image fits within the native memory limit. Images that
+	 * do not fit are released.
+	 *
+	 * @param mat  - tracked image
+	 * @param name - name of the image used in the exception
+	 *
+	 * @throws AttachmentRejectedException Thrown if the live native memory
+	 *                                     exceeds the limit
+	 */
+	public void admit(Mat mat, String name) throws AttachmentRejectedException {
+		long limit = this.limit;
+		long bytes = liveBytes.get();
+		if (limit <= 0 || bytes <= limit)
+			return;
+
+		long size = mat.total() * mat.elemSize();
+		OpenCVUtils.release(mat);
+		rejected.increment();
+		throw new AttachmentRejectedException("Decoding " + name + " needs " + DataSize.ofBytes(size) + " with "
+				+ DataSize.ofBytes(bytes - size) + " of native memory in use. Limit is " + DataSize.ofBytes(limit));
+	}
+
+	/**
+	 * Open a scope on the current thread. Mats tracked on this thread until the
+	 * scope is closed belong to it.
+	 *
+	 * @param name - name of the scan used in leak reports
+	 *
+	 * @return Returns the new {@link Scope}
+	 */
+	public Scope open(String name) {
+		Scope scope = new Scope(Objects.requireNonNull(name), SCOPE.get());
+		SCOPE.set(scope);
+		return scope;
+	}
+
+	private void report(Scope scope) {
+		Map<String, Long> leaked = new TreeMap<>();
+		live.forEach((key, allocation) -> {
+			if (allocation.scope() != scope || !live.remove(key, allocation))
+				return;
+			forget(allocation);
+			leaked.merge(allocation.site(), 1L, Long::sum);
+			sites.get(allocation.site()).leaks.increment();
+			leaks.increment();
+		});
+		if (!leaked.isEmpty())
+			logger.warn("Mats were not released after scanning {}: {}", scope.name, leaked);
+	}
+
+	@Override
+	public int getLiveMats() {
+		return live.size();
+	}
+
+	@Override
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	@Override
+	public long getPeakBytes() {
+		return peakBytes.get();
+	}
+
+	@Override
+	public long getLimit() {
+		return limit;
+	}
+
+	@Override
+	public long getLeaks() {
+		return leaks.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public String[] getSites() {
+		return new TreeMap<>(sites).values().stream().map(Site::toString).toArray(String[]::new);
+	}
+
+	/**
+	 * Register this instance with the platform MBean server under
+	 * {@link #OBJECT_NAME}.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			logger.warn("Failed to register Mat tracker MBean", e);
+		}
+	}
+
+	/**
+	 * Unregister this instance from the platform MBean server.
+	 */
+	public void unregisterMBean() {
+		ObjectName name = objectName;
+		objectName = null;
+		if (name != null)
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {}
+	}
+
+	/**
+	 * Scan that tracked Mats belong to. Closing the scope reports the Mats that
+	 * are still live and restores the previous scope of the thread.
+	 */
+	public final class Scope implements AutoCloseable {
+		private final String name;
+		@Nullable
+		private final Scope previous;
+
+		private Scope(String name, @Nullable Scope previous) {
+			this.name = name;
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (SCOPE.get() != this)
+				return;
+			if (previous == null)
+				SCOPE.remove();
+			else
+				SCOPE.set(previous);
+			if (!live.isEmpty())
+				report(this);
+		}
+	}
+
+	private record Allocation(String site, long bytes, @Nullable Scope scope) {}
+
+	private static final class Site {
+		private final String name;
+		private final LongAdder allocations = new LongAdder();
+		private final LongAdder leaks = new LongAdder();
+		private final AtomicLong mats = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+
+		Site(String name) {
+			this.name = name;
+		}
+
+		void add(long mats, long bytes) {
+			this.mats.addAndGet(mats);
+			this.bytes.addAndGet(bytes);
+		}
+
+		@Override
+		public String toString() {
+			return "%s: %d live (%s), %d allocated, %d leaked".formatted(name, mats.get(),
+					DataSize.ofBytes(bytes.get()), allocations.sum(), leaks.sum());
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package net.foxgenesis.filescanner.cascade.util;
+
+/**
+ * Management interface of {@link MatTracker}.
+ */
+public interface MatTrackerMBean {
+
+	/**
+	 * Check if Mats are being tracked.
+	 *
+	 * @return Returns {@code true} if tracking or a limit is enabled
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Get the number of tracked Mats that have not been released or
+	 * reported as leaked.
+	 *
+	 * @return Returns the number of live Mats
+	 */
+	int getLiveMats();
+
+	/**
+	 * Get the native memory held by tracked Mats that have not been released or
+	 * reported as leaked.
+	 *
+	 * @return Returns the live native bytes
+	 */
+	long getLiveBytes();
+
+	/**
+	 * Get the most native memory held by tracked Mats at once.
+	 *
+	 * @return Returns the peak live native bytes
+	 */
+	long getPeakBytes();
+
+	/**
+	 * Get the native memory limit above which images are rejected.
+	 *
+	 * @return Returns the limit in bytes or {@code 0} if unlimited
+	 */
+	long getLimit();
+
+	/**
+	 * Get the number of Mats that were still live after their scan ended.
+	 *
+	 * @return Returns the number of leaked Mats
+	 */
+	long getLeaks();
+
+	/**
+	 * Get the number of images rejected because of the native memory limit.
+	 *
+	 * @return Returns the number of rejected images
+	 */
+	long getRejected();
+
+	/**
+	 * Get the live Mats, native bytes, allocations and leaks of every
+	 * allocation site.
+	 *
+	 * @return Returns one line per allocation site
+	 */
+	String[] getSites();
+}
@@ -27,8 +27,8 @@ public final class OpenCVUtils {
 		try (CloseableMatOfByte mob = new CloseableMatOfByte(in.readAllBytes())) {
 			if (mob.empty())
 				throw new IOException("MatOfByte was empty from conversion");
-			return new CloseableMat(Imgcodecs.imdecode(mob, Imgcodecs.IMREAD_COLOR)); // Or IMREAD_GRAYSCALE,
-																						// IMREAD_UNCHANGED
+			return MatTracker.global().track(new CloseableMat(Imgcodecs.imdecode(mob, Imgcodecs.IMREAD_COLOR)),
+					"decode"); // Or IMREAD_GRAYSCALE, IMREAD_UNCHANGED
 		}
 	}
 
@@ -54,7 +54,7 @@ public final class OpenCVUtils {
 	public static CloseableMat getSimpleRotation(Mat mat, int code) {
 		Objects.requireNonNull(mat);
 
-		return attemptMatOperation(out -> Core.rotate(mat, out, code));
+		return attemptMatOperation("rotate", out -> Core.rotate(mat, out, code));
 
 //		Mat out = new Mat();
 //		try {
@@ -77,7 +77,7 @@ public final class OpenCVUtils {
 		final double scale = 1.0;
 
 		try (CloseableMat rotMat = new CloseableMat(Imgproc.getRotationMatrix2D(center, angle, scale))) {
-			return attemptMatOperation(out -> Imgproc.warpAffine(mat, out, rotMat, size));
+			return attemptMatOperation("rotate", out -> Imgproc.warpAffine(mat, out, rotMat, size));
 		}
 
 //		Mat out = new Mat();
@@ -94,6 +94,11 @@ public final class OpenCVUtils {
 //		}
 	}
 
+	/**
+	 * Release Mats and stop tracking them.
+	 * 
+	 * @param mats - Mats to release. {@code null} elements are skipped
+	 */
 	public static void release(Mat... mats) {
 		if (mats == null)
 			return;
@@ -104,16 +109,18 @@ public final class OpenCVUtils {
 
 			if (mats[i] instanceof OpenCVCloseable c)
 				c.close();
-			else
+			else {
+				MatTracker.global().untrack(mats[i]);
 				mats[i].release();
+			}
 		}
 	}
 
-	private static CloseableMat attemptMatOperation(Consumer<Mat> attempt) {
+	private static CloseableMat attemptMatOperation(String site, Consumer<Mat> attempt) {
 		CloseableMat out = new CloseableMat();
 		try {
 			attempt.accept(out);
-			return out;
+			return MatTracker.global().track(out, site);
 		} catch (Exception e) {
 			out.close();
 			throw e;
@@ -0,0 +1,142 @@
+package net.foxgenesis.filescanner.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.AuditSettings;
+import net.foxgenesis.watame.util.PrefixedThreadFactory;
+
+/**
+ * Write-behind log of {@link ScanRecord ScanRecords}. Records are buffered in
+ * a lock-free queue by the scanning threads and written in JDBC batches on a
+ * schedule, so scans never wait on the database. Records are dropped once the
+ * backlog is full.
+ */
+@Service
+public class ScanAuditLog {
+	private static final Logger logger = LoggerFactory.getLogger(ScanAuditLog.class);
+
+	private static final String INSERT = "INSERT INTO scan_record "
+			+ "(guild, channel, message, attachment, type, outcome, detail, bytes, duration_ms, scanned_at) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private final ConcurrentLinkedQueue<ScanRecord> buffer = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private Config config;
+
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	void start() {
+		AuditSettings settings = config.getAudit();
+		if (!settings.isEnabled())
+			return;
+
+		long interval = settings.getFlushInterval().toMillis();
+		scheduler = Executors.newSingleThreadScheduledExecutor(new PrefixedThreadFactory("Scan Audit"));
+		scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queue a record to be written. Never blocks.
+	 * 
+	 * @param record - record to write
+	 */
+	public void record(ScanRecord record) {
+		if (scheduler == null)
+			return;
+
+		if (size.incrementAndGet() > config.getAudit().getCapacity()) {
+			size.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		buffer.add(record);
+	}
+
+	/**
+	 * Write all buffered records.
+	 */
+	void flush() {
+		int batchSize = config.getAudit().getBatchSize();
+		List<ScanRecord> batch = new ArrayList<>(Math.min(batchSize, size.get()));
+
+		ScanRecord record;
+		while ((record = buffer.poll()) != null) {
+			size.decrementAndGet();
+			batch.add(record);
+			if (batch.size() >= batchSize) {
+				write(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			write(batch);
+	}
+
+	private void write(List<ScanRecord> batch) {
+		try {
+			jdbc.batchUpdate(INSERT, batch, batch.size(), (ps, r) -> {
+				ps.setLong(1, r.getGuild());
+				ps.setLong(2, r.getChannel());
+				ps.setLong(3, r.getMessage());
+				ps.setString(4, r.getAttachment());
+				ps.setString(5, r.getType().name());
+				ps.setString(6, r.getOutcome().name());
+				ps.setString(7, r.getDetail());
+				ps.setLong(8, r.getBytes());
+				ps.setLong(9, r.getDurationMs());
+				ps.setTimestamp(10, Timestamp.from(r.getScannedAt()));
+			});
+			written.add(batch.size());
+		} catch (Exception e) {
+			dropped.add(batch.size());
+			logger.error("Failed to write {} scan records", batch.size(), e);
+		}
+	}
+
+	public int getBacklog() {
+		return size.get();
+	}
+
+	public long getWritten() {
+		return written.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@PreDestroy
+	void stop() {
+		if (scheduler == null)
+			return;
+		scheduler.shutdown();
+		flush();
+		logger.info("Scan audit log closed. Written: {} Dropped: {}", getWritten(), getDropped());
+	}
+}
@@ -0,0 +1,133 @@
+package net.foxgenesis.filescanner.database;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import net.dv8tion.jda.api.entities.Message;
+
+/**
+ * Audit entry for a single scanned attachment. Written in batches by
+ * {@link ScanAuditLog}.
+ */
+@Entity
+@Getter
+@Setter
+@ToString
+@Table(name = "scan_record", indexes = @Index(columnList = "guild, scannedAt"))
+public class ScanRecord {
+	/**
+	 * Longest stored detail. Longer details are truncated
+	 */
+	public static final int MAX_DETAIL_LENGTH = 1024;
+
+	/**
+	 * Longest stored attachment name. Covers the 1024 characters Discord
+	 * allows in a file name. Longer names are truncated
+	 */
+	public static final int MAX_ATTACHMENT_LENGTH = 1024;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private long guild;
+
+	@Column(nullable = false)
+	private long channel;
+
+	@Column(nullable = false)
+	private long message;
+
+	@Column(nullable = false, length = MAX_ATTACHMENT_LENGTH)
+	private String attachment;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 16)
+	private Type type;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 16)
+	private Outcome outcome;
+
+	@Column(length = MAX_DETAIL_LENGTH)
+	private String detail;
+
+	/**
+	 * Size of the attachment in bytes or {@code -1} if unknown
+	 */
+	@Column(nullable = false)
+	private long bytes;
+
+	@Column(nullable = false)
+	private long durationMs;
+
+	@Column(nullable = false)
+	private Instant scannedAt;
+
+	public ScanRecord() {}
+
+	public ScanRecord(Message message, String attachment, Type type, Outcome outcome, String detail, long bytes,
+			long durationMs) {
+		this.guild = message.getGuildIdLong();
+		this.channel = message.getChannelIdLong();
+		this.message = message.getIdLong();
+		this.attachment = truncate(attachment, MAX_ATTACHMENT_LENGTH);
+		this.type = type;
+		this.outcome = outcome;
+		this.detail = truncate(detail, MAX_DETAIL_LENGTH);
+		this.bytes = bytes;
+		this.durationMs = durationMs;
+		this.scannedAt = Instant.now();
+	}
+
+	private static String truncate(String value, int length) {
+		if (value == null || value.length() <= length)
+			return value;
+		// Do not split a surrogate pair
+		int end = Character.isHighSurrogate(value.charAt(length - 2)) ? length - 2 : length - 1;
+		return value.substring(0, end) + "\u2026";
+	}
+
+	public enum Type {
+		LOUDNESS, CASCADE
+	}
+
+	public enum Outcome {
+		/**
+		 * Nothing was found
+		 */
+		CLEAN,
+		/**
+		 * Video was loud and removed
+		 */
+		LOUD,
+		/**
+		 * A cascade found an object
+		 */
+		DETECTED,
+		/**
+		 * Scan failed
+		 */
+		ERROR,
+		/**
+		 * Message was deleted while being scanned
+		 */
+		CANCELLED,
+		/**
+		 * Attachment was not downloaded because of its type or size
+		 */
+		REJECTED
+	}
+}
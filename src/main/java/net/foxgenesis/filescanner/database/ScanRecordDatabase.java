@@ -0,0 +1,7 @@
+package net.foxgenesis.filescanner.database;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ScanRecordDatabase extends JpaRepository<ScanRecord, Long> {}
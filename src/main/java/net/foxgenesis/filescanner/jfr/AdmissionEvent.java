@@ -0,0 +1,17 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Admission")
+@Label("Scan Admission")
+@Description("Filtering of a received message before it is queued")
+public class AdmissionEvent extends ScanStageEvent {
+	@Label("Message")
+	long message;
+
+	public void setMessage(long message) {
+		this.message = message;
+	}
+}
@@ -0,0 +1,17 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Decoder")
+@Label("Decoder")
+@Description("Lifetime of an external decoder pipeline (qtfs and ffmpeg) or an in-process decode")
+public class DecoderEvent extends ScanStageEvent {
+	@Label("Command")
+	String command;
+
+	public void setCommand(String command) {
+		this.command = command;
+	}
+}
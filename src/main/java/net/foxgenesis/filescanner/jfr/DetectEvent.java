@@ -0,0 +1,22 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Detect")
+@Label("Cascade Detection")
+@Description("A single detectMultiScale call of a cascade")
+public class DetectEvent extends ScanStageEvent {
+	@Label("Cascade")
+	String cascade;
+
+	@Label("Pass")
+	@Description("Rotation pass starting at 0 (upright)")
+	int pass;
+
+	public void setDetection(String cascade, int pass) {
+		this.cascade = cascade;
+		this.pass = pass;
+	}
+}
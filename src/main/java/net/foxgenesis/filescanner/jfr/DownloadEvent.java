@@ -0,0 +1,19 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Download")
+@Label("Attachment Download")
+@Description("Download of an attachment. Loudness downloads are streamed into the decoder")
+public class DownloadEvent extends ScanStageEvent {
+	@Label("Bytes Read")
+	@DataAmount
+	long bytes;
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+}
@@ -0,0 +1,17 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Parse")
+@Label("LU Parsing")
+@Description("Parsing of momentary loudness values from decoder output")
+public class ParseEvent extends ScanStageEvent {
+	@Label("Values")
+	int values;
+
+	public void setValues(int values) {
+		this.values = values;
+	}
+}
@@ -0,0 +1,27 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("net.foxgenesis.filescanner.QueueWait")
+@Label("Scan Queue Wait")
+@Description("Time a job spent queued before being delivered to its scanner")
+public class QueueWaitEvent extends ScanStageEvent {
+	@Label("Queue")
+	String queue;
+
+	@Label("Cost")
+	@Description("Estimated cost the job was ordered by")
+	@Timespan
+	long cost;
+
+	public void setQueue(String queue) {
+		this.queue = queue;
+	}
+
+	public void setCost(long cost) {
+		this.cost = cost;
+	}
+}
@@ -0,0 +1,25 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.Rotation")
+@Label("Image Rotation")
+@Description("Rotation of an image before running cascades on it")
+public class RotationEvent extends ScanStageEvent {
+	@Label("Angle")
+	double angle;
+
+	@Label("Width")
+	int width;
+
+	@Label("Height")
+	int height;
+
+	public void setRotation(double angle, int width, int height) {
+		this.angle = angle;
+		this.width = width;
+		this.height = height;
+	}
+}
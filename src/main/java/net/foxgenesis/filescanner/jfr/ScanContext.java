@@ -0,0 +1,59 @@
+package net.foxgenesis.filescanner.jfr;
+
+import java.util.Objects;
+
+/**
+ * Attachment currently being scanned by a thread. Stages that do not know
+ * which message they are working on (decoders, parsers and cascades) read the
+ * context to fill in their {@link ScanStageEvent ScanStageEvents}.
+ * 
+ * @param guild      - id of the guild the attachment was posted in
+ * @param attachment - file name of the attachment
+ * @param size       - size of the attachment in bytes or {@code 0} if unknown
+ * @param type       - pipeline scanning the attachment
+ */
+public record ScanContext(long guild, String attachment, long size, String type) {
+	public static final String LOUDNESS = "loudness";
+	public static final String CASCADE = "cascade";
+
+	private static final ScanContext NONE = new ScanContext(0, "", 0, "");
+	private static final ThreadLocal<ScanContext> current = new ThreadLocal<>();
+
+	public ScanContext {
+		Objects.requireNonNull(attachment);
+		Objects.requireNonNull(type);
+	}
+
+	/**
+	 * Get the context of the calling thread.
+	 * 
+	 * @return Returns the current {@link ScanContext} or an empty context
+	 */
+	public static ScanContext current() {
+		ScanContext context = current.get();
+		return context == null ? NONE : context;
+	}
+
+	/**
+	 * Make this the context of the calling thread until the returned
+	 * {@link Scope} is closed.
+	 * 
+	 * @return Returns a {@link Scope} that restores the previous context
+	 */
+	public Scope open() {
+		ScanContext previous = current.get();
+		current.set(this);
+		return () -> {
+			if (previous == null)
+				current.remove();
+			else
+				current.set(previous);
+		};
+	}
+
+	@FunctionalInterface
+	public interface Scope extends AutoCloseable {
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,51 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of all events emitted around a stage of a scan. Events are only
+ * populated when {@link #shouldCommit()} is {@code true} so they cost next to
+ * nothing while recording is off.
+ */
+@StackTrace(false)
+@Category("FileScanner")
+public abstract class ScanStageEvent extends Event {
+	@Label("Guild")
+	@Description("Id of the guild the attachment was posted in")
+	long guild;
+
+	@Label("Attachment")
+	String attachment;
+
+	@Label("Attachment Size")
+	@DataAmount
+	long size;
+
+	@Label("Type")
+	@Description("Pipeline that scanned the attachment")
+	String type;
+
+	@Label("Outcome")
+	String outcome;
+
+	/**
+	 * Fill in the attachment fields from a context.
+	 * 
+	 * @param context - context of the scan
+	 */
+	public void setContext(ScanContext context) {
+		this.guild = context.guild();
+		this.attachment = context.attachment();
+		this.size = context.size();
+		this.type = context.type();
+	}
+
+	public void setOutcome(String outcome) {
+		this.outcome = outcome;
+	}
+}
@@ -0,0 +1,17 @@
+package net.foxgenesis.filescanner.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.foxgenesis.filescanner.StageWait")
+@Label("Scan Stage Wait")
+@Description("Time a job waited for room in a stage of its pipeline")
+public class StageWaitEvent extends ScanStageEvent {
+	@Label("Stage")
+	String stage;
+
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+}
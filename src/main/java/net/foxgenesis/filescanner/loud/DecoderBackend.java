@@ -0,0 +1,30 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A {@link LoudnessDecoder} that can be selected by configuration and checked
+ * for availability at startup.
+ * 
+ * @see DecoderBackends
+ */
+public interface DecoderBackend extends LoudnessDecoder, Closeable {
+
+	/**
+	 * Get the name of this backend used in logs and benchmarks.
+	 * 
+	 * @return Returns the backend name
+	 */
+	String getName();
+
+	/**
+	 * Check that everything this backend needs is available on this host.
+	 * 
+	 * @param filters - names of the filters supported by FFMPEG
+	 * 
+	 * @throws IOException Thrown with the reason this backend can not be used
+	 */
+	void probe(Set<String> filters) throws IOException;
+}
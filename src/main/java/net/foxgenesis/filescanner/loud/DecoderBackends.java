@@ -0,0 +1,514 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.DecoderSettings;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.Processes;
+
+/**
+ * Ordered set of {@link DecoderBackend DecoderBackends} that fails over to the
+ * next backend when one misbehaves.
+ * <p>
+ * Backends are probed at startup and those missing a binary or FFMPEG filter
+ * are never used. When {@link #probeAsync(Executor) probed in the background}
+ * decoding waits for the probe to finish. A backend that fails on a video
+ * another backend can decode is counted as failing and, after
+ * {@link DecoderSettings#getFailureThreshold()} such failures in a row, is
+ * skipped for {@link DecoderSettings#getCooldown()}. A video that every backend
+ * fails on is the fault of the video and does not count against any backend.
+ * <p>
+ * The backends can be inspected, re-probed and benchmarked over JMX once
+ * {@link #registerMBean()} is called.
+ */
+public class DecoderBackends implements LoudnessDecoder, Closeable, DecoderBackendsMBean {
+	private static final Logger logger = LoggerFactory.getLogger(DecoderBackends.class);
+
+	public static final String OBJECT_NAME = "net.foxgenesis.filescanner:type=DecoderBackends";
+
+	private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+
+	/**
+	 * Time given to a single benchmark run
+	 */
+	private static final Duration BENCHMARK_TIMEOUT = Duration.ofMinutes(5);
+
+	private final List<Backend> backends;
+	private final Path ffmpeg;
+	private final DecoderSettings settings;
+
+	@Nullable
+	private final ExecutorService executor;
+
+	private final ReentrantLock benchmarking = new ReentrantLock();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private volatile Set<String> filters = Set.of();
+	private volatile CompletableFuture<Void> probing = CompletableFuture.completedFuture(null);
+	private volatile ObjectName objectName;
+
+	/**
+	 * @param ffmpeg   - path to FFMPEG used for probing and benchmark fixtures
+	 * @param settings - decoder settings
+	 * @param backends - backends in order of preference
+	 */
+	public DecoderBackends(Path ffmpeg, DecoderSettings settings, List<? extends DecoderBackend> backends) {
+		this(ffmpeg, settings, backends, null);
+	}
+
+	/**
+	 * @param ffmpeg   - path to FFMPEG used for probing and benchmark fixtures
+	 * @param settings - decoder settings
+	 * @param backends - backends in order of preference
+	 * @param executor - executor shared by the backends. Shutdown when the
+	 *                 backends are closed, or {@code null}
+	 */
+	public DecoderBackends(Path ffmpeg, DecoderSettings settings, List<? extends DecoderBackend> backends,
+			@Nullable ExecutorService executor) {
+		this.ffmpeg = Objects.requireNonNull(ffmpeg);
+		this.settings = Objects.requireNonNull(settings);
+		this.executor = executor;
+		this.backends = backends.stream().map(Backend::new).toList();
+		if (this.backends.isEmpty())
+			throw new IllegalArgumentException("At least one decoder backend is required");
+	}
+
+	/**
+	 * Create the backends selected by {@link Config#getDecoder()}.
+	 *
+	 * @param config   - scanner configuration
+	 * @param executor - executor used to pump downloads into the decoders.
+	 *                 Shutdown when the backends are closed
+	 *
+	 * @return Returns the unprobed backends
+	 */
+	public static DecoderBackends create(Config config, ExecutorService executor) {
+		List<DecoderBackend> backends = config.getDecoder().getBackends().stream().distinct()
+				.<DecoderBackend>map(type -> switch (type) {
+				case QTFS -> new QTFSBackend(config.getFfmpegPath(), config.getQtfs(), executor);
+				case FFMPEG -> new FFMPEGBackend(config.getFfmpegPath(), executor);
+				case NATIVE -> new NativeBackend();
+				}).toList();
+		return new DecoderBackends(config.getFfmpegPath(), config.getDecoder(), backends, executor);
+	}
+
+	/**
+	 * Probe the backends off the calling thread. Decoding waits for the probe
+	 * and the returned future completes once it finished.
+	 *
+	 * @param executor - executor the probe runs on
+	 *
+	 * @return Returns a {@link CompletableFuture} that completes once the
+	 *         backends were probed
+	 */
+	public CompletableFuture<Void> probeAsync(Executor executor) {
+		CompletableFuture<Void> probing = CompletableFuture.runAsync(this::probe, executor);
+		this.probing = probing;
+		return probing;
+	}
+
+	/**
+	 * Get the last probe started with {@link #probeAsync(Executor)}.
+	 *
+	 * @return Returns a {@link CompletableFuture} that completes once the
+	 *         backends were probed
+	 */
+	public CompletableFuture<Void> getProbe() {
+		return probing;
+	}
+
+	@Override
+	public void probe() {
+		try {
+			String output = Processes.output(PROBE_TIMEOUT, ffmpeg.toString(), "-filters");
+			filters = parseFilters(output);
+			logger.info("{}. Found {} filters", output.split("\n", 2)[0].trim(), filters.size());
+		} catch (IOException e) {
+			logger.error("Unable to list FFMPEG filters", e);
+		}
+
+		for (Backend backend : backends) {
+			try {
+				backend.decoder.probe(filters);
+				backend.unavailable = null;
+				backend.downUntil = System.nanoTime();
+				logger.info("Decoder backend {} is available", backend.decoder.getName());
+			} catch (IOException e) {
+				backend.unavailable = e.getMessage();
+				logger.warn("Decoder backend {} is unavailable: {}", backend.decoder.getName(), e.getMessage());
+			}
+		}
+
+		if (backends.stream().allMatch(backend -> backend.unavailable != null))
+			logger.error("No decoder backend is available. Trying every backend in order");
+	}
+
+	/**
+	 * Check if FFMPEG supports a filter.
+	 *
+	 * @param filter - filter name
+	 *
+	 * @return Returns {@code true} if the filter was found when probing
+	 */
+	public boolean hasFilter(String filter) {
+		return filters.contains(filter);
+	}
+
+	@Override
+	public List<Double> decode(Source source, String name, Deadline deadline) throws IOException {
+		awaitProbe(name, deadline);
+		List<Backend> candidates = candidates();
+		List<Backend> failed = new ArrayList<>();
+		RuntimeException first = null;
+
+		for (Backend backend : candidates) {
+			InputStream in = source.open();
+			try {
+				List<Double> lu = backend.decoder.decode(in, name, deadline);
+				backend.succeeded();
+				// The video is fine so the earlier backends misbehaved
+				failed.forEach(Backend::failed);
+				return lu;
+			} catch (RuntimeException e) {
+				DecoderException cause = getDecoderException(e);
+				if (cause == null || deadline.isExpired() || deadline.isCancelled())
+					throw e;
+
+				logger.debug("Decoder backend {} failed on {}", backend.decoder.getName(), name, e);
+				if (cause.isStartFailure())
+					backend.failed();
+				else
+					failed.add(backend);
+				if (first == null)
+					first = e;
+			}
+		}
+
+		// Every backend ran and rejected the video. Treat it as having no audio
+		if (failed.size() == candidates.size()) {
+			logger.debug("Every decoder backend failed on {}", name);
+			return List.of();
+		}
+		throw first;
+	}
+
+	/**
+	 * Measure a video with the first available backend. The stream can only be
+	 * read once so there is no failover and a video the backend rejects is
+	 * treated as having no audio.
+	 */
+	@Override
+	public List<Double> decode(InputStream in, String name, Deadline deadline) {
+		try {
+			awaitProbe(name, deadline);
+		} catch (RuntimeException e) {
+			try {
+				in.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		Backend backend = candidates().get(0);
+		try {
+			List<Double> lu = backend.decoder.decode(in, name, deadline);
+			backend.succeeded();
+			return lu;
+		} catch (RuntimeException e) {
+			DecoderException cause = getDecoderException(e);
+			if (cause == null || deadline.isExpired() || deadline.isCancelled())
+				throw e;
+			if (cause.isStartFailure()) {
+				backend.failed();
+				throw e;
+			}
+			logger.debug("Decoder backend {} failed on {}", backend.decoder.getName(), name, e);
+			return List.of();
+		}
+	}
+
+	/**
+	 * Wait for a running probe so videos received during startup are not
+	 * decoded with backends that turn out to be unavailable.
+	 */
+	private void awaitProbe(String name, Deadline deadline) {
+		CompletableFuture<Void> probing = this.probing;
+		if (probing.isDone())
+			return;
+		try {
+			probing.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			// Failures are logged by the probe and leave the backends unprobed
+		} catch (TimeoutException e) {
+			String stage = "Decoding " + name;
+			throw new CompletionException(deadline.isCancelled() ? deadline.cancellation(stage) : deadline.timeout(stage));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Get the backends to try in order. Backends that are cooling down are only
+	 * used when every probed backend is, and unprobed backends only when none
+	 * passed probing.
+	 */
+	private List<Backend> candidates() {
+		long now = System.nanoTime();
+		List<Backend> available = backends.stream().filter(backend -> backend.isAvailable(now)).toList();
+		if (!available.isEmpty())
+			return available;
+
+		List<Backend> probed = backends.stream().filter(Backend::isProbed).toList();
+		return probed.isEmpty() ? backends : probed;
+	}
+
+	@Override
+	public String[] getBackends() {
+		long now = System.nanoTime();
+		return backends.stream().map(backend -> "%s: %s (%d ok, %d failed)".formatted(backend.decoder.getName(),
+				backend.unavailable != null ? "unavailable - " + backend.unavailable
+						: backend.isAvailable(now) ? "available"
+								: "cooling down for " + Duration.ofNanos(backend.downUntil - now).toSeconds() + "s",
+				backend.successes.sum(), backend.failures.sum())).toArray(String[]::new);
+	}
+
+	@Override
+	public String[] getFilters() {
+		return filters.toArray(String[]::new);
+	}
+
+	@Override
+	public String benchmark() {
+		if (!benchmarking.tryLock())
+			return "A benchmark is already running";
+
+		Path generated = null;
+		try {
+			List<Path> fixtures = settings.getBenchmarkFixtures();
+			if (fixtures.isEmpty()) {
+				generated = generateFixture();
+				fixtures = List.of(generated);
+			}
+
+			StringBuilder report = new StringBuilder();
+			long[] totals = new long[backends.size()];
+			for (Path fixture : fixtures) {
+				report.append(fixture.getFileName()).append('\n');
+				List<Double> reference = null;
+
+				for (int i = 0; i < backends.size(); i++) {
+					Backend backend = backends.get(i);
+					if (!backend.isProbed()) {
+						report.append("  %-8s unavailable%n".formatted(backend.decoder.getName()));
+						totals[i] = -1;
+						continue;
+					}
+
+					try {
+						long[] times = new long[settings.getBenchmarkIterations()];
+						List<Double> lu = null;
+						for (int run = 0; run < times.length; run++) {
+							long start = System.nanoTime();
+							lu = backend.decoder.decode(Files.newInputStream(fixture), fixture.toString(),
+									Deadline.after(BENCHMARK_TIMEOUT));
+							times[run] = System.nanoTime() - start;
+						}
+						Arrays.sort(times);
+						long median = times[times.length / 2] / 1_000_000;
+						if (totals[i] >= 0)
+							totals[i] += median;
+						if (reference == null)
+							reference = lu;
+
+						report.append("  %-8s %6dms median, %5d values, max deviation %.2f LU%n".formatted(
+								backend.decoder.getName(), median, lu.size(), maxDeviation(reference, lu)));
+					} catch (IOException | RuntimeException e) {
+						report.append("  %-8s failed: %s%n".formatted(backend.decoder.getName(), e));
+						totals[i] = -1;
+					}
+				}
+			}
+
+			int fastest = -1;
+			for (int i = 0; i < totals.length; i++)
+				if (totals[i] >= 0 && (fastest < 0 || totals[i] < totals[fastest]))
+					fastest = i;
+			report.append(fastest < 0 ? "No backend completed every fixture"
+					: "Fastest: " + backends.get(fastest).decoder.getName() + " (" + totals[fastest] + "ms)");
+
+			logger.info("Decoder benchmark\n{}", report);
+			return report.toString();
+		} catch (IOException e) {
+			logger.error("Decoder benchmark failed", e);
+			return "Benchmark failed: " + e;
+		} finally {
+			if (generated != null)
+				try {
+					Files.deleteIfExists(generated);
+				} catch (IOException e) {}
+			benchmarking.unlock();
+		}
+	}
+
+	/**
+	 * Generate a 30 second video with a loud and a quiet half.
+	 */
+	private Path generateFixture() throws IOException {
+		Path fixture = Files.createTempFile("decoder-benchmark", ".mp4");
+		String audio = "if(lt(t\\,15)\\,1\\,0.0316)*sin(1000*2*PI*t)";
+		Processes.output(Duration.ofMinutes(1), ffmpeg.toString(), "-hide_banner", "-loglevel", "error", "-y", "-f",
+				"lavfi", "-i", "aevalsrc=exprs=" + audio + "|" + audio + ":s=48000", "-f", "lavfi", "-i",
+				"testsrc=s=1280x720:r=30", "-t", "30", "-c:v", "mpeg4", "-c:a", "aac", "-movflags", "+faststart",
+				"-f", "mp4", fixture.toString());
+		if (Files.size(fixture) == 0) {
+			Files.deleteIfExists(fixture);
+			throw new IOException("Failed to generate benchmark fixture");
+		}
+		return fixture;
+	}
+
+	/**
+	 * Register this instance with the platform MBean server under
+	 * {@link #OBJECT_NAME}.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			logger.warn("Failed to register decoder MBean", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed.compareAndSet(false, true))
+			return;
+
+		ObjectName name = objectName;
+		if (name != null)
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {}
+
+		for (Backend backend : backends)
+			backend.decoder.close();
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	/**
+	 * Get the largest difference between two LU series.
+	 *
+	 * @param reference - series to compare against
+	 * @param lu        - series to compare
+	 *
+	 * @return Returns the largest difference of values at the same step or
+	 *         {@link Double#POSITIVE_INFINITY} if the lengths differ by more than
+	 *         one value
+	 */
+	static double maxDeviation(List<Double> reference, List<Double> lu) {
+		double max = Math.abs(reference.size() - lu.size()) > 1 ? Double.POSITIVE_INFINITY : 0;
+		for (int i = 0; i < Math.min(reference.size(), lu.size()); i++)
+			max = Math.max(max, Math.abs(reference.get(i) - lu.get(i)));
+		return max;
+	}
+
+	private static DecoderException getDecoderException(Throwable t) {
+		for (Throwable cause = t; cause != null; cause = cause.getCause())
+			if (cause instanceof DecoderException e)
+				return e;
+		return null;
+	}
+
+	/**
+	 * Parse the output of {@code ffmpeg -filters}. Filter lines are made of the
+	 * flags, the name, the pad types ({@code A->N}) and a description.
+	 */
+	static Set<String> parseFilters(String output) {
+		Set<String> filters = new TreeSet<>();
+		for (String line : output.split("\n")) {
+			String[] parts = line.trim().split("\\s+", 4);
+			if (parts.length >= 3 && parts[2].contains("->"))
+				filters.add(parts[1]);
+		}
+		return Set.copyOf(filters);
+	}
+
+	private class Backend {
+		private final DecoderBackend decoder;
+		private final AtomicInteger consecutive = new AtomicInteger();
+		private final LongAdder successes = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+
+		/**
+		 * Reason this backend failed probing or {@code null}
+		 */
+		private volatile String unavailable = "Not probed";
+		private volatile long downUntil = System.nanoTime();
+
+		Backend(DecoderBackend decoder) {
+			this.decoder = Objects.requireNonNull(decoder);
+		}
+
+		boolean isProbed() {
+			return unavailable == null;
+		}
+
+		boolean isAvailable(long now) {
+			return isProbed() && now - downUntil >= 0;
+		}
+
+		void succeeded() {
+			successes.increment();
+			consecutive.set(0);
+		}
+
+		void failed() {
+			failures.increment();
+			if (consecutive.incrementAndGet() >= settings.getFailureThreshold()) {
+				consecutive.set(0);
+				downUntil = System.nanoTime() + settings.getCooldown().toNanos();
+				logger.warn("Decoder backend {} keeps failing. Skipping for {}", decoder.getName(),
+						settings.getCooldown());
+			}
+		}
+	}
+}
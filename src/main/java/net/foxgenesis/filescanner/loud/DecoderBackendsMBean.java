@@ -0,0 +1,34 @@
+package net.foxgenesis.filescanner.loud;
+
+/**
+ * Management interface of {@link DecoderBackends}.
+ */
+public interface DecoderBackendsMBean {
+
+	/**
+	 * Get the state of every configured backend in order of preference.
+	 * 
+	 * @return Returns one line per backend
+	 */
+	String[] getBackends();
+
+	/**
+	 * Get the FFMPEG filters found when probing.
+	 * 
+	 * @return Returns the sorted filter names
+	 */
+	String[] getFilters();
+
+	/**
+	 * Probe every backend again, returning failed backends to rotation.
+	 */
+	void probe();
+
+	/**
+	 * Run every available backend over the benchmark fixtures and compare their
+	 * timings and results.
+	 * 
+	 * @return Returns the benchmark report
+	 */
+	String benchmark();
+}
@@ -0,0 +1,52 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a decoder process could not be started or exited with an error
+ * without producing any loudness values.
+ */
+public class DecoderException extends IOException {
+	private static final long serialVersionUID = 2829460216823571962L;
+
+	private final int exitCode;
+	private final boolean started;
+
+	/**
+	 * Create an exception for a decoder that could not be started.
+	 * 
+	 * @param message - detail message
+	 * @param cause   - cause of the failure
+	 */
+	public DecoderException(String message, Throwable cause) {
+		super(message, cause);
+		this.exitCode = -1;
+		this.started = false;
+	}
+
+	/**
+	 * Create an exception for a decoder that exited with an error.
+	 * 
+	 * @param message  - detail message
+	 * @param exitCode - exit code of the decoder or {@code -1} if it did not exit
+	 */
+	public DecoderException(String message, int exitCode) {
+		super(message);
+		this.exitCode = exitCode;
+		this.started = true;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * Check if the decoder never ran. Such failures are always caused by the
+	 * decoder rather than the video.
+	 * 
+	 * @return Returns {@code true} if the decoder could not be started
+	 */
+	public boolean isStartFailure() {
+		return !started;
+	}
+}
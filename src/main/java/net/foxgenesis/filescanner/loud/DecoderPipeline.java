@@ -0,0 +1,220 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.foxgenesis.filescanner.jfr.DecoderEvent;
+import net.foxgenesis.filescanner.jfr.DownloadEvent;
+import net.foxgenesis.filescanner.jfr.ParseEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.Processes;
+
+/**
+ * Feeds a download into a chain of decoder processes and parses the output of
+ * the last one, all within a single {@link Deadline}.
+ * <p>
+ * Once the deadline passes the download is closed and every process (and its
+ * descendants) is destroyed, which ends the parse. Failures writing to the
+ * decoder only mean it stopped reading early and do not affect the result,
+ * while failures reading the download fail the scan. A decoder that exits with
+ * an error without producing any values fails with a {@link DecoderException}.
+ */
+final class DecoderPipeline {
+	/**
+	 * How long to wait for the last decoder to exit once its output is closed
+	 */
+	private static final long EXIT_TIMEOUT = 5;
+
+	/**
+	 * Decoder processes started by this pipeline that have not been reaped yet
+	 */
+	private static final AtomicInteger running = new AtomicInteger();
+
+	private DecoderPipeline() {}
+
+	/**
+	 * Get the number of decoder processes that are running. Processes started
+	 * for probes are not counted.
+	 * 
+	 * @return Returns the number of running decoder processes
+	 */
+	static int getRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Start a process pipeline and run it to completion.
+	 * 
+	 * @param builders - processes to start. The first reads the download and the
+	 *                 last writes its results to stderr
+	 * @param in       - download to feed into the pipeline
+	 * @param name     - name of the download used in errors
+	 * @param deadline - deadline of the scan
+	 * @param executor - executor used to pump the download into the pipeline
+	 * @param parser   - parser of the stderr lines of the last process
+	 * 
+	 * @return Returns the parsed LU values
+	 * 
+	 * @throws IOException           Thrown if the download failed
+	 * @throws DecoderException      Thrown if a process failed to start or the
+	 *                               last process exited with an error without
+	 *                               producing values
+	 * @throws TimeoutException      Thrown if the deadline passed before the
+	 *                               pipeline finished
+	 * @throws CancellationException Thrown if the deadline was cancelled
+	 */
+	static List<Double> run(List<ProcessBuilder> builders, InputStream in, String name, Deadline deadline,
+			Executor executor, Function<Stream<String>, List<Double>> parser) throws IOException, TimeoutException {
+		ScanContext context = ScanContext.current();
+		DecoderEvent event = new DecoderEvent();
+		event.begin();
+
+		String outcome = "failed";
+		List<Process> pipes = List.of();
+		AtomicReference<IOException> downloadError = new AtomicReference<>();
+		try {
+			deadline.check("Download of " + name);
+			try {
+				pipes = ProcessBuilder.startPipeline(builders);
+				running.addAndGet(pipes.size());
+			} catch (IOException e) {
+				throw new DecoderException("Failed to start " + command(builders), e);
+			}
+			List<Process> started = pipes;
+
+			try (Deadline.Watch watch = deadline.watch(() -> {
+				closeQuietly(in);
+				Processes.kill(started);
+			}); BufferedReader err = pipes.get(pipes.size() - 1).errorReader()) {
+				OutputStream out = pipes.get(0).getOutputStream();
+				CompletableFuture.runAsync(() -> pump(in, out, downloadError, context), executor);
+
+				List<Double> lu = parse(err, parser, context);
+
+				if (watch.isFired()) {
+					if (deadline.isCancelled()) {
+						outcome = "cancelled";
+						throw deadline.cancellation("Decoding " + name);
+					}
+					outcome = "timeout";
+					throw deadline.timeout("Decoding " + name);
+				}
+				IOException error = downloadError.get();
+				if (error != null)
+					throw error;
+				if (lu.isEmpty()) {
+					int exitCode = exitCode(pipes.get(pipes.size() - 1));
+					if (exitCode != 0) {
+						outcome = "decoder error";
+						throw new DecoderException(command(builders) + " exited with " + exitCode + " for " + name,
+								exitCode);
+					}
+				}
+				outcome = "ok";
+				return lu;
+			}
+		} finally {
+			closeQuietly(in);
+			Processes.destroyTree(pipes);
+			running.addAndGet(-pipes.size());
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.setContext(context);
+				event.setCommand(command(builders));
+				event.setOutcome(outcome);
+				event.commit();
+			}
+		}
+	}
+
+	private static List<Double> parse(BufferedReader err, Function<Stream<String>, List<Double>> parser,
+			ScanContext context) {
+		ParseEvent event = new ParseEvent();
+		event.begin();
+		List<Double> lu = parser.apply(err.lines());
+		event.end();
+		if (event.shouldCommit()) {
+			event.setContext(context);
+			event.setValues(lu.size());
+			event.setOutcome("ok");
+			event.commit();
+		}
+		return lu;
+	}
+
+	/**
+	 * Copy the download into the decoder. The download error is recorded before
+	 * the decoder input is closed so it is visible once the decoder finishes.
+	 */
+	private static void pump(InputStream in, OutputStream out, AtomicReference<IOException> downloadError,
+			ScanContext context) {
+		DownloadEvent event = new DownloadEvent();
+		event.begin();
+
+		String outcome = "ok";
+		long total = 0;
+		byte[] buffer = new byte[8192];
+		try (in; out) {
+			while (true) {
+				int read;
+				try {
+					read = in.read(buffer);
+				} catch (IOException e) {
+					outcome = "failed";
+					downloadError.set(e);
+					return;
+				}
+				if (read < 0)
+					return;
+				total += read;
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			// The decoder stopped reading. Its output decides the verdict
+			outcome = "decoder closed";
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.setContext(context);
+				event.setBytes(total);
+				event.setOutcome(outcome);
+				event.commit();
+			}
+		}
+	}
+
+	private static int exitCode(Process process) throws InterruptedIOException {
+		try {
+			return process.waitFor(EXIT_TIMEOUT, TimeUnit.SECONDS) ? process.exitValue() : -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for decoder to exit");
+		}
+	}
+
+	private static String command(List<ProcessBuilder> builders) {
+		return builders.stream().map(b -> b.command().get(0)).collect(Collectors.joining(" | "));
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,294 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.loud.LoudnessDecoder.Source;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.AttachmentFetcher.Kind;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanStage;
+import net.foxgenesis.filescanner.util.ScanStages;
+import net.foxgenesis.watame.util.discord.AttachmentData;
+
+/**
+ * {@link LoudScanner} that measures attachments with a {@link LoudnessDecoder}.
+ * Attachments are reopened for every attempt so decoders such as
+ * {@link DecoderBackends} can retry with another backend. Attachments are
+ * downloaded through the {@link AttachmentFetcher} when one is set.
+ * <p>
+ * When {@link #setStages(ScanStages) stages} are set, videos are downloaded to
+ * a temporary file in the download stage and decoded in the analysis stage.
+ * <p>
+ * When coalescing, videos downloaded to a temporary file are digested while
+ * they are written and videos with the same digest share a single
+ * measurement. This catches copies of a video that were uploaded separately
+ * and so have different URLs. Without stages, a triage or segments, videos
+ * are streamed straight into the decoder. Their digest is only known once the
+ * measurement is done, so they are only coalesced by URL.
+ * <p>
+ * When a {@link #setTriage(LoudnessTriage) triage} is set, videos are also
+ * downloaded to a temporary file and their loudness ceiling is measured first.
+ * Videos that can not exceed the guild's threshold are cleared with no LU
+ * values and only the rest are decoded.
+ * <p>
+ * When a {@link #setSegments(SegmentedDecoder) segmented decoder} is set,
+ * videos are downloaded to a temporary file as well and long ones are measured
+ * in parallel segments. Videos that fail to decode in segments are decoded in
+ * one piece.
+ */
+public class DecoderSubscriber extends LoudScanner implements Closeable {
+	protected final LoudnessDecoder local;
+
+	@Nullable
+	private AttachmentFetcher fetcher;
+
+	@Nullable
+	private volatile LoudnessTriage triage;
+
+	@Nullable
+	private volatile SegmentedDecoder segments;
+
+	/**
+	 * @param local      - measures the attachments
+	 * @param moderation - acts on loud verdicts
+	 */
+	public DecoderSubscriber(LoudnessDecoder local, ModerationBatcher moderation) {
+		super(moderation);
+		this.local = Objects.requireNonNull(local);
+	}
+
+	@Override
+	protected List<Double> processAttachment(ScannerData scannerData, AttachmentData data, Deadline deadline) {
+		AttachmentFetcher fetcher = this.fetcher;
+		Source source = fetcher == null ? data::openConnection
+				: () -> fetcher.open(scannerData.message(), data, Kind.VIDEO, deadline);
+
+		// With a strike percentage of 0 every video is loud, so none can be cleared
+		boolean triaged = triage != null && scannerData.config().getStrikePercentage() > 0;
+		ScanStages stages = getStages();
+		return stages == null && !triaged && segments == null ? decode(source, data.getFileName(), deadline)
+				: decodeSpooled(stages, source, data.getFileName(),
+						triaged ? scannerData.config().getThreshold() : Double.NaN, deadline);
+	}
+
+	@Override
+	protected List<Double> processAttachment(AttachmentData data, Deadline deadline) {
+		return decode(data::openConnection, data.getFileName(), deadline);
+	}
+
+	private List<Double> decode(Source source, String name, Deadline deadline) {
+		try {
+			return local.decode(source, name, deadline);
+		} catch (IOException e) {
+			throw new CompletionException("Error while processing attachment: " + name, e);
+		}
+	}
+
+	/**
+	 * Download a video to a temporary file and decode it from there. With
+	 * stages the download happens in the download stage and the triage and
+	 * decoding in the analysis stage, so the next video can be downloaded while
+	 * this one is decoding. Decoders that retry and the triage reopen the file
+	 * instead of downloading it again. When coalescing, the measurement is
+	 * shared with running scans of a file with the same digest. Scans that wait
+	 * for such a scan give up their stage permit while waiting.
+	 *
+	 * @param threshold - threshold to triage against or {@link Double#NaN} to
+	 *                  skip the triage
+	 */
+	private List<Double> decodeSpooled(@Nullable ScanStages stages, Source source, String name, double threshold,
+			Deadline deadline) {
+		AtomicReference<ScanStage.Permit> permit = new AtomicReference<>(
+				stages == null ? null : stages.getDownload().enter(deadline));
+		Path file = null;
+		try {
+			MessageDigest digest = isCoalesce() ? newDigest() : null;
+			file = spool(source, name, digest, deadline);
+
+			Path spooled = file;
+			return coalesce(getContentKey(digest, threshold), deadline, () -> release(permit), () -> {
+				if (stages != null)
+					enter(permit, stages.getAnalysis(), deadline);
+				if (!Double.isNaN(threshold) && isQuiet(spooled, name, threshold, deadline))
+					return List.of();
+				List<Double> lu = decodeSegments(spooled, name, deadline);
+				return lu != null ? lu : local.decode(() -> Files.newInputStream(spooled), name, deadline);
+			});
+		} catch (IOException e) {
+			throw new CompletionException("Error while processing attachment: " + name, e);
+		} finally {
+			release(permit);
+			if (file != null)
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					logger.warn("Failed to delete {}", file, e);
+				}
+		}
+	}
+
+	/**
+	 * Move a scan into a stage, handing off the permit of its current stage.
+	 *
+	 * @param permit - holds the permit of the current stage. Empty if the scan
+	 *               gave up its permit
+	 */
+	private static void enter(AtomicReference<ScanStage.Permit> permit, ScanStage stage, Deadline deadline) {
+		ScanStage.Permit current = permit.get();
+		permit.set(current == null ? stage.enter(deadline) : current.handoff(stage, deadline));
+	}
+
+	private static void release(AtomicReference<ScanStage.Permit> permit) {
+		ScanStage.Permit held = permit.getAndSet(null);
+		if (held != null)
+			held.close();
+	}
+
+	/**
+	 * Check if the loudness ceiling of a spooled video is at or below a
+	 * threshold. Videos the triage can not read are escalated to the decoder.
+	 */
+	private boolean isQuiet(Path file, String name, double threshold, Deadline deadline) throws IOException {
+		try {
+			double ceiling = triage.getCeiling(Files.newInputStream(file), name, deadline);
+			boolean quiet = LoudnessTriage.isQuiet(ceiling, threshold);
+			logger.debug("Loudness ceiling of {} is {} (threshold {}). {}", name, ceiling, threshold,
+					quiet ? "Cleared" : "Escalating");
+			return quiet;
+		} catch (DecoderException e) {
+			logger.debug("Triage of {} failed. Escalating", name, e);
+			return false;
+		} catch (TimeoutException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Measure a spooled video in segments.
+	 *
+	 * @return Returns the LU values or {@code null} if the video should be
+	 *         decoded in one piece
+	 */
+	@Nullable
+	private List<Double> decodeSegments(Path file, String name, Deadline deadline) {
+		SegmentedDecoder segments = this.segments;
+		if (segments == null)
+			return null;
+		try {
+			return segments.decode(file, name, deadline, Ebur128::parse);
+		} catch (TimeoutException e) {
+			throw new CompletionException(e);
+		} catch (IOException e) {
+			if (deadline.isExpired())
+				throw new CompletionException(e);
+			logger.debug("Segmented decode of {} failed. Decoding in one piece", name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Download a video to a temporary file.
+	 *
+	 * @param digest - digest updated with the contents or {@code null}
+	 */
+	private static Path spool(Source source, String name, @Nullable MessageDigest digest, Deadline deadline)
+			throws IOException {
+		Path file = Files.createTempFile("loud-", ".video");
+		try (InputStream in = source.open(); Deadline.Watch watch = deadline.watch(() -> closeQuietly(in))) {
+			Files.copy(digest == null ? in : new DigestInputStream(in, digest), file,
+					StandardCopyOption.REPLACE_EXISTING);
+			return file;
+		} catch (IOException e) {
+			Files.deleteIfExists(file);
+			throw downloadFailed(e, name, deadline);
+		}
+	}
+
+	/**
+	 * Get the content key of a spooled video.
+	 *
+	 * @param digest    - digest of the whole video or {@code null}
+	 * @param threshold - threshold the video is triaged against or
+	 *                  {@link Double#NaN}
+	 *
+	 * @return Returns the key or {@code null} if the video was not digested
+	 */
+	@Nullable
+	private static String getContentKey(@Nullable MessageDigest digest, double threshold) {
+		if (digest == null)
+			return null;
+		String key = "sha256:" + HexFormat.of().formatHex(digest.digest());
+		// Videos cleared by the triage are only cleared for that threshold
+		return Double.isNaN(threshold) ? key : key + ":" + threshold;
+	}
+
+	@Nullable
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the exception thrown for a failed download. Downloads closed because
+	 * the deadline passed fail with the reason of the deadline instead.
+	 */
+	private static IOException downloadFailed(IOException e, String name, Deadline deadline) {
+		if (deadline.isCancelled())
+			throw new CompletionException(deadline.cancellation("Download of " + name));
+		if (deadline.isExpired())
+			throw new CompletionException(deadline.timeout("Download of " + name));
+		return e;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {}
+	}
+
+	public void setFetcher(@Nullable AttachmentFetcher fetcher) {
+		this.fetcher = fetcher;
+	}
+
+	public void setTriage(@Nullable LoudnessTriage triage) {
+		this.triage = triage;
+	}
+
+	public void setSegments(@Nullable SegmentedDecoder segments) {
+		this.segments = segments;
+	}
+
+	@Override
+	protected boolean isThresholdDependent() {
+		return triage != null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (triage != null)
+			triage.close();
+		if (segments != null)
+			segments.close();
+		if (local instanceof Closeable c)
+			c.close();
+	}
+}
@@ -0,0 +1,40 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Parser of the FFMPEG {@code ebur128} filter output.
+ */
+final class Ebur128 {
+	/**
+	 * length of EBUR128 tag in ffmpeg
+	 */
+	private static final int TAG = 35;
+
+	private Ebur128() {}
+
+	/**
+	 * Parse the momentary LU (Loudness Unit) values from FFMPEG EBUR128 output.
+	 * 
+	 * @param stream - stream of FFMPEG output
+	 * 
+	 * @return Returns a {@link List} of LU values
+	 */
+	static List<Double> parse(Stream<String> stream) {
+		return stream.filter(s -> s.startsWith("[Parsed_ebur128_0")).map(s -> {
+			int start = s.indexOf("M:", TAG) + 2;
+			if (start < 2)
+				return Double.NaN;
+			int end = s.indexOf("S:", start);
+
+			String loudStr = s.substring(start, end);
+
+			try {
+				return Double.parseDouble(loudStr);
+			} catch (NumberFormatException ex) {
+				return Double.NaN;
+			}
+		}).filter(d -> !d.equals(Double.NaN)).toList();
+	}
+}
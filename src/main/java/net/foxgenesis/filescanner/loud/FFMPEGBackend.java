@@ -0,0 +1,58 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Pipes videos directly into FFMPEG. Videos with the moov atom at the end can
+ * not be read from a pipe and fail with this backend.
+ */
+public class FFMPEGBackend implements DecoderBackend {
+	private final Executor executor;
+
+	private final Path ffmpeg;
+
+	/**
+	 * @param ffmpeg   - path to FFMPEG
+	 * @param executor - executor used to pump downloads into FFMPEG. Owned by
+	 *                 the caller
+	 */
+	public FFMPEGBackend(Path ffmpeg, Executor executor) {
+		this.executor = Objects.requireNonNull(executor);
+		this.ffmpeg = Objects.requireNonNull(ffmpeg);
+	}
+
+	@Override
+	public List<Double> decode(InputStream in, String name, Deadline deadline) {
+		try (in) {
+			ProcessBuilder p = new ProcessBuilder(ffmpeg.toString(), "-hide_banner", "-nostats", "-i", "-", "-vn",
+					"-af", "ebur128" /* + "=scale=relative:target=-10" */, "-f", "null", "-");
+
+			return DecoderPipeline.run(List.of(p), in, name, deadline, executor, Ebur128::parse);
+		} catch (Exception e) {
+			throw new CompletionException("Error while processing attachment: " + name, e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "ffmpeg";
+	}
+
+	@Override
+	public void probe(Set<String> filters) throws IOException {
+		if (!filters.contains("ebur128"))
+			throw new IOException("FFMPEG does not support the ebur128 filter");
+	}
+
+	@Override
+	public void close() {}
+}
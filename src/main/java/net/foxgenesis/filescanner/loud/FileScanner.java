@@ -2,24 +2,38 @@ package net.foxgenesis.filescanner.loud;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.SubmissionPublisher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.ExecutorType;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
 import net.foxgenesis.filescanner.database.FileScannerConfigurationService;
-import net.foxgenesis.watame.util.PrefixedThreadFactory;
+import net.foxgenesis.filescanner.database.ScanAuditLog;
+import net.foxgenesis.filescanner.jfr.AdmissionEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.AdaptiveConcurrency;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.PriorityPublisher;
+import net.foxgenesis.filescanner.util.ScanCancellation;
+import net.foxgenesis.filescanner.util.ScanExecutors;
+import net.foxgenesis.filescanner.util.ScanJournal;
+import net.foxgenesis.filescanner.util.ScanStages;
+import net.foxgenesis.filescanner.util.ScanUsage;
+import net.foxgenesis.filescanner.worker.RemoteScanDispatcher;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 import net.foxgenesis.watame.util.discord.DiscordUtils;
 import net.foxgenesis.watame.util.lang.DiscordLocaleMessageSource;
@@ -31,55 +45,149 @@ public class FileScanner extends ListenerAdapter implements AutoCloseable {
 	private final FileScannerConfigurationService service;
 	private final DiscordLocaleMessageSource messages;
 
-	private final SubmissionPublisher<ScannerData> publisher;
+	private final PriorityPublisher<ScannerData> publisher;
 	private final ExecutorService executor;
+	@Nullable
+	private final AdaptiveConcurrency concurrency;
+	@Nullable
+	private final ScanJournal journal;
+	@Nullable
+	private final ScanStages stages;
+	private final DecoderSubscriber scanner;
+	private final ModerationBatcher moderation;
+	private final ScanCancellation cancellation;
 
-	@SuppressWarnings("resource")
-	public FileScanner(FileScannerConfigurationService service, DiscordLocaleMessageSource messages, Config config) {
+	private boolean closed;
+
+	public FileScanner(FileScannerConfigurationService service, DiscordLocaleMessageSource messages, Config config,
+			ScanCancellation cancellation, ScanUsage usage, DecoderBackends decoders) {
 		this.service = Objects.requireNonNull(service);
 		this.messages = Objects.requireNonNull(messages);
+		this.cancellation = Objects.requireNonNull(cancellation);
 
-		// Setup Subscriber/Publisher
-		this.executor = config.isCommonPool() ? ForkJoinPool.commonPool()
-				: Executors.newFixedThreadPool(config.getWorkers(), new PrefixedThreadFactory("Video Scanning"));
-		this.publisher = new SubmissionPublisher<>(executor, config.getBuffer());
+		// Setup Subscriber/Publisher. Video scanning mostly waits on FFMPEG so it
+		// may run on virtual threads
+		this.executor = config.getExecutor() == ExecutorType.VIRTUAL ? ScanExecutors.io(config, "Video Scanning")
+				: ScanExecutors.workers(config, "Video Scanning");
+		this.publisher = new PriorityPublisher<>("Video Scanning", executor, config.getBuffer(),
+				data -> config.getQueue().getCost(data.estimateSize())
+						+ usage.getPenalty(data.message().getGuildIdLong()),
+				data -> new ScanContext(data.message().getGuildIdLong(), "", data.estimateSize(),
+						ScanContext.LOUDNESS));
+		this.concurrency = ScanExecutors.scale(config, "Video Scanning", publisher, DecoderPipeline::getRunning);
+		this.journal = ScanJournal.open(config.getJournal(), "loudness");
+		this.stages = ScanExecutors.stages(config, "Video Scanning", publisher);
 
-		LoudScanner scanner = new QTFSSubscriber(config.getFfmpegPath(), config.getQtfs());
-		scanner.useComponentV2(config.isUseComponentV2());
+		this.moderation = new ModerationBatcher(new JDAModerationActions(config.isUseComponentV2()),
+				config.getModerationWindow());
+		this.scanner = config.getRemoteWorkers().isEmpty() ? new DecoderSubscriber(decoders, moderation)
+				: new RemoteSubscriber(new RemoteScanDispatcher(config.getRemoteWorkers(), config.getRemoteTimeout(),
+						config.getRemoteSecret()), decoders, moderation);
+		scanner.setTimeouts(config.getTimeout());
+		scanner.setCancellation(cancellation);
+		scanner.setUsage(usage);
+		scanner.setCoalesce(config.isCoalesce());
+		scanner.setStages(stages);
+		// Both need the FFMPEG filters, so videos are measured in one piece until
+		// the backends are probed
+		decoders.getProbe().thenRun(() -> {
+			synchronized (scanner) {
+				if (!closed) {
+					scanner.setTriage(LoudnessTriage.create(config, decoders));
+					scanner.setSegments(SegmentedDecoder.create(config, decoders));
+				}
+			}
+		});
 		publisher.subscribe(scanner);
 	}
 
+	@Autowired
+	void setAuditLog(Optional<ScanAuditLog> auditLog) {
+		scanner.setAuditLog(auditLog.orElse(null));
+	}
+
+	@Autowired
+	void setFetcher(AttachmentFetcher fetcher) {
+		scanner.setFetcher(fetcher);
+	}
+
+	@Override
+	public void onReady(ReadyEvent event) {
+		if (journal != null)
+			journal.start(event.getJDA(), publisher::remainingCapacity, message -> isAdmitted(admit(message)));
+	}
+
 	@Override
 	public void onMessageReceived(MessageReceivedEvent e) {
-		if (!e.isFromGuild())
-			return;
+		AdmissionEvent event = new AdmissionEvent();
+		event.begin();
+		String outcome = admit(e.getMessage());
+		event.end();
 
-		Guild guild = e.getGuild();
+		if (event.shouldCommit()) {
+			event.setContext(new ScanContext(e.isFromGuild() ? e.getGuild().getIdLong() : 0, "", 0,
+					ScanContext.LOUDNESS));
+			event.setMessage(e.getMessageIdLong());
+			event.setOutcome(outcome);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Queue a received or replayed message for scanning if it should be
+	 * scanned.
+	 * 
+	 * @param message - message to scan
+	 * 
+	 * @return Returns why the message was or was not queued
+	 */
+	private String admit(Message message) {
+		if (!message.isFromGuild())
+			return "not from guild";
+
+		Guild guild = message.getGuild();
 		// Do not scan non user messages
-		if (e.getAuthor().isBot() || e.getAuthor().isSystem())
-			return;
+		if (message.getAuthor().isBot() || message.getAuthor().isSystem())
+			return "not from user";
 		// Check if we can talk, send embeds and delete messages
-		if (!(e.getChannel().canTalk() && guild.getSelfMember().hasPermission(e.getGuildChannel(),
+		if (!(message.getChannel().canTalk() && guild.getSelfMember().hasPermission(message.getGuildChannel(),
 				Permission.MESSAGE_MANAGE, Permission.MESSAGE_EMBED_LINKS)))
-			return;
+			return "missing permissions";
 
-		Message message = e.getMessage();
 		// Check if the message is declared as loud
 		if (LOUD_MESSAGE_PATTERN.asPredicate().test(message.getContentRaw().replaceAll("\\|\\|.*?\\|\\|", "")))
-			return;
-
-		service.get(guild)
-				// Check if enabled
-				.filter(FileScannerConfiguration::isEnabled)
-				// If enabled
-				.ifPresent(config -> {
-					List<AttachmentData> attachments = DiscordUtils.getAttachments(e.getMessage(), true);
-					if (attachments.isEmpty())
-						return;
-					attachments.removeIf(data -> !data.isVideo());
-					if (!(attachments.isEmpty() || publisher.isClosed()))
-						publisher.submit(new ScannerData(message, config, messages));
-				});
+			return "declared loud";
+
+		// Check if enabled
+		Optional<FileScannerConfiguration> config = service.get(guild).filter(FileScannerConfiguration::isEnabled);
+		if (config.isEmpty())
+			return "disabled";
+
+		List<AttachmentData> attachments = DiscordUtils.getAttachments(message, true);
+		attachments.removeIf(data -> !data.isVideo());
+		if (attachments.isEmpty())
+			return "no videos";
+		if (publisher.isClosed())
+			return "closed";
+
+		ScannerData data = new ScannerData(message, config.get(), messages, cancellation.register(message.getIdLong()));
+		if (journal == null) {
+			publisher.submit(data);
+			return "queued";
+		}
+		return journal.submit(message, publisher, data, data.ticket()) ? "queued" : "spilled";
+	}
+
+	/**
+	 * Check if a replayed message is still in the journal after admission.
+	 * Messages that were not queued because the publisher closed are kept for the
+	 * next start.
+	 */
+	private static boolean isAdmitted(String outcome) {
+		return switch (outcome) {
+		case "queued", "spilled", "closed" -> true;
+		default -> false;
+		};
 	}
 
 	@Override
@@ -89,9 +197,20 @@ public class FileScanner extends ListenerAdapter implements AutoCloseable {
 			logger.info("Closing LoudVideo publisher");
 			publisher.close();
 		}
+		if (concurrency != null)
+			concurrency.close();
+		if (journal != null)
+			journal.close();
+		if (stages != null)
+			stages.close();
 		if (!executor.equals(ForkJoinPool.commonPool())) {
 			logger.info("Closing LoudVideo executor");
 			executor.shutdown();
 		}
+		synchronized (scanner) {
+			closed = true;
+			scanner.close();
+		}
+		moderation.close();
 	}
 }
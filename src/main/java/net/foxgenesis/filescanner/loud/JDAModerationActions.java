@@ -0,0 +1,152 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.unions.GuildMessageChannelUnion;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.foxgenesis.watame.util.discord.Colors;
+import net.foxgenesis.watame.util.lang.DiscordLocaleMessageSource;
+import net.foxgenesis.watame.util.lang.Localized;
+import net.foxgenesis.watame.util.lang.LocalizedContainerBuilder;
+import net.foxgenesis.watame.util.lang.LocalizedEmbedBuilder;
+import net.foxgenesis.watame.util.lang.LocalizedSectionBuilder;
+
+/**
+ * {@link ModerationActions} backed by the JDA REST layer.
+ */
+public class JDAModerationActions implements ModerationActions {
+	private static final Logger logger = LoggerFactory.getLogger(JDAModerationActions.class);
+
+	private final boolean useComponentV2;
+
+	public JDAModerationActions(boolean useComponentV2) {
+		this.useComponentV2 = useComponentV2;
+	}
+
+	@Override
+	public void removeSingle(LoudVerdict verdict) {
+		ScannerData scannerData = verdict.data();
+		Message message = verdict.message();
+
+		RestAction<Message> action = useComponentV2
+				? message
+						.replyComponents(scannerData.getLoudVideoContainer(verdict.loudness(), verdict.max(),
+								verdict.threshold()))
+						.useComponentsV2()
+				: message.replyEmbeds(
+						scannerData.getLoudVideoEmbed(verdict.loudness(), verdict.max(), verdict.threshold()));
+
+		// Check if we can send embeds
+		action.addCheck(() -> message.getChannel().canTalk()
+				&& canDoInChannel(message.getGuildChannel(), Permission.MESSAGE_EMBED_LINKS))
+				// Map to message deletion
+				.flatMap(
+						// If we can delete messages in current channel
+						m -> canDoInChannel(message.getGuildChannel(), Permission.MESSAGE_MANAGE),
+						// Delete message with localized reason
+						m -> message
+								// Delete
+								.delete()
+								// Add reason
+								.reason(getReason(scannerData)))
+				// Send
+				.queue(v -> { // On success: log
+					logger.info("Removing loud video from {}", message.getAuthor().toString());
+				}, error -> { // On error: log
+					logger.error("Failed to remove message from " + message.getAuthor().toString(), error);
+				});
+	}
+
+	@Override
+	public void delete(LoudVerdict verdict) {
+		Message message = verdict.message();
+		if (!canDoInChannel(message.getGuildChannel(), Permission.MESSAGE_MANAGE))
+			return;
+
+		message.delete().reason(getReason(verdict.data())).queue(v -> {
+			logger.info("Removing loud video from {}", message.getAuthor().toString());
+		}, error -> {
+			logger.error("Failed to remove message from " + message.getAuthor().toString(), error);
+		});
+	}
+
+	@Override
+	public void bulkDelete(List<LoudVerdict> verdicts) {
+		GuildMessageChannelUnion channel = verdicts.get(0).message().getGuildChannel();
+		if (!canDoInChannel(channel, Permission.MESSAGE_MANAGE))
+			return;
+
+		channel.deleteMessagesByIds(verdicts.stream().map(verdict -> verdict.message().getId()).toList())
+				.queue(v -> {
+					logger.info("Bulk removed {} loud videos from {}", verdicts.size(), channel);
+				}, error -> {
+					logger.error("Failed to bulk remove " + verdicts.size() + " messages from " + channel, error);
+				});
+	}
+
+	@Override
+	public void sendNotice(List<LoudVerdict> verdicts) {
+		LoudVerdict first = verdicts.get(0);
+		GuildMessageChannelUnion channel = first.message().getGuildChannel();
+		if (!(channel.canTalk() && canDoInChannel(channel, Permission.MESSAGE_EMBED_LINKS)))
+			return;
+
+		DiscordLocaleMessageSource messages = first.data().messages();
+		Locale locale = messages.getLocaleForGuild(channel.getGuild());
+		String mentions = verdicts.stream().map(verdict -> verdict.message().getAuthor().getAsMention()).distinct()
+				.collect(Collectors.joining(" "));
+
+		RestAction<Message> action;
+		if (useComponentV2) {
+			LocalizedContainerBuilder builder = new LocalizedContainerBuilder(messages, locale);
+			builder.setColor(Colors.ERROR);
+
+			LocalizedSectionBuilder sb = builder.getNewLocalizedSectionBuilder();
+			sb.setThumbnailUrl(ScannerData.THUMBNAIL);
+			sb.addLocalizedFormattedTextDisplay("## %s", Localized.resolved("filescanner.embed.title"));
+			sb.addLocalizedTextDisplay("filescanner.embed.description", mentions);
+			sb.addLocalizedFormattedTextDisplay("-# %s",
+					Localized.resolved("filescanner.embed.bulk-footer", verdicts.size()));
+			builder.addSectionAndClear(sb);
+
+			action = channel.sendMessageComponents(builder.build()).useComponentsV2();
+		} else {
+			LocalizedEmbedBuilder builder = new LocalizedEmbedBuilder(messages, locale);
+			builder.setColor(Colors.ERROR);
+			builder.setThumbnail(ScannerData.THUMBNAIL);
+			builder.setLocalizedTitle("filescanner.embed.title");
+			builder.appendLocalizedDescription("filescanner.embed.description", mentions);
+			builder.setLocalizedFooter("filescanner.embed.bulk-footer", verdicts.size());
+
+			action = channel.sendMessageEmbeds(builder.build());
+		}
+
+		action.queue(null, error -> logger.error("Failed to send loud video notice to " + channel, error));
+	}
+
+	private static String getReason(ScannerData scannerData) {
+		return scannerData.messages().getMessage("filescanner.reason",
+				scannerData.messages().getLocaleForGuild(scannerData.message().getGuild()));
+	}
+
+	/**
+	 * Check if self member has the specified {@link Permission Permissions} in a
+	 * {@link GuildMessageChannelUnion}.
+	 * 
+	 * @param channel     - channel to check
+	 * @param permissions - required permissions
+	 * 
+	 * @return Returns {@code true} if self member has the specified
+	 *         {@code permissions} in the {@code channel}
+	 */
+	private static boolean canDoInChannel(GuildMessageChannelUnion channel, Permission... permissions) {
+		return channel.getGuild().getSelfMember().hasPermission(channel, permissions);
+	}
+}
@@ -1,33 +1,69 @@
 package net.foxgenesis.filescanner.loud;
 
-import java.util.ArrayList;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
-import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 
-import net.dv8tion.jda.api.Permission;
-import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.entities.channel.unions.GuildMessageChannelUnion;
-import net.dv8tion.jda.api.requests.RestAction;
+import net.foxgenesis.filescanner.Config.TimeoutSettings;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.database.ScanAuditLog;
+import net.foxgenesis.filescanner.database.ScanRecord;
+import net.foxgenesis.filescanner.database.ScanRecord.Outcome;
+import net.foxgenesis.filescanner.database.ScanRecord.Type;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.AttachmentInfo;
+import net.foxgenesis.filescanner.util.AttachmentRejectedException;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanCancellation;
+import net.foxgenesis.filescanner.util.ScanCancellation.Ticket;
+import net.foxgenesis.filescanner.util.ScanStage;
+import net.foxgenesis.filescanner.util.ScanStages;
+import net.foxgenesis.filescanner.util.ScanUsage;
+import net.foxgenesis.filescanner.util.SingleFlight;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 
-public abstract class LoudScanner implements Subscriber<ScannerData> {
+public abstract class LoudScanner implements Subscriber<ScannerData>, Closeable {
+	protected static final Logger logger = LoggerFactory.getLogger(LoudScanner.class);
+
+	protected Subscription subscription;
+
+	private final ModerationBatcher moderation;
+
+	@Nullable
+	private ScanAuditLog auditLog;
+
+	private TimeoutSettings timeouts = new TimeoutSettings();
+
+	@Nullable
+	private ScanCancellation cancellation;
+
+	@Nullable
+	private ScanUsage usage;
+
 	/**
-	 * length of EBUR128 tag in ffmpeg
+	 * Scans of the same content that are running at once. Every waiting scan
+	 * applies its own guild's threshold to the shared LU values
 	 */
-	private static final int EBUR128 = 35;
+	private final SingleFlight<String, List<Double>> flights = new SingleFlight<>();
 
-	protected static final Logger logger = LoggerFactory.getLogger(LoudScanner.class);
+	private boolean coalesce = true;
 
-	protected Subscription subscription;
+	@Nullable
+	private ScanStages stages;
 
-	private boolean useComponentV2 = true;
+	/**
+	 * @param moderation - acts on loud verdicts
+	 */
+	protected LoudScanner(ModerationBatcher moderation) {
+		this.moderation = Objects.requireNonNull(moderation);
+	}
 
 	@Override
 	public final void onSubscribe(Subscription subscription) {
@@ -39,37 +75,68 @@ public abstract class LoudScanner implements Subscriber<ScannerData> {
 	public final void onNext(ScannerData scannerData) {
 		subscription.request(1);
 
-		Message message = scannerData.message();
+		try (Ticket ticket = scannerData.ticket()) {
+			scan(scannerData, ticket);
+		}
+	}
 
+	private void scan(ScannerData scannerData, Ticket ticket) {
 		FileScannerConfiguration config = scannerData.config();
 		short threshold = config.getThreshold();
 		double percent = Math.max(0, Math.min(1, config.getStrikePercentage() / 100D));
 
 		for (AttachmentData attachment : scannerData.getAttachments()) {
 			String attachmentName = attachment.getFileName();
+			if (ticket.isCancelled()) {
+				logger.debug("Skipping {}. Message was deleted", attachmentName);
+				return;
+			}
 			logger.debug("Getting EBUR128 for {}", attachmentName);
 
 			// ============ PROCESSING START ============
 			long startTime = System.currentTimeMillis();
 			// ============ PROCESSING START ============
 
+			AttachmentInfo info = AttachmentInfo.of(scannerData.message(), attachment);
+			Deadline deadline = Deadline
+					.after(timeouts.getBudget(info.isSizeKnown() ? info.size() : ScannerData.UNKNOWN_SIZE));
+			ticket.attach(deadline);
+
 			// Process the attachment through FFMPEG and parse LU values from EBUR128
 			// results
-			List<Double> lu = processAttachment(attachment);
-			// Get the sum of consecutive values greater than the loudness threshold
-			List<Integer> strikeChunks = getStrikeChunks(lu, threshold);
-			// Total amount of LU values
-			double total = lu.size();
-			// Get largest loud segment
-			double loudChunkPercent = strikeChunks.stream()
-					// Get the quotient of the chunk value and total LU values
-					.mapToDouble(strikeChunk -> strikeChunk / total)
-					// Get largest quotient
-					.max()
-					// Or 0
-					.orElse(0);
-			// Check if loud chunk spans more than X percent of the video
-			boolean isLoud = loudChunkPercent >= percent;
+			List<Double> lu;
+			long cpuStart = ScanUsage.cpuTime();
+			long decodeStart = System.nanoTime();
+			try (ScanContext.Scope scope = new ScanContext(scannerData.message().getGuildIdLong(), attachmentName,
+					info.isSizeKnown() ? info.size() : 0, ScanContext.LOUDNESS).open()) {
+				String key = getKey(info);
+				// Values of videos cleared by a threshold only hold for that threshold
+				if (key != null && isThresholdDependent())
+					key += ":" + threshold;
+				lu = coalesce(key, deadline, () -> processAttachment(scannerData, attachment, deadline));
+			} catch (RuntimeException e) {
+				if (deadline.isCancelled()) {
+					logger.debug("Stopped scan of {}. Message was deleted", attachmentName);
+					audit(scannerData, attachment, Outcome.CANCELLED, null, startTime);
+					return;
+				}
+				AttachmentRejectedException rejection = AttachmentRejectedException.find(e);
+				if (rejection != null) {
+					logger.debug("Skipping {}: {}", attachmentName, rejection.getMessage());
+					audit(scannerData, attachment, Outcome.REJECTED, rejection.getMessage(), startTime);
+					continue;
+				}
+				audit(scannerData, attachment, Outcome.ERROR, e.toString(), startTime);
+				throw e;
+			} finally {
+				if (usage != null)
+					usage.record(scannerData.message().getGuildIdLong(), ScanUsage.cpuSince(cpuStart),
+							System.nanoTime() - decodeStart, info.isSizeKnown() ? info.size() : 0);
+			}
+			LoudnessAnalysis analysis = LoudnessAnalysis.analyze(lu, threshold, config.getStrikePercentage());
+			List<Integer> strikeChunks = analysis.strikeChunks();
+			double loudChunkPercent = analysis.loudness();
+			boolean isLoud = analysis.loud();
 
 			// ============== PROCESSING END ==============
 			long end = System.currentTimeMillis();
@@ -81,123 +148,146 @@ public abstract class LoudScanner implements Subscriber<ScannerData> {
 			logger.debug("EBUR128 for [{}] completed in {} sec(s)", attachment.getFileName(),
 					"%,.2f".formatted((end - startTime) / 1_000D));
 
+			audit(scannerData, attachment, isLoud ? Outcome.LOUD : Outcome.CLEAN,
+					"%.4f/%.4f".formatted(loudChunkPercent, percent), startTime);
+
 			// If message had loud video, delete message and display error
 			if (isLoud) {
-				RestAction<Message> action = useComponentV2
-						? message
-								.replyComponents(
-										scannerData.getLoudVideoContainer(loudChunkPercent, percent, threshold))
-								.useComponentsV2()
-						: message.replyEmbeds(scannerData.getLoudVideoEmbed(loudChunkPercent, percent, threshold));
-
-				// Check if we can send embeds
-				action.addCheck(() -> message.getChannel().canTalk()
-						&& canDoInChannel(message.getGuildChannel(), Permission.MESSAGE_EMBED_LINKS))
-						// Map to message deletion
-						.flatMap(
-								// If we can delete messages in current channel
-								m -> canDoInChannel(message.getGuildChannel(), Permission.MESSAGE_MANAGE),
-								// Delete message with localized reason
-								m -> message
-										// Delete
-										.delete()
-										// Add reason
-										.reason(scannerData.messages().getMessage("filescanner.reason",
-												scannerData.messages()
-														.getLocaleForGuild(scannerData.message().getGuild()))))
-						// Send
-						.queue(v -> { // On success: log
-							logger.info("Removing loud video from {}", message.getAuthor().toString());
-						}, error -> { // On error: log
-							logger.error("Failed to remove message from " + message.getAuthor().toString(), error);
-						});
+				// The verdict is acted on even if the scan ran out of time
+				try (ScanStage.Permit action = stages == null ? null : stages.getAction().enter(Deadline.none())) {
+					// Nothing else needs to look at a message that is being removed
+					if (cancellation != null)
+						cancellation.cancel(scannerData.message().getIdLong());
+					moderation.submit(new LoudVerdict(scannerData, loudChunkPercent, percent, threshold));
+				}
 				break;
 			}
 		}
 	}
 
-	protected abstract List<Double> processAttachment(AttachmentData data);
+	private void audit(ScannerData scannerData, AttachmentData attachment, Outcome outcome, String detail,
+			long startTime) {
+		if (auditLog == null)
+			return;
+		auditLog.record(new ScanRecord(scannerData.message(), attachment.getFileName(), Type.LOUDNESS, outcome,
+				detail, AttachmentInfo.of(scannerData.message(), attachment).size(),
+				System.currentTimeMillis() - startTime));
+	}
 
 	/**
-	 * Parse the momentary LU (Loudness Unit) values from FFMPEG EBUR128 output.
+	 * Run a measurement unless one with the same key is already running, in
+	 * which case its LU values are shared.
+	 * 
+	 * @param <E>      - checked exception thrown by the measurement
+	 * @param key      - key of the content or {@code null} if unknown
+	 * @param deadline - bounds the wait for a running measurement
+	 * @param task     - measurement to run
 	 * 
-	 * @param stream - stream of FFMPEG output
+	 * @return Returns the momentary LU values
 	 * 
-	 * @return Returns a {@link List} of LU values
+	 * @throws E Thrown if the measurement failed
 	 */
-	protected List<Double> getLUValues(Stream<String> stream) {
-		return stream.filter(s -> s.startsWith("[Parsed_ebur128_0")).map(s -> {
-			int start = s.indexOf("M:", EBUR128) + 2;
-			if (start < 2)
-				return Double.NaN;
-			int end = s.indexOf("S:", start);
-
-			String loudStr = s.substring(start, end);
-
-			try {
-				return Double.parseDouble(loudStr);
-			} catch (NumberFormatException ex) {
-				return Double.NaN;
-			}
-		}).filter(d -> !d.equals(Double.NaN)).toList();
+	protected <E extends Exception> List<Double> coalesce(@Nullable String key, Deadline deadline,
+			SingleFlight.Task<List<Double>, E> task) throws E {
+		return coalesce(key, deadline, null, task);
 	}
 
 	/**
-	 * Convert EBUR 128 segments into chunks of loudness.
+	 * Run a measurement unless one with the same key is already running, in
+	 * which case its LU values are shared.
 	 * 
-	 * @param segments - EBUR 128 segments
+	 * @param <E>      - checked exception thrown by the measurement
+	 * @param key      - key of the content or {@code null} if unknown
+	 * @param deadline - bounds the wait for a running measurement
+	 * @param onWait   - run before waiting for a running measurement, such as to
+	 *                 release a stage permit, or {@code null}
+	 * @param task     - measurement to run
 	 * 
-	 * @return Returns a {@link List} of chunks
+	 * @return Returns the momentary LU values
 	 * 
-	 * @author Spazmaster
+	 * @throws E Thrown if the measurement failed
 	 */
-	protected List<Integer> getStrikeChunks(List<Double> segments, double threshold) {
-		List<Integer> strikeChunks = new ArrayList<>();
-		int strikes = 0;
-		/*
-		 * sometimes a video could have a loud peak for less than a second, possibly due
-		 * to random noise or encoding error. This acts as a sort of "forgiveness meter"
-		 * so that it takes more than a one-time detection of loud audio
-		 */
-		for (double value : segments)
-			if (value > threshold) {
-				// if the loudness value is greater than -4.5
-				strikes++;
-			} else if (strikes > 0) {
-				// otherwise, we have gone back to a segment that isnt loud anymore and we can
-				// add a group of loud chunks back into a
-				// strike cache
-				strikeChunks.add(strikes);
-				strikes = 0;
-			}
-		// end for loop
-
-		if (strikes > 0) {
-			// if video ended with loud strikes, then add those chunks as well
-			strikeChunks.add(strikes);
-		}
+	protected <E extends Exception> List<Double> coalesce(@Nullable String key, Deadline deadline,
+			@Nullable Runnable onWait, SingleFlight.Task<List<Double>, E> task) throws E {
+		return key == null || !coalesce ? task.call() : flights.run(key, deadline, onWait, task);
+	}
 
-		return strikeChunks;
+	/**
+	 * Get the key an attachment is coalesced by. Discord attachments are keyed
+	 * by their URL without the signature parameters, which change between
+	 * copies of the same attachment.
+	 */
+	@Nullable
+	private static String getKey(AttachmentInfo info) {
+		String url = info.url();
+		if (url == null)
+			return null;
+		int query = url.indexOf('?');
+		return "url:" + (info.proxyUrl() == null || query < 0 ? url : url.substring(0, query));
 	}
 
 	/**
-	 * Check if self member has the specified {@link Permission Permissions} in a
-	 * {@link GuildMessageChannelUnion}.
+	 * Get the momentary LU values of an attachment.
 	 * 
-	 * @param channel     - channel to check
-	 * @param permissions - required permissions
+	 * @param scannerData - message being scanned
+	 * @param data        - attachment to process
+	 * @param deadline    - time by which processing must finish
 	 * 
-	 * @return Returns {@code true} if self member has the specified
-	 *         {@code permissions} in the {@code channel}
+	 * @return Returns the momentary LU values
 	 */
-	private static boolean canDoInChannel(GuildMessageChannelUnion channel, Permission... permissions) {
-		return channel.getGuild().getSelfMember().hasPermission(channel, permissions);
+	protected List<Double> processAttachment(ScannerData scannerData, AttachmentData data, Deadline deadline) {
+		return processAttachment(data, deadline);
+	}
+
+	protected abstract List<Double> processAttachment(AttachmentData data, Deadline deadline);
+
+	/**
+	 * Check if the LU values returned for an attachment depend on the threshold
+	 * of the guild, in which case they are only shared between scans with the
+	 * same threshold.
+	 * 
+	 * @return Returns {@code true} if the values depend on the threshold
+	 */
+	protected boolean isThresholdDependent() {
+		return false;
+	}
+
+	public void setAuditLog(@Nullable ScanAuditLog auditLog) {
+		this.auditLog = auditLog;
+	}
+
+	public void setCancellation(@Nullable ScanCancellation cancellation) {
+		this.cancellation = cancellation;
 	}
 
-	public void useComponentV2(boolean state) {
-		this.useComponentV2 = state;
+	public void setUsage(@Nullable ScanUsage usage) {
+		this.usage = usage;
 	}
 
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	@Nullable
+	protected ScanStages getStages() {
+		return stages;
+	}
+
+	public void setStages(@Nullable ScanStages stages) {
+		this.stages = stages;
+	}
+
+	public void setTimeouts(TimeoutSettings timeouts) {
+		this.timeouts = Objects.requireNonNull(timeouts);
+	}
+
+	@Override
+	public void close() throws IOException {}
+
 	@Override
 	public void onError(Throwable throwable) {
 		logger.error("Error in EBUR128Subscriber", throwable);
@@ -0,0 +1,24 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.util.Objects;
+
+import net.dv8tion.jda.api.entities.Message;
+
+/**
+ * A message that was found to contain a loud video.
+ * 
+ * @param data      - scanned message data
+ * @param loudness  - largest fraction of the video that was loud
+ * @param max       - maximum allowed fraction
+ * @param threshold - loudness threshold in LU
+ */
+public record LoudVerdict(ScannerData data, double loudness, double max, short threshold) {
+
+	public LoudVerdict {
+		Objects.requireNonNull(data);
+	}
+
+	public Message message() {
+		return data.message();
+	}
+}
@@ -0,0 +1,82 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of checking a series of momentary LU values against a guild's
+ * loudness settings.
+ * 
+ * @param strikeChunks - lengths of consecutive values above the threshold
+ * @param loudness     - largest fraction of the video that was loud
+ * @param max          - maximum allowed fraction
+ * @param loud         - {@code true} if {@code loudness >= max}
+ */
+public record LoudnessAnalysis(List<Integer> strikeChunks, double loudness, double max, boolean loud) {
+
+	/**
+	 * Check a series of LU values against a threshold.
+	 * 
+	 * @param lu               - momentary LU values
+	 * @param threshold        - loudness threshold in LU
+	 * @param strikePercentage - minimum percentage of the video that must be
+	 *                         loud
+	 * 
+	 * @return Returns the {@link LoudnessAnalysis} of the series
+	 */
+	public static LoudnessAnalysis analyze(List<Double> lu, double threshold, short strikePercentage) {
+		double percent = Math.max(0, Math.min(1, strikePercentage / 100D));
+		// Get the sum of consecutive values greater than the loudness threshold
+		List<Integer> strikeChunks = getStrikeChunks(lu, threshold);
+		// Total amount of LU values
+		double total = lu.size();
+		// Get largest loud segment
+		double loudChunkPercent = strikeChunks.stream()
+				// Get the quotient of the chunk value and total LU values
+				.mapToDouble(strikeChunk -> strikeChunk / total)
+				// Get largest quotient
+				.max()
+				// Or 0
+				.orElse(0);
+		// Check if loud chunk spans more than X percent of the video
+		return new LoudnessAnalysis(strikeChunks, loudChunkPercent, percent, loudChunkPercent >= percent);
+	}
+
+	/**
+	 * Convert EBUR 128 segments into chunks of loudness.
+	 * 
+	 * @param segments - EBUR 128 segments
+	 * 
+	 * @return Returns a {@link List} of chunks
+	 * 
+	 * @author Spazmaster
+	 */
+	public static List<Integer> getStrikeChunks(List<Double> segments, double threshold) {
+		List<Integer> strikeChunks = new ArrayList<>();
+		int strikes = 0;
+		/*
+		 * sometimes a video could have a loud peak for less than a second, possibly due
+		 * to random noise or encoding error. This acts as a sort of "forgiveness meter"
+		 * so that it takes more than a one-time detection of loud audio
+		 */
+		for (double value : segments)
+			if (value > threshold) {
+				// if the loudness value is greater than -4.5
+				strikes++;
+			} else if (strikes > 0) {
+				// otherwise, we have gone back to a segment that isnt loud anymore and we can
+				// add a group of loud chunks back into a
+				// strike cache
+				strikeChunks.add(strikes);
+				strikes = 0;
+			}
+		// end for loop
+
+		if (strikes > 0) {
+			// if video ended with loud strikes, then add those chunks as well
+			strikeChunks.add(strikes);
+		}
+
+		return strikeChunks;
+	}
+}
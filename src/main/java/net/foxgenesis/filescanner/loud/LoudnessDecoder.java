@@ -0,0 +1,64 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Decodes the audio of a video and measures its momentary loudness.
+ */
+@FunctionalInterface
+public interface LoudnessDecoder {
+
+	/**
+	 * Measure the momentary loudness of a video.
+	 * 
+	 * @param in   - video contents. Closed by this method
+	 * @param name - name of the video used in errors
+	 * 
+	 * @return Returns the momentary LU values in 100ms steps
+	 */
+	default List<Double> decode(InputStream in, String name) {
+		return decode(in, name, Deadline.none());
+	}
+
+	/**
+	 * Measure the momentary loudness of a video, giving up once the deadline
+	 * passes. Any processes started for the video are destroyed before this
+	 * method returns.
+	 * 
+	 * @param in       - video contents. Closed by this method
+	 * @param name     - name of the video used in errors
+	 * @param deadline - time by which the measurement must finish
+	 * 
+	 * @return Returns the momentary LU values in 100ms steps
+	 */
+	List<Double> decode(InputStream in, String name, Deadline deadline);
+
+	/**
+	 * Measure the momentary loudness of a video that can be opened more than
+	 * once. Decoders that can retry, such as {@link DecoderBackends}, reopen the
+	 * video for every attempt.
+	 * 
+	 * @param source   - opens the video contents
+	 * @param name     - name of the video used in errors
+	 * @param deadline - time by which the measurement must finish
+	 * 
+	 * @return Returns the momentary LU values in 100ms steps
+	 * 
+	 * @throws IOException Thrown if the video could not be opened
+	 */
+	default List<Double> decode(Source source, String name, Deadline deadline) throws IOException {
+		return decode(source.open(), name, deadline);
+	}
+
+	/**
+	 * Opens the contents of a video.
+	 */
+	@FunctionalInterface
+	interface Source {
+		InputStream open() throws IOException;
+	}
+}
@@ -0,0 +1,188 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanExecutors;
+
+/**
+ * Cheap first pass that bounds the momentary loudness of a video from its
+ * sample peak, measured by the FFMPEG {@code astats} filter.
+ * <p>
+ * The mean square of a window can not exceed the square of its peak, and
+ * K-weighting amplifies no frequency by more than {@value #K_WEIGHTING_GAIN}
+ * dB. Adding the channel weights gives a ceiling no momentary value can
+ * reach. Videos whose ceiling is at or below a guild's threshold can not have
+ * a single strike and do not need the full {@code ebur128} analysis.
+ * <p>
+ * Only the audio stream the full analysis measures is decoded, and
+ * {@code astats} only measures the overall peak, which needs FFMPEG 4.4 or
+ * newer.
+ * <p>
+ * The peak is measured on floating point samples. Decoders such as AAC output
+ * samples above full scale, which {@code volumedetect} would clip to 0 dB when
+ * converting to 16 bit, clearing videos louder than any ceiling it reports.
+ * <p>
+ * A margin is added to the ceiling for the filter's ring at the edges of a
+ * window and for peaks between samples that appear when resampling. Videos
+ * with a channel layout other than mono or stereo are never cleared.
+ */
+public class LoudnessTriage implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(LoudnessTriage.class);
+
+	/**
+	 * Largest gain of the BS.1770 K-weighting filter in dB
+	 */
+	static final double K_WEIGHTING_GAIN = 4.05;
+
+	private static final Pattern PEAK = Pattern.compile("\\] Peak level dB: (\\S+)");
+
+	/**
+	 * Keeps the samples in floating point so peaks above full scale are kept and
+	 * only measures the overall peak
+	 */
+	private static final String FILTER = "aformat=sample_fmts=flt|fltp|dbl|dblp,"
+			+ "astats=measure_perchannel=none:measure_overall=Peak_level";
+	private static final Pattern AUDIO = Pattern.compile(": Audio: .*?, \\d+ Hz, ([^,]+)");
+
+	private final Path ffmpeg;
+	private final double margin;
+	private final ExecutorService executor;
+
+	/**
+	 * @param ffmpeg   - path to FFMPEG
+	 * @param margin   - headroom in dB added to the ceiling
+	 * @param executor - executor used to pump downloads into FFMPEG. Shutdown
+	 *                 when this triage is closed
+	 */
+	public LoudnessTriage(Path ffmpeg, double margin, ExecutorService executor) {
+		this.ffmpeg = Objects.requireNonNull(ffmpeg);
+		this.margin = margin;
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	/**
+	 * Create the triage selected by {@link Config#getDecoder()}.
+	 *
+	 * @param config   - scanner configuration
+	 * @param decoders - probed decoder backends
+	 *
+	 * @return Returns the triage or {@code null} if it is disabled or FFMPEG
+	 *         does not support the {@code astats} filter
+	 */
+	@Nullable
+	public static LoudnessTriage create(Config config, DecoderBackends decoders) {
+		if (!config.getDecoder().isTriage())
+			return null;
+		if (!decoders.hasFilter("astats")) {
+			logger.warn("FFMPEG does not support the astats filter. Every video gets the full analysis");
+			return null;
+		}
+		return new LoudnessTriage(config.getFfmpegPath(), config.getDecoder().getTriageMargin(),
+				ScanExecutors.io(config, "Video Triage"));
+	}
+
+	/**
+	 * Measure the loudness ceiling of a video.
+	 *
+	 * @param in       - video contents. Closed by this method
+	 * @param name     - name of the video used in errors
+	 * @param deadline - deadline of the scan
+	 *
+	 * @return Returns the highest momentary loudness the video could have in
+	 *         LUFS or {@link Double#NaN} if it can not be bounded
+	 *
+	 * @throws IOException      Thrown if the download failed
+	 * @throws DecoderException Thrown if FFMPEG failed to start or could not
+	 *                          read the video
+	 * @throws TimeoutException Thrown if the deadline passed
+	 */
+	public double getCeiling(InputStream in, String name, Deadline deadline) throws IOException, TimeoutException {
+		ProcessBuilder p = new ProcessBuilder(ffmpeg.toString(), "-hide_banner", "-nostats", "-i", "-", "-vn", "-sn",
+				"-dn", "-af", FILTER, "-f", "null", "-");
+
+		List<Double> ceiling = DecoderPipeline.run(List.of(p), in, name, deadline, executor, this::parse);
+		return ceiling.isEmpty() ? Double.NaN : ceiling.get(0);
+	}
+
+	/**
+	 * Check if a video can be cleared without the full analysis.
+	 *
+	 * @param ceiling   - ceiling of the video
+	 * @param threshold - loudness threshold of the guild
+	 *
+	 * @return Returns {@code true} if no momentary value can exceed
+	 *         {@code threshold}
+	 */
+	public static boolean isQuiet(double ceiling, double threshold) {
+		return ceiling <= threshold;
+	}
+
+	/**
+	 * Parse the channel layouts and the peak from the FFMPEG output.
+	 */
+	private List<Double> parse(Stream<String> lines) {
+		double weight = 0;
+		double peak = Double.NaN;
+		for (String line : (Iterable<String>) lines::iterator) {
+			Matcher audio = AUDIO.matcher(line);
+			if (audio.find()) {
+				weight = Math.max(weight, getChannelWeight(audio.group(1).trim()));
+				continue;
+			}
+			// Only the overall peak is measured
+			Matcher max = PEAK.matcher(line);
+			if (max.find()) {
+				double value = parseDecibels(max.group(1));
+				peak = Double.isNaN(peak) ? value : Math.max(peak, value);
+			}
+		}
+		if (Double.isNaN(peak) || Double.isNaN(weight) || weight == 0)
+			return List.of();
+		return List.of(-0.691 + peak + K_WEIGHTING_GAIN + 10 * Math.log10(weight) + margin);
+	}
+
+	/**
+	 * Get the sum of the BS.1770 channel weights of a layout.
+	 *
+	 * @return Returns the weight or {@link Double#NaN} if the layout may have
+	 *         surround channels
+	 */
+	private static double getChannelWeight(String layout) {
+		return switch (layout) {
+		case "mono", "1 channels" -> 1;
+		case "stereo", "2 channels" -> 2;
+		default -> Double.NaN;
+		};
+	}
+
+	private static double parseDecibels(String value) {
+		if (value.equals("-inf"))
+			return Double.NEGATIVE_INFINITY;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
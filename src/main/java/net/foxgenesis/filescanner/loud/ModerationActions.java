@@ -0,0 +1,38 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.util.List;
+
+/**
+ * REST operations used by the {@link ModerationBatcher}.
+ */
+public interface ModerationActions {
+
+	/**
+	 * Reply to a single loud message and delete it.
+	 * 
+	 * @param verdict - verdict to act on
+	 */
+	void removeSingle(LoudVerdict verdict);
+
+	/**
+	 * Delete a single message without replying to it.
+	 * 
+	 * @param verdict - verdict to act on
+	 */
+	void delete(LoudVerdict verdict);
+
+	/**
+	 * Delete between 2 and {@value ModerationBatcher#MAX_BULK_DELETE} messages
+	 * from the same channel in a single request.
+	 * 
+	 * @param verdicts - verdicts to act on
+	 */
+	void bulkDelete(List<LoudVerdict> verdicts);
+
+	/**
+	 * Send a single notice to the channel covering all removed messages.
+	 * 
+	 * @param verdicts - verdicts to act on
+	 */
+	void sendNotice(List<LoudVerdict> verdicts);
+}
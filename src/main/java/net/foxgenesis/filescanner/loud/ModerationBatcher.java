@@ -0,0 +1,134 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.foxgenesis.watame.util.PrefixedThreadFactory;
+
+/**
+ * Collects loud verdicts per channel over a short window so that a burst of
+ * loud videos results in one bulk deletion and one notice instead of a reply
+ * and deletion per message.
+ */
+public class ModerationBatcher implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(ModerationBatcher.class);
+
+	/**
+	 * Maximum amount of messages Discord allows in a bulk deletion
+	 */
+	public static final int MAX_BULK_DELETE = 100;
+
+	/**
+	 * Messages older than this can not be bulk deleted
+	 */
+	private static final Duration MAX_BULK_AGE = Duration.ofDays(14).minusMinutes(5);
+
+	private final ConcurrentHashMap<Long, List<LoudVerdict>> pending = new ConcurrentHashMap<>();
+	private final ModerationActions actions;
+	private final Duration window;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Create a batcher that acts on every verdict immediately.
+	 * 
+	 * @param actions - REST operations
+	 */
+	public ModerationBatcher(ModerationActions actions) {
+		this(actions, Duration.ZERO);
+	}
+
+	/**
+	 * @param actions - REST operations
+	 * @param window  - how long to collect verdicts per channel. A zero window
+	 *                disables batching
+	 */
+	public ModerationBatcher(ModerationActions actions, Duration window) {
+		this.actions = Objects.requireNonNull(actions);
+		this.window = Objects.requireNonNull(window);
+		this.scheduler = window.isZero() || window.isNegative() ? null
+				: Executors.newSingleThreadScheduledExecutor(new PrefixedThreadFactory("Moderation Batcher"));
+	}
+
+	public void submit(LoudVerdict verdict) {
+		Objects.requireNonNull(verdict);
+		if (scheduler == null) {
+			actions.removeSingle(verdict);
+			return;
+		}
+
+		long channel = verdict.message().getChannelIdLong();
+		boolean[] first = { false };
+		pending.compute(channel, (id, batch) -> {
+			if (batch == null) {
+				batch = new ArrayList<>();
+				first[0] = true;
+			}
+			batch.add(verdict);
+			return batch;
+		});
+
+		// First verdict for the channel starts the window
+		if (first[0])
+			scheduler.schedule(() -> flush(channel), window.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Act on all verdicts collected for a channel.
+	 * 
+	 * @param channel - channel id
+	 */
+	void flush(long channel) {
+		List<LoudVerdict> batch = pending.remove(channel);
+		if (batch == null || batch.isEmpty())
+			return;
+
+		try {
+			if (batch.size() == 1) {
+				actions.removeSingle(batch.get(0));
+				return;
+			}
+
+			logger.info("Removing {} loud videos from channel {}", batch.size(), channel);
+
+			// Split messages that are too old for bulk deletion
+			OffsetDateTime cutoff = OffsetDateTime.now().minus(MAX_BULK_AGE);
+			List<LoudVerdict> bulk = new ArrayList<>();
+			for (LoudVerdict verdict : batch) {
+				if (verdict.message().getTimeCreated().isAfter(cutoff))
+					bulk.add(verdict);
+				else
+					actions.delete(verdict);
+			}
+
+			for (int i = 0; i < bulk.size(); i += MAX_BULK_DELETE) {
+				List<LoudVerdict> chunk = bulk.subList(i, Math.min(bulk.size(), i + MAX_BULK_DELETE));
+				if (chunk.size() == 1)
+					actions.delete(chunk.get(0));
+				else
+					actions.bulkDelete(List.copyOf(chunk));
+			}
+
+			actions.sendNotice(batch);
+		} catch (Exception e) {
+			logger.error("Failed to flush moderation batch for channel " + channel, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (scheduler == null)
+			return;
+		scheduler.shutdown();
+		pending.keySet().forEach(this::flush);
+	}
+}
@@ -0,0 +1,187 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EBU R128 momentary loudness meter fed with PCM samples.
+ * <p>
+ * Samples are K-weighted with the two filter stages of ITU-R BS.1770 and their
+ * mean square is taken over a sliding 400ms window that advances in 100ms
+ * steps, matching the {@code M:} values printed by the {@code ebur128} filter of
+ * FFMPEG. Like FFMPEG the window starts out filled with silence, so the first
+ * three values only cover part of a window.
+ * <p>
+ * Channel weights follow the default FFMPEG channel layouts: with six or more
+ * channels the fourth is the LFE channel and is ignored, and every channel
+ * after it is a surround channel weighted by 1.41.
+ */
+final class MomentaryLoudness {
+	/**
+	 * Energy reported for digital silence. FFMPEG prints it as -120.7 LUFS
+	 */
+	private static final double SILENCE = 1e-12;
+
+	/**
+	 * 100ms blocks that make up a momentary window
+	 */
+	private static final int BLOCKS = 4;
+
+	private final int channels;
+	private final double[] weights;
+	private final int blockSize;
+
+	private final Biquad[] shelf;
+	private final Biquad[] highpass;
+
+	private final double[] blocks = new double[BLOCKS];
+	private int block;
+	private double energy;
+	private int samples;
+
+	private final List<Double> values = new ArrayList<>();
+
+	/**
+	 * @param sampleRate - sample rate of the PCM data
+	 * @param channels   - number of channels of the PCM data
+	 */
+	MomentaryLoudness(int sampleRate, int channels) {
+		if (sampleRate <= 0)
+			throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+		if (channels <= 0)
+			throw new IllegalArgumentException("Invalid channel count: " + channels);
+		this.channels = channels;
+		this.blockSize = Math.max(1, sampleRate / 10);
+
+		weights = new double[channels];
+		for (int i = 0; i < channels; i++)
+			weights[i] = channels < 6 || i < 3 ? 1 : i == 3 ? 0 : 1.41;
+
+		shelf = new Biquad[channels];
+		highpass = new Biquad[channels];
+		for (int i = 0; i < channels; i++) {
+			shelf[i] = Biquad.shelf(sampleRate);
+			highpass[i] = Biquad.highpass(sampleRate);
+		}
+	}
+
+	/**
+	 * Add a frame of samples.
+	 *
+	 * @param planes - one buffer of interleaved samples or one buffer per
+	 *               channel. Read from their current position to their limit
+	 */
+	void accept(FloatBuffer[] planes) {
+		if (planes.length == 1 && channels > 1) {
+			FloatBuffer interleaved = planes[0];
+			int base = interleaved.position();
+			int frames = interleaved.remaining() / channels;
+			for (int i = 0; i < frames; i++) {
+				double sum = 0;
+				for (int c = 0; c < channels; c++)
+					sum += weigh(c, interleaved.get(base + i * channels + c));
+				add(sum);
+			}
+		} else {
+			if (planes.length < channels)
+				throw new IllegalArgumentException("Expected " + channels + " planes but got " + planes.length);
+			int frames = planes[0].remaining();
+			for (int i = 0; i < frames; i++) {
+				double sum = 0;
+				for (int c = 0; c < channels; c++)
+					sum += weigh(c, planes[c].get(planes[c].position() + i));
+				add(sum);
+			}
+		}
+	}
+
+	private double weigh(int channel, float sample) {
+		if (weights[channel] == 0)
+			return 0;
+		double filtered = highpass[channel].apply(shelf[channel].apply(sample));
+		return weights[channel] * filtered * filtered;
+	}
+
+	private void add(double sum) {
+		energy += sum;
+		if (++samples < blockSize)
+			return;
+
+		blocks[block] = energy;
+		block = (block + 1) % BLOCKS;
+		energy = 0;
+		samples = 0;
+
+		double window = 0;
+		for (double b : blocks)
+			window += b;
+		double loudness = -0.691 + 10 * Math.log10(Math.max(SILENCE, window / (blockSize * BLOCKS)));
+		// FFMPEG prints one decimal
+		values.add(Math.round(loudness * 10) / 10D);
+	}
+
+	/**
+	 * Get the momentary loudness measured so far. A trailing partial block is
+	 * not measured, like in FFMPEG.
+	 *
+	 * @return Returns the momentary LU values in 100ms steps
+	 */
+	List<Double> getValues() {
+		return values;
+	}
+
+	/**
+	 * Second order IIR filter in transposed direct form II.
+	 */
+	private static final class Biquad {
+		private final double b0, b1, b2, a1, a2;
+		private double z1, z2;
+
+		private Biquad(double b0, double b1, double b2, double a1, double a2) {
+			this.b0 = b0;
+			this.b1 = b1;
+			this.b2 = b2;
+			this.a1 = a1;
+			this.a2 = a2;
+		}
+
+		/**
+		 * High shelf modelling the acoustic effect of the head, derived for any
+		 * sample rate as in libebur128.
+		 */
+		static Biquad shelf(int sampleRate) {
+			double f0 = 1681.974450955533;
+			double gain = 3.999843853973347;
+			double q = 0.7071752369554196;
+
+			double k = Math.tan(Math.PI * f0 / sampleRate);
+			double vh = Math.pow(10, gain / 20);
+			double vb = Math.pow(vh, 0.4996667741545416);
+			double a0 = 1 + k / q + k * k;
+
+			return new Biquad((vh + vb * k / q + k * k) / a0, 2 * (k * k - vh) / a0, (vh - vb * k / q + k * k) / a0,
+					2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0);
+		}
+
+		/**
+		 * RLB high pass, derived for any sample rate as in libebur128.
+		 */
+		static Biquad highpass(int sampleRate) {
+			double f0 = 38.13547087602444;
+			double q = 0.5003270373238773;
+
+			double k = Math.tan(Math.PI * f0 / sampleRate);
+			double a0 = 1 + k / q + k * k;
+
+			return new Biquad(1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0);
+		}
+
+		double apply(double x) {
+			double y = b0 * x + z1;
+			z1 = b1 * x - a1 * y + z2;
+			z2 = b2 * x - a2 * y;
+			return y;
+		}
+	}
+}
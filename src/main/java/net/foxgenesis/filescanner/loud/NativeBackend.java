@@ -0,0 +1,51 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Decodes audio in-process through the native FFMPEG libraries and measures
+ * the PCM samples directly, without starting any processes or copying the
+ * video through pipes. Small videos mostly cost process startup with the
+ * other backends, which this one avoids.
+ * <p>
+ * The libraries come from JavaCV and are loaded when probed. Like
+ * {@link FFMPEGBackend} only the start of a video can be seeked, so videos
+ * with the moov atom at the end may fail and fall over to the next backend.
+ */
+public class NativeBackend implements DecoderBackend {
+
+	@Override
+	public List<Double> decode(InputStream in, String name, Deadline deadline) {
+		try (in) {
+			return NativeDecoder.decode(in, name, deadline);
+		} catch (LinkageError e) {
+			throw new CompletionException("Error while processing attachment: " + name,
+					new DecoderException("FFMPEG libraries are not available", e));
+		} catch (Exception e) {
+			throw new CompletionException("Error while processing attachment: " + name, e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "native";
+	}
+
+	@Override
+	public void probe(Set<String> filters) throws IOException {
+		try {
+			NativeDecoder.probe();
+		} catch (LinkageError e) {
+			throw new IOException("JavaCV is not on the classpath: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void close() {}
+}
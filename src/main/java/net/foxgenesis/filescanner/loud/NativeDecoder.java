@@ -0,0 +1,143 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import net.foxgenesis.filescanner.jfr.DecoderEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Decodes audio in-process with the FFMPEG libraries bundled by JavaCV and
+ * measures it with a {@link MomentaryLoudness} meter.
+ * <p>
+ * All references to JavaCV live in this class so {@link NativeBackend} can
+ * be created and probed when the libraries are missing.
+ */
+final class NativeDecoder {
+	/**
+	 * Sample rate the audio is resampled to, like the {@code ebur128} filter
+	 */
+	private static final int SAMPLE_RATE = 48000;
+
+	/**
+	 * How much of a video is buffered for seeking. Videos with the moov atom
+	 * further from the start fail with this backend
+	 */
+	private static final int SEEK_BUFFER = 32 * 1024 * 1024;
+
+	private static final String COMMAND = "libavcodec";
+
+	private NativeDecoder() {}
+
+	/**
+	 * Load the native libraries.
+	 *
+	 * @throws IOException Thrown if the libraries could not be loaded
+	 */
+	static void probe() throws IOException {
+		try {
+			FFmpegFrameGrabber.tryLoad();
+			avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+		} catch (FrameGrabber.Exception e) {
+			throw new IOException("Unable to load FFMPEG libraries: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Decode the audio of a video to completion.
+	 *
+	 * @param in       - video contents. Closed once the deadline passes
+	 * @param name     - name of the video used in errors
+	 * @param deadline - deadline of the scan
+	 *
+	 * @return Returns the momentary LU values in 100ms steps or an empty list if
+	 *         the video has no audio
+	 *
+	 * @throws DecoderException      Thrown if the video could not be decoded
+	 * @throws TimeoutException      Thrown if the deadline passed before the
+	 *                               video was decoded
+	 * @throws CancellationException Thrown if the deadline was cancelled
+	 */
+	static List<Double> decode(InputStream in, String name, Deadline deadline) throws IOException, TimeoutException {
+		ScanContext context = ScanContext.current();
+		DecoderEvent event = new DecoderEvent();
+		event.begin();
+
+		String outcome = "failed";
+		try (Deadline.Watch watch = deadline.watch(() -> closeQuietly(in));
+				FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new BufferedInputStream(in), SEEK_BUFFER)) {
+			deadline.check("Decoding " + name);
+			grabber.setSampleRate(SAMPLE_RATE);
+			grabber.setSampleMode(FrameGrabber.SampleMode.FLOAT);
+
+			MomentaryLoudness meter = null;
+			try {
+				grabber.start();
+				if (grabber.getAudioChannels() > 0) {
+					Frame frame;
+					while (!watch.isFired() && (frame = grabber.grabSamples()) != null) {
+						if (frame.samples == null)
+							continue;
+						if (meter == null)
+							meter = new MomentaryLoudness(frame.sampleRate, frame.audioChannels);
+						meter.accept(planes(frame.samples));
+					}
+				}
+			} catch (FrameGrabber.Exception e) {
+				if (!watch.isFired()) {
+					outcome = "decoder error";
+					throw new DecoderException("Failed to decode " + name + ": " + e.getMessage(), -1);
+				}
+			}
+
+			if (watch.isFired()) {
+				if (deadline.isCancelled()) {
+					outcome = "cancelled";
+					throw deadline.cancellation("Decoding " + name);
+				}
+				outcome = "timeout";
+				throw deadline.timeout("Decoding " + name);
+			}
+			outcome = "ok";
+			return meter == null ? List.of() : meter.getValues();
+		} finally {
+			closeQuietly(in);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.setContext(context);
+				event.setCommand(COMMAND);
+				event.setOutcome(outcome);
+				event.commit();
+			}
+		}
+	}
+
+	private static FloatBuffer[] planes(Buffer[] samples) {
+		FloatBuffer[] planes = new FloatBuffer[samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			if (!(samples[i] instanceof FloatBuffer plane))
+				throw new IllegalStateException("Expected float samples but got " + samples[i]);
+			planes[i] = plane;
+		}
+		return planes;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {}
+	}
+}
@@ -0,0 +1,71 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.Processes;
+
+/**
+ * Moves the moov atom to the front with QuickTime-FastStart before piping the
+ * video into FFMPEG, so videos that can not be streamed are decoded as well.
+ */
+public class QTFSBackend implements DecoderBackend {
+	private final Executor executor;
+
+	private final Path ffmpeg;
+	private final Path quickTimeBinaryPath;
+
+	/**
+	 * @param ffmpeg   - path to FFMPEG
+	 * @param qtfs     - path to QuickTime-FastStart
+	 * @param executor - executor used to pump downloads into the process
+	 *                 pipeline. Owned by the caller
+	 */
+	public QTFSBackend(Path ffmpeg, Path qtfs, Executor executor) {
+		this.executor = Objects.requireNonNull(executor);
+		this.ffmpeg = Objects.requireNonNull(ffmpeg);
+		this.quickTimeBinaryPath = Objects.requireNonNull(qtfs);
+	}
+
+	@Override
+	public List<Double> decode(InputStream in, String name, Deadline deadline) {
+		try (in) {
+			List<ProcessBuilder> pipes = Arrays.asList(
+					new ProcessBuilder(this.quickTimeBinaryPath.toString(), "-q").redirectOutput(Redirect.PIPE),
+					new ProcessBuilder(ffmpeg.toString(), "-hide_banner", "-nostats", "-i", "-", "-vn", "-af",
+							"ebur128" /* + "=scale=relative:target=-10" */, "-f", "null", "-")
+							.redirectInput(Redirect.PIPE));
+
+			return DecoderPipeline.run(pipes, in, name, deadline, executor, Ebur128::parse);
+		} catch (Exception e) {
+			throw new CompletionException("Error while processing attachment: " + name, e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "qtfs";
+	}
+
+	@Override
+	public void probe(Set<String> filters) throws IOException {
+		if (!filters.contains("ebur128"))
+			throw new IOException("FFMPEG does not support the ebur128 filter");
+		String version = Processes.output(Duration.ofSeconds(10), quickTimeBinaryPath.toString(), "-v").trim();
+		if (version.isBlank())
+			throw new IOException("Unable to get QuickTime-FastStart version from " + quickTimeBinaryPath);
+	}
+
+	@Override
+	public void close() {}
+}
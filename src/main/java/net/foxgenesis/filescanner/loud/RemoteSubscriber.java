@@ -0,0 +1,57 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+
+import net.foxgenesis.filescanner.util.AttachmentInfo;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.worker.JobType;
+import net.foxgenesis.filescanner.worker.RemoteScanDispatcher;
+import net.foxgenesis.filescanner.worker.ScanResult;
+import net.foxgenesis.watame.util.discord.AttachmentData;
+
+/**
+ * {@link LoudScanner} that runs scans on remote
+ * {@link net.foxgenesis.filescanner.worker.ScanWorker ScanWorkers}, falling
+ * back to a local {@link LoudnessDecoder} when no worker is available.
+ */
+public class RemoteSubscriber extends DecoderSubscriber {
+
+	private final RemoteScanDispatcher dispatcher;
+
+	/**
+	 * @param dispatcher - dispatches scans to the workers
+	 * @param local      - measures attachments no worker could scan
+	 * @param moderation - acts on loud verdicts
+	 */
+	public RemoteSubscriber(RemoteScanDispatcher dispatcher, LoudnessDecoder local, ModerationBatcher moderation) {
+		super(local, moderation);
+		this.dispatcher = Objects.requireNonNull(dispatcher);
+	}
+
+	@Override
+	protected List<Double> processAttachment(ScannerData scannerData, AttachmentData data, Deadline deadline) {
+		AttachmentInfo info = AttachmentInfo.of(scannerData.message(), data);
+
+		if (info.url() != null && dispatcher.hasAvailableWorker()) {
+			try {
+				ScanResult result = dispatcher.dispatch(JobType.LOUDNESS, info.url(), data.getFileName(),
+						scannerData.config(), deadline);
+				if (result.success())
+					return result.lu();
+				logger.warn("Remote scan of {} failed: {}", data.getFileName(), result.error());
+			} catch (IOException e) {
+				logger.warn("Remote scan of {} failed", data.getFileName(), e);
+			}
+
+			// Scan locally unless the scan ran out of time
+			if (deadline.isCancelled())
+				throw new CompletionException(deadline.cancellation("Remote scan of " + data.getFileName()));
+			if (deadline.isExpired())
+				throw new CompletionException(deadline.timeout("Remote scan of " + data.getFileName()));
+		}
+		return super.processAttachment(scannerData, data, deadline);
+	}
+}
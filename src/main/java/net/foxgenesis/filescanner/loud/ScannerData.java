@@ -5,8 +5,10 @@ import java.util.List;
 
 import net.dv8tion.jda.api.components.container.Container;
 import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.Message.Attachment;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.util.ScanCancellation.Ticket;
 import net.foxgenesis.watame.util.StringUtils;
 import net.foxgenesis.watame.util.discord.AttachmentData;
 import net.foxgenesis.watame.util.discord.Colors;
@@ -16,7 +18,14 @@ import net.foxgenesis.watame.util.lang.LocalizedContainerBuilder;
 import net.foxgenesis.watame.util.lang.LocalizedEmbedBuilder;
 import net.foxgenesis.watame.util.lang.LocalizedSectionBuilder;
 
-public record ScannerData(Message message, FileScannerConfiguration config, DiscordLocaleMessageSource messages) {
+public record ScannerData(Message message, FileScannerConfiguration config, DiscordLocaleMessageSource messages,
+		Ticket ticket) {
+	/**
+	 * Size assumed for linked videos since their size is unknown
+	 */
+	static final long UNKNOWN_SIZE = 8 * 1_048_576;
+
+	static final String THUMBNAIL = "https://www.kindpng.com/picc/m/275-2754352_sony-mdrv6-anime-hd-png-download.png";
 
 	/**
 	 * Get all attachments from a {@link Message}.
@@ -33,6 +42,23 @@ public record ScannerData(Message message, FileScannerConfiguration config, Disc
 		return attachments;
 	}
 	
+	/**
+	 * Estimate the amount of data that must be scanned using the attachment sizes
+	 * reported by Discord.
+	 * 
+	 * @return Returns the estimated size of all videos in bytes
+	 */
+	public long estimateSize() {
+		long size = 0;
+		int known = 0;
+		for (Attachment attachment : message.getAttachments())
+			if (attachment.isVideo()) {
+				size += attachment.getSize();
+				known++;
+			}
+		return size + Math.max(0, getAttachments().size() - known) * UNKNOWN_SIZE;
+	}
+
 	/**
 	 * Construct a {@link MessageEmbed} declaring that a video was loud.
 	 * @param threshold 
@@ -44,7 +70,7 @@ public record ScannerData(Message message, FileScannerConfiguration config, Disc
 	public MessageEmbed getLoudVideoEmbed(double loudness, double max, short threshold) {
 		LocalizedEmbedBuilder builder = new LocalizedEmbedBuilder(messages, messages.getLocaleForGuild(message.getGuild()));
 		builder.setColor(Colors.ERROR);
-		builder.setThumbnail("https://www.kindpng.com/picc/m/275-2754352_sony-mdrv6-anime-hd-png-download.png");
+		builder.setThumbnail(THUMBNAIL);
 
 		builder.setLocalizedTitle("filescanner.embed.title");
 		builder.appendLocalizedDescription("filescanner.embed.description",
@@ -60,7 +86,7 @@ public record ScannerData(Message message, FileScannerConfiguration config, Disc
 		builder.setColor(Colors.ERROR);
 		
 		LocalizedSectionBuilder sb = builder.getNewLocalizedSectionBuilder();
-		sb.setThumbnailUrl("https://www.kindpng.com/picc/m/275-2754352_sony-mdrv6-anime-hd-png-download.png");
+		sb.setThumbnailUrl(THUMBNAIL);
 		sb.addLocalizedFormattedTextDisplay("## %s", Localized.resolved("filescanner.embed.title"));
 		sb.addLocalizedTextDisplay("filescanner.embed.description", message.getAuthor().getAsMention());
 		sb.addLocalizedFormattedTextDisplay("-# %s", Localized.resolved("filescanner.embed.footer", loudness, max, threshold));
@@ -0,0 +1,251 @@
+package net.foxgenesis.filescanner.loud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.filescanner.Config.DecoderSettings;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.Processes;
+import net.foxgenesis.filescanner.util.ScanExecutors;
+
+/**
+ * Measures long videos that are on disk in time segments, each with its own
+ * FFMPEG process, and stitches the LU values back together.
+ * <p>
+ * Every segment but the first starts {@link DecoderSettings#getSegmentOverlap()
+ * overlap} early. The momentary window of those first values is still filling
+ * up with audio from before the segment, so they are dropped and the window is
+ * full again once the segment proper starts. The stitched series has the same
+ * 100ms steps as a single decode, so strike chunks that cross a segment
+ * boundary are counted as one.
+ * <p>
+ * Once a segment fails the others are cancelled, so their processes are gone
+ * before the video is decoded in one piece.
+ */
+public class SegmentedDecoder implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedDecoder.class);
+
+	/**
+	 * How long reading the duration of a video may take
+	 */
+	private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+
+	/**
+	 * Shortest overlap that refills the 400ms momentary window
+	 */
+	private static final Duration MIN_OVERLAP = Duration.ofMillis(400);
+
+	private static final Pattern DURATION = Pattern.compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+
+	private final Path ffmpeg;
+	private final int segments;
+	private final Duration minDuration;
+	private final Duration overlap;
+	private final ExecutorService executor;
+
+	/**
+	 * @param ffmpeg      - path to FFMPEG
+	 * @param segments    - number of segments a long video is split into
+	 * @param minDuration - shortest video that is split
+	 * @param overlap     - time every segment but the first starts early
+	 * @param executor    - executor that runs the segments and pumps into FFMPEG.
+	 *                    Shutdown when this decoder is closed
+	 */
+	public SegmentedDecoder(Path ffmpeg, int segments, Duration minDuration, Duration overlap,
+			ExecutorService executor) {
+		this.ffmpeg = Objects.requireNonNull(ffmpeg);
+		if (segments < 2)
+			throw new IllegalArgumentException("At least two segments are required");
+		this.segments = segments;
+		this.minDuration = Objects.requireNonNull(minDuration);
+		// Whole 100ms steps so the dropped values line up with the segment start
+		long steps = (Math.max(overlap.toMillis(), MIN_OVERLAP.toMillis()) + 99) / 100;
+		this.overlap = Duration.ofMillis(steps * 100);
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	/**
+	 * Create the segmented decoder selected by {@link Config#getDecoder()}.
+	 *
+	 * @param config   - scanner configuration
+	 * @param decoders - probed decoder backends
+	 *
+	 * @return Returns the decoder or {@code null} if segments are disabled or
+	 *         FFMPEG does not support the {@code ebur128} filter
+	 */
+	@Nullable
+	public static SegmentedDecoder create(Config config, DecoderBackends decoders) {
+		DecoderSettings settings = config.getDecoder();
+		if (settings.getSegments() < 2)
+			return null;
+		if (!decoders.hasFilter("ebur128")) {
+			logger.warn("FFMPEG does not support the ebur128 filter. Long videos are not split into segments");
+			return null;
+		}
+		return new SegmentedDecoder(config.getFfmpegPath(), settings.getSegments(),
+				settings.getSegmentMinDuration(), settings.getSegmentOverlap(),
+				ScanExecutors.io(config, "Video Segments"));
+	}
+
+	/**
+	 * Measure a video in parallel segments if it is long enough.
+	 *
+	 * @param file     - video on disk
+	 * @param name     - name of the video used in errors
+	 * @param deadline - deadline of the scan
+	 * @param parser   - parser of the {@code ebur128} output
+	 *
+	 * @return Returns the stitched momentary LU values in 100ms steps or
+	 *         {@code null} if the video is too short or its duration is unknown
+	 *
+	 * @throws DecoderException Thrown if a segment failed
+	 * @throws IOException      Thrown if the video could not be read
+	 * @throws TimeoutException Thrown if the deadline passed
+	 */
+	@Nullable
+	public List<Double> decode(Path file, String name, Deadline deadline,
+			Function<Stream<String>, List<Double>> parser) throws IOException, TimeoutException {
+		Duration duration = getDuration(file, deadline);
+		if (duration == null || duration.compareTo(minDuration) < 0)
+			return null;
+
+		// Segments start on 100ms steps so their values line up
+		long steps = duration.toMillis() / 100;
+		long length = (steps + segments - 1) / segments;
+		int drop = (int) (overlap.toMillis() / 100);
+		logger.debug("Splitting {} ({}) into {} segments", name, duration, segments);
+
+		ScanContext context = ScanContext.current();
+		// Cancelled once a segment fails to stop the others
+		Deadline siblings = deadline.child();
+		List<CompletableFuture<List<Double>>> futures = new ArrayList<>(segments);
+		for (int i = 0; i < segments; i++) {
+			long start = i * length;
+			if (start >= steps)
+				break;
+			boolean first = i == 0;
+			boolean last = i == segments - 1 || start + length >= steps;
+
+			List<String> command = new ArrayList<>(
+					List.of(ffmpeg.toString(), "-hide_banner", "-nostats", "-nostdin"));
+			if (!first)
+				command.addAll(List.of("-ss", seconds(start * 100 - overlap.toMillis())));
+			if (!last)
+				command.addAll(List.of("-t", seconds(length * 100 + (first ? 0 : overlap.toMillis()))));
+			command.addAll(List.of("-i", file.toString(), "-vn", "-af", "ebur128", "-f", "null", "-"));
+
+			ProcessBuilder p = new ProcessBuilder(command);
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try (ScanContext.Scope scope = context.open()) {
+					List<Double> lu = DecoderPipeline.run(List.of(p), InputStream.nullInputStream(), name, siblings,
+							executor, parser);
+					return first ? lu : lu.subList(Math.min(drop, lu.size()), lu.size());
+				} catch (IOException | TimeoutException e) {
+					throw new CompletionException(e);
+				}
+			}, executor).whenComplete((result, e) -> {
+				if (e != null)
+					siblings.cancel();
+			}));
+
+			if (last)
+				break;
+		}
+
+		List<Double> lu = new ArrayList<>();
+		try {
+			for (CompletableFuture<List<Double>> future : futures)
+				lu.addAll(future.get());
+		} catch (InterruptedException e) {
+			siblings.cancel();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decoding segments of " + name, e);
+		} catch (ExecutionException e) {
+			siblings.cancel();
+			Throwable cause = getFailure(futures, deadline);
+			if (cause == null)
+				cause = e.getCause();
+			if (cause instanceof IOException io)
+				throw io;
+			if (cause instanceof TimeoutException t)
+				throw t;
+			if (cause instanceof RuntimeException r)
+				throw r;
+			throw new CompletionException(cause);
+		}
+		return lu;
+	}
+
+	/**
+	 * Wait for all segments to end and find the failure of the first segment
+	 * that was not cancelled because another one failed.
+	 *
+	 * @return Returns the failure or {@code null} if none was found
+	 */
+	@Nullable
+	private static Throwable getFailure(List<CompletableFuture<List<Double>>> futures, Deadline deadline) {
+		Throwable failure = null;
+		for (CompletableFuture<List<Double>> future : futures) {
+			Throwable cause;
+			try {
+				future.join();
+				continue;
+			} catch (CompletionException | CancellationException e) {
+				cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			}
+			if (failure == null && (deadline.isCancelled() || !(cause instanceof CancellationException)))
+				failure = cause;
+		}
+		return failure;
+	}
+
+	/**
+	 * Read the duration of a video from the FFMPEG input summary.
+	 *
+	 * @return Returns the duration or {@code null} if it is unknown
+	 */
+	@Nullable
+	private Duration getDuration(Path file, Deadline deadline) throws IOException, TimeoutException {
+		deadline.check("Probing " + file.getFileName());
+		Duration timeout = Duration.ofMillis(Math.min(PROBE_TIMEOUT.toMillis(), deadline.remainingMillis()));
+		Matcher matcher = DURATION
+				.matcher(Processes.output(timeout, ffmpeg.toString(), "-hide_banner", "-nostdin", "-i", file.toString()));
+		if (!matcher.find())
+			return null;
+		return Duration.ofHours(Long.parseLong(matcher.group(1)))
+				.plusMinutes(Long.parseLong(matcher.group(2)))
+				.plusMillis(Math.round(Double.parseDouble(matcher.group(3)) * 1000));
+	}
+
+	private static String seconds(long millis) {
+		return String.format(Locale.ROOT, "%d.%03d", millis / 1000, millis % 1000);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,180 @@
+package net.foxgenesis.filescanner.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import net.foxgenesis.filescanner.Config.ScalingSettings;
+
+/**
+ * Concurrency limit of a {@link PriorityPublisher} that follows the load.
+ * <p>
+ * The publisher, system CPU load and number of decoder processes started by
+ * the pipeline are sampled at a fixed interval. The CPU load is that of the
+ * whole host since every pipeline competes for the same cores, while the
+ * processes are counted per pipeline so one pipeline's decoders do not shrink
+ * another. The limit grows while items wait longer than
+ * {@link ScalingSettings#getScaleUpWait() scaleUpWait} with every slot in use,
+ * and shrinks while the CPU or decoders are saturated or items wait less than
+ * {@link ScalingSettings#getScaleDownWait() scaleDownWait} with slots unused.
+ * The limit only moves by one after
+ * {@link ScalingSettings#getSamples() samples} consecutive samples agree, so
+ * short bursts do not cause it to flap.
+ */
+public class AdaptiveConcurrency implements IntSupplier, AdaptiveConcurrencyMBean, AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrency.class);
+
+	public static final String OBJECT_NAME = "net.foxgenesis.filescanner:type=AdaptiveConcurrency,name=";
+
+	private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(
+			Thread.ofPlatform().name("Scan Autoscaler").daemon().factory());
+
+	private final String name;
+	private final ScalingSettings settings;
+	private final PriorityPublisher<?> publisher;
+	private final LongSupplier running;
+	private final OperatingSystemMXBean os = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+	private final ScheduledFuture<?> future;
+
+	private volatile int limit;
+	private volatile long queueWait;
+	private volatile double cpuLoad = -1;
+	private volatile long processes;
+
+	/**
+	 * Consecutive samples in the same direction. Positive to grow and negative
+	 * to shrink
+	 */
+	private int streak;
+
+	private volatile ObjectName objectName;
+
+	/**
+	 * Create a limit starting at the minimum and start sampling.
+	 *
+	 * @param name      - name of the pipeline used in logs and JMX
+	 * @param settings  - scaling settings
+	 * @param publisher - publisher whose queue is sampled
+	 * @param running   - number of decoder processes the pipeline is running
+	 */
+	public AdaptiveConcurrency(String name, ScalingSettings settings, PriorityPublisher<?> publisher,
+			LongSupplier running) {
+		this.name = Objects.requireNonNull(name);
+		this.settings = Objects.requireNonNull(settings);
+		this.publisher = Objects.requireNonNull(publisher);
+		this.running = Objects.requireNonNull(running);
+		this.limit = settings.getMin();
+
+		long interval = settings.getInterval().toMillis();
+		this.future = SAMPLER.scheduleWithFixedDelay(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void sample() {
+		try {
+			long wait = publisher.pollMaxWait();
+			double cpu = os == null ? -1 : os.getCpuLoad();
+			long children = running.getAsLong();
+			queueWait = TimeUnit.NANOSECONDS.toMillis(wait);
+			cpuLoad = cpu;
+			processes = children;
+
+			int current = limit;
+			int direction;
+			if (cpu > settings.getMaxCpuLoad() || children > settings.getMaxProcesses())
+				direction = -1;
+			else if (wait > settings.getScaleUpWait().toNanos() && publisher.getRunning() >= current)
+				direction = 1;
+			else if (wait < settings.getScaleDownWait().toNanos() && publisher.getRunning() < current)
+				direction = -1;
+			else
+				direction = 0;
+
+			streak = direction == 0 || Integer.signum(streak) != direction ? direction : streak + direction;
+			if (Math.abs(streak) < settings.getSamples())
+				return;
+			streak = 0;
+
+			int max = Math.max(settings.getMin(), settings.getMax());
+			int next = Math.max(settings.getMin(), Math.min(max, current + direction));
+			if (next != current) {
+				limit = next;
+				logger.info("{} concurrency {} -> {} (wait: {}ms, cpu: {}, processes: {})", name, current, next,
+						queueWait, "%.2f".formatted(cpu), children);
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to sample load of {}", name, e);
+		}
+	}
+
+	@Override
+	public int getAsInt() {
+		return limit;
+	}
+
+	@Override
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public int getRunning() {
+		return publisher.getRunning();
+	}
+
+	@Override
+	public long getQueueWait() {
+		return queueWait;
+	}
+
+	@Override
+	public double getCpuLoad() {
+		return cpuLoad;
+	}
+
+	@Override
+	public long getProcesses() {
+		return processes;
+	}
+
+	/**
+	 * Register this instance with the platform MBean server under
+	 * {@link #OBJECT_NAME} followed by the pipeline name.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName objectName = new ObjectName(OBJECT_NAME + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			logger.warn("Failed to register autoscaler MBean of {}", name, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		future.cancel(false);
+		ObjectName objectName = this.objectName;
+		this.objectName = null;
+		if (objectName != null)
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {}
+	}
+}
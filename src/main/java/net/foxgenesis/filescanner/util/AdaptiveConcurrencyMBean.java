@@ -0,0 +1,44 @@
+package net.foxgenesis.filescanner.util;
+
+/**
+ * Management interface of {@link AdaptiveConcurrency}.
+ */
+public interface AdaptiveConcurrencyMBean {
+
+	/**
+	 * Get the number of items that may currently be scanned at once.
+	 * 
+	 * @return Returns the current limit
+	 */
+	int getLimit();
+
+	/**
+	 * Get the number of items being scanned.
+	 * 
+	 * @return Returns the number of running scans
+	 */
+	int getRunning();
+
+	/**
+	 * Get the longest queue wait of the last sample.
+	 * 
+	 * @return Returns the wait in milliseconds
+	 */
+	long getQueueWait();
+
+	/**
+	 * Get the system CPU load of the last sample.
+	 * 
+	 * @return Returns the load between {@code 0} and {@code 1} or a negative
+	 *         value if unavailable
+	 */
+	double getCpuLoad();
+
+	/**
+	 * Get the number of decoder processes the pipeline was running at the last
+	 * sample.
+	 * 
+	 * @return Returns the number of decoder processes
+	 */
+	long getProcesses();
+}
@@ -0,0 +1,471 @@
+package net.foxgenesis.filescanner.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.foxgenesis.filescanner.Config.FetchSettings;
+import net.foxgenesis.watame.util.discord.AttachmentData;
+
+/**
+ * Downloads attachments through a single pooled {@link HttpClient} so
+ * connections to the CDN are reused (and multiplexed over HTTP/2) between
+ * scans.
+ * <p>
+ * Linked files, whose size and type Discord does not report, are checked with
+ * a {@code HEAD} request (or a single byte range request when {@code HEAD} is
+ * not allowed) before being downloaded. Linked files over the size limit of
+ * their {@link Kind} or files with a content type that does not match are
+ * rejected with an {@link AttachmentRejectedException}, as are downloads that
+ * exceed the limit despite their headers. Uploaded attachments are already
+ * bounded by the Discord upload limit and may be as large as Discord reports.
+ * <p>
+ * Images larger than {@link FetchSettings#getMaxImageDimension()} are fetched
+ * from the Discord media proxy scaled down to fit, since detection does not
+ * need more detail. The original is downloaded if the proxy fails.
+ */
+public class AttachmentFetcher implements AttachmentFetcherMBean, AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(AttachmentFetcher.class);
+
+	public static final String OBJECT_NAME = "net.foxgenesis.filescanner:type=AttachmentFetcher";
+
+	/**
+	 * Content types sent by servers that do not know the type of a file
+	 */
+	private static final List<String> UNKNOWN_TYPES = List.of("application/octet-stream", "binary/octet-stream");
+
+	private final HttpClient client;
+	private final ExecutorService executor;
+	private final FetchSettings settings;
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder preflights = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder variants = new LongAdder();
+	private final LongAdder variantFallbacks = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private volatile ObjectName objectName;
+
+	/**
+	 * @param settings - fetch settings
+	 * @param executor - executor used by the HTTP client. Shutdown when this
+	 *                 fetcher is closed
+	 */
+	public AttachmentFetcher(FetchSettings settings, ExecutorService executor) {
+		this.settings = Objects.requireNonNull(settings);
+		this.executor = Objects.requireNonNull(executor);
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).followRedirects(Redirect.NORMAL)
+				.connectTimeout(settings.getConnectTimeout()).executor(executor).build();
+	}
+
+	/**
+	 * Open an attachment of a message. Attachments without a known URL are
+	 * opened with {@link AttachmentData#openConnection()}.
+	 *
+	 * @param message  - message the attachment belongs to
+	 * @param data     - attachment to download
+	 * @param kind     - expected kind of file
+	 * @param deadline - deadline of the scan. Bounds the wait for response
+	 *                 headers
+	 *
+	 * @return Returns the attachment contents
+	 *
+	 * @throws AttachmentRejectedException Thrown if the attachment is too large
+	 *                                     or not of the expected kind
+	 * @throws IOException                 Thrown if the request failed
+	 */
+	public InputStream open(Message message, AttachmentData data, Kind kind, Deadline deadline) throws IOException {
+		AttachmentInfo info = AttachmentInfo.of(message, data);
+		return toURI(info.url()) == null ? data.openConnection() : open(info, kind, deadline);
+	}
+
+	/**
+	 * Open an attachment by its metadata.
+	 *
+	 * @param info     - attachment to download. Must have an HTTP(S) URL
+	 * @param kind     - expected kind of file
+	 * @param deadline - deadline of the scan. Bounds the wait for response
+	 *                 headers
+	 *
+	 * @return Returns the attachment contents or a scaled down variant of an
+	 *         image
+	 *
+	 * @throws AttachmentRejectedException Thrown if the attachment is too large
+	 *                                     or not of the expected kind
+	 * @throws IOException                 Thrown if the request failed
+	 */
+	public InputStream open(AttachmentInfo info, Kind kind, Deadline deadline) throws IOException {
+		URI uri = toURI(info.url());
+		if (uri == null)
+			throw new IllegalArgumentException("Attachment " + info.fileName() + " has no HTTP URL");
+
+		long limit = getLimit(info, kind);
+		URI variant = kind == Kind.IMAGE ? getVariant(info) : null;
+		if (variant != null)
+			try {
+				variants.increment();
+				return get(variant, info.fileName(), limit, kind, deadline);
+			} catch (AttachmentRejectedException e) {
+				throw e;
+			} catch (IOException e) {
+				variantFallbacks.increment();
+				logger.debug("Failed to fetch scaled down {}. Downloading original", info.fileName(), e);
+			}
+
+		if (info.isSizeKnown() && info.size() > limit)
+			throw reject(info.fileName() + " is " + info.size() + " bytes. Limit is " + limit);
+
+		if (!info.isSizeKnown() && settings.isPreflight())
+			preflight(uri, info.fileName(), kind, limit, deadline);
+		return get(uri, info.fileName(), limit, null, deadline);
+	}
+
+	/**
+	 * Get the largest download allowed for an attachment. Uploaded attachments
+	 * may be as large as their reported size since Discord already limits the
+	 * size of uploads.
+	 */
+	private long getLimit(AttachmentInfo info, Kind kind) {
+		long limit = kind.getLimit(settings).toBytes();
+		return info.proxyUrl() != null && info.isSizeKnown() ? Math.max(limit, info.size()) : limit;
+	}
+
+	/**
+	 * Check if a URL can be opened by this fetcher.
+	 *
+	 * @param url - URL to check
+	 *
+	 * @return Returns {@code true} if {@code url} is an HTTP(S) URL
+	 */
+	public static boolean isFetchable(@Nullable String url) {
+		return toURI(url) != null;
+	}
+
+	/**
+	 * Get the media proxy URL of an image scaled down to fit within
+	 * {@link FetchSettings#getMaxImageDimension()}.
+	 *
+	 * @return Returns the variant URL or {@code null} if the image has no proxy
+	 *         URL, its dimensions are unknown or it already fits
+	 */
+	@Nullable
+	private URI getVariant(AttachmentInfo info) {
+		int max = settings.getMaxImageDimension();
+		URI proxy = toURI(info.proxyUrl());
+		if (max <= 0 || proxy == null || info.width() <= 0 || info.height() <= 0
+				|| Math.max(info.width(), info.height()) <= max)
+			return null;
+
+		double scale = max / (double) Math.max(info.width(), info.height());
+		int width = Math.max(1, (int) Math.round(info.width() * scale));
+		int height = Math.max(1, (int) Math.round(info.height() * scale));
+
+		StringBuilder url = new StringBuilder(info.proxyUrl()).append(proxy.getRawQuery() == null ? '?' : '&')
+				.append("width=").append(width).append("&height=").append(height);
+		if (settings.getImageFormat() != null && !settings.getImageFormat().isBlank())
+			url.append("&format=").append(URLEncoder.encode(settings.getImageFormat().trim(), StandardCharsets.UTF_8));
+		return toURI(url.toString());
+	}
+
+	private void preflight(URI uri, String name, Kind kind, long limit, Deadline deadline) throws IOException {
+		preflights.increment();
+		HttpResponse<Void> response = send(request(uri, deadline).method("HEAD", HttpRequest.BodyPublishers.noBody())
+				.build(), BodyHandlers.discarding());
+
+		OptionalLong length;
+		if (response.statusCode() == 405 || response.statusCode() == 501) {
+			// HEAD not allowed. Ask for a single byte and read the total length
+			response = send(request(uri, deadline).header("Range", "bytes=0-0").GET().build(),
+					BodyHandlers.discarding());
+			length = getRangeLength(response.headers());
+		} else
+			length = response.headers().firstValueAsLong("Content-Length");
+
+		if (response.statusCode() >= 400) {
+			failures.increment();
+			throw new IOException("Preflight of " + name + " returned " + response.statusCode());
+		}
+
+		Optional<String> type = response.headers().firstValue("Content-Type");
+		if (type.isPresent() && !kind.accepts(type.get()))
+			throw reject(name + " is " + type.get() + " instead of " + kind.types.get(0) + "*");
+		if (length.isPresent() && length.getAsLong() > limit)
+			throw reject(name + " is " + length.getAsLong() + " bytes. Limit is " + limit);
+	}
+
+	/**
+	 * Start a download.
+	 *
+	 * @param expected - kind the response must have or {@code null} to accept
+	 *                 any content type. A mismatch fails with an
+	 *                 {@link IOException} instead of a rejection
+	 */
+	private InputStream get(URI uri, String name, long limit, @Nullable Kind expected, Deadline deadline)
+			throws IOException {
+		requests.increment();
+		long start = System.nanoTime();
+		HttpResponse<InputStream> response = send(request(uri, deadline).GET().build(), BodyHandlers.ofInputStream());
+
+		if (response.statusCode() >= 400) {
+			response.body().close();
+			failures.increment();
+			throw new IOException("Download of " + name + " returned " + response.statusCode());
+		}
+
+		Optional<String> type = response.headers().firstValue("Content-Type");
+		if (expected != null && type.isPresent() && !expected.accepts(type.get())) {
+			response.body().close();
+			failures.increment();
+			throw new IOException("Download of " + name + " returned " + type.get());
+		}
+
+		OptionalLong length = response.headers().firstValueAsLong("Content-Length");
+		if (length.isPresent() && length.getAsLong() > limit) {
+			response.body().close();
+			throw reject(name + " is " + length.getAsLong() + " bytes. Limit is " + limit);
+		}
+		return new MeteredInputStream(response.body(), name, limit, start);
+	}
+
+	private HttpRequest.Builder request(URI uri, Deadline deadline) {
+		int timeout = (int) settings.getResponseTimeout().toMillis();
+		return HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(deadline.isUnbounded() ? timeout : deadline.clamp(timeout)));
+	}
+
+	private <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler) throws IOException {
+		try {
+			return client.send(request, handler);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting " + request.uri());
+		} catch (IOException e) {
+			failures.increment();
+			throw e;
+		}
+	}
+
+	private AttachmentRejectedException reject(String reason) {
+		rejected.increment();
+		logger.debug("Rejected attachment: {}", reason);
+		return new AttachmentRejectedException(reason);
+	}
+
+	/**
+	 * Parse the total length from a {@code Content-Range: bytes 0-0/1234}
+	 * header.
+	 */
+	private static OptionalLong getRangeLength(HttpHeaders headers) {
+		Optional<String> range = headers.firstValue("Content-Range");
+		if (range.isEmpty())
+			return headers.firstValueAsLong("Content-Length");
+
+		int index = range.get().lastIndexOf('/');
+		try {
+			return index < 0 ? OptionalLong.empty()
+					: OptionalLong.of(Long.parseLong(range.get().substring(index + 1).trim()));
+		} catch (NumberFormatException e) {
+			// Total length is "*" when unknown
+			return OptionalLong.empty();
+		}
+	}
+
+	private static URI toURI(String url) {
+		if (url == null)
+			return null;
+		try {
+			URI uri = URI.create(url);
+			String scheme = uri.getScheme();
+			return "https".equalsIgnoreCase(scheme) || "http".equalsIgnoreCase(scheme) ? uri : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	@Override
+	public long getPreflights() {
+		return preflights.sum();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public long getVariants() {
+		return variants.sum();
+	}
+
+	@Override
+	public long getVariantFallbacks() {
+		return variantFallbacks.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getThroughput() {
+		long time = nanos.sum();
+		return time == 0 ? 0 : bytes.sum() / 1_048_576D / (time / 1_000_000_000D);
+	}
+
+	/**
+	 * Register this instance with the platform MBean server under
+	 * {@link #OBJECT_NAME}.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			logger.warn("Failed to register fetcher MBean", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true))
+			return;
+
+		ObjectName name = objectName;
+		if (name != null)
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {}
+		client.shutdownNow();
+		executor.shutdown();
+	}
+
+	public enum Kind {
+		/**
+		 * Videos. Audio files and containers served with an application type are
+		 * also scanned for loudness
+		 */
+		VIDEO("video/", "audio/", "application/mp4", "application/ogg", "application/x-matroska",
+				"application/vnd.apple.mpegurl", "application/x-mpegurl"),
+		IMAGE("image/");
+
+		/**
+		 * Prefixes of the accepted content types, the main one first
+		 */
+		private final List<String> types;
+
+		Kind(String... types) {
+			this.types = List.of(types);
+		}
+
+		DataSize getLimit(FetchSettings settings) {
+			return this == VIDEO ? settings.getMaxVideoSize() : settings.getMaxImageSize();
+		}
+
+		boolean accepts(String contentType) {
+			String type = contentType.trim().toLowerCase(Locale.ROOT);
+			return types.stream().anyMatch(type::startsWith) || UNKNOWN_TYPES.stream().anyMatch(type::startsWith);
+		}
+	}
+
+	/**
+	 * Counts downloaded bytes, stops downloads that exceed their limit and
+	 * records the time taken once closed.
+	 */
+	private class MeteredInputStream extends FilterInputStream {
+		private final String name;
+		private final long limit;
+		private final long start;
+
+		private long read;
+		private boolean done;
+
+		MeteredInputStream(InputStream in, String name, long limit, long start) {
+			super(in);
+			this.name = name;
+			this.limit = limit;
+			this.start = start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count(n);
+			return n;
+		}
+
+		private void count(int n) throws IOException {
+			read += n;
+			if (read > limit)
+				throw reject(name + " exceeded " + limit + " bytes while downloading");
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!done) {
+				done = true;
+				bytes.add(read);
+				nanos.add(System.nanoTime() - start);
+			}
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package net.foxgenesis.filescanner.util;
+
+/**
+ * Management interface of {@link AttachmentFetcher}.
+ */
+public interface AttachmentFetcherMBean {
+
+	/**
+	 * @return Returns the number of downloads started
+	 */
+	long getRequests();
+
+	/**
+	 * @return Returns the number of HEAD or range preflights sent
+	 */
+	long getPreflights();
+
+	/**
+	 * @return Returns the number of attachments rejected by type or size
+	 */
+	long getRejected();
+
+	/**
+	 * @return Returns the number of scaled down images requested from the media
+	 *         proxy
+	 */
+	long getVariants();
+
+	/**
+	 * @return Returns the number of scaled down images that failed and were
+	 *         downloaded in full instead
+	 */
+	long getVariantFallbacks();
+
+	/**
+	 * @return Returns the number of failed requests
+	 */
+	long getFailures();
+
+	/**
+	 * @return Returns the total number of bytes downloaded
+	 */
+	long getBytes();
+
+	/**
+	 * @return Returns the average download throughput in megabytes per second
+	 */
+	double getThroughput();
+}
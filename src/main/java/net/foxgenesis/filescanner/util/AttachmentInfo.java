@@ -0,0 +1,56 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.lang.Nullable;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.Message.Attachment;
+import net.foxgenesis.watame.util.StringUtils;
+import net.foxgenesis.watame.util.discord.AttachmentData;
+
+/**
+ * Discord metadata of an {@link AttachmentData}.
+ * 
+ * @param fileName - name of the file
+ * @param url      - source URL or {@code null} if unknown
+ * @param proxyUrl - media proxy URL or {@code null} if not an attachment
+ * @param size     - size in bytes or {@code -1} if unknown
+ * @param width    - image width or {@code -1} if unknown
+ * @param height   - image height or {@code -1} if unknown
+ */
+public record AttachmentInfo(String fileName, @Nullable String url, @Nullable String proxyUrl, long size, int width,
+		int height) {
+
+	/**
+	 * Find the metadata of an attachment in the message it came from. Uploaded
+	 * attachments are matched by file name and linked files by the end of their
+	 * URL path.
+	 * 
+	 * @param message - message the attachment belongs to
+	 * @param data    - attachment to find
+	 * 
+	 * @return Returns the {@link AttachmentInfo} of the attachment
+	 */
+	public static AttachmentInfo of(Message message, AttachmentData data) {
+		String name = data.getFileName();
+		for (Attachment attachment : message.getAttachments())
+			if (attachment.getFileName().equals(name))
+				return new AttachmentInfo(name, attachment.getUrl(), attachment.getProxyUrl(), attachment.getSize(),
+						attachment.getWidth(), attachment.getHeight());
+
+		List<String> urls = new ArrayList<>();
+		StringUtils.findURLs(message.getContentRaw()).forEach(url -> urls.add(String.valueOf(url)));
+		for (String url : urls) {
+			int query = url.indexOf('?');
+			if ((query < 0 ? url : url.substring(0, query)).endsWith("/" + name))
+				return new AttachmentInfo(name, url, null, -1, -1, -1);
+		}
+		return new AttachmentInfo(name, null, null, -1, -1, -1);
+	}
+
+	public boolean isSizeKnown() {
+		return size >= 0;
+	}
+}
@@ -0,0 +1,29 @@
+package net.foxgenesis.filescanner.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an attachment is not downloaded (or the download is stopped)
+ * because its type or size is not allowed.
+ */
+public class AttachmentRejectedException extends IOException {
+	private static final long serialVersionUID = -3583926430183427514L;
+
+	public AttachmentRejectedException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Find a rejection in the cause chain of an exception.
+	 * 
+	 * @param t - exception to check
+	 * 
+	 * @return Returns the {@link AttachmentRejectedException} or {@code null}
+	 */
+	public static AttachmentRejectedException find(Throwable t) {
+		for (Throwable cause = t; cause != null; cause = cause.getCause())
+			if (cause instanceof AttachmentRejectedException e)
+				return e;
+		return null;
+	}
+}
@@ -0,0 +1,248 @@
+package net.foxgenesis.filescanner.util;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Point in time by which a scan must finish. A single deadline is created per
+ * attachment and passed through every stage (download, transform, decode and
+ * parse) so that each stage only gets the time that is left.
+ * <p>
+ * Stages that block on something that cannot be interrupted (sockets, pipes
+ * and child processes) register a {@link #watch(Runnable) watch} that is run
+ * by a shared watchdog once the deadline passes or the deadline is
+ * {@link #cancel() cancelled}.
+ * <p>
+ * A {@link #child() child} deadline expires along with its parent but can also
+ * be cancelled on its own, such as to stop parallel work once part of it has
+ * failed.
+ */
+public final class Deadline {
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+			Thread.ofPlatform().name("Scan Watchdog").daemon().factory());
+
+	private static final Deadline NONE = new Deadline(Duration.ZERO, Long.MAX_VALUE, null);
+
+	private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+	private final Duration timeout;
+	private final long expiresAt;
+
+	@Nullable
+	private final Deadline parent;
+
+	private volatile boolean cancelled;
+
+	private Deadline(Duration timeout, long expiresAt, @Nullable Deadline parent) {
+		this.timeout = timeout;
+		this.expiresAt = expiresAt;
+		this.parent = parent;
+	}
+
+	/**
+	 * Create a deadline that expires after the specified timeout.
+	 * 
+	 * @param timeout - time from now until the deadline
+	 * 
+	 * @return Returns the new {@link Deadline}
+	 */
+	public static Deadline after(Duration timeout) {
+		Objects.requireNonNull(timeout);
+		return new Deadline(timeout, System.nanoTime() + timeout.toNanos(), null);
+	}
+
+	/**
+	 * Create a deadline that expires and is cancelled along with this one, but
+	 * can also be cancelled on its own. Children of {@link #none()} have no time
+	 * limit either.
+	 * 
+	 * @return Returns the new {@link Deadline}
+	 */
+	public Deadline child() {
+		return new Deadline(timeout, expiresAt, this);
+	}
+
+	/**
+	 * Get a deadline that never expires.
+	 * 
+	 * @return Returns a {@link Deadline} without a time limit
+	 */
+	public static Deadline none() {
+		return NONE;
+	}
+
+	public boolean isUnbounded() {
+		return expiresAt == NONE.expiresAt;
+	}
+
+	public boolean isExpired() {
+		return isCancelled() || !isUnbounded() && System.nanoTime() - expiresAt >= 0;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || parent != null && parent.isCancelled();
+	}
+
+	/**
+	 * Expire this deadline immediately and run all active watches.
+	 * 
+	 * @throws UnsupportedOperationException Thrown if this deadline is
+	 *                                       {@link #none()}
+	 */
+	public void cancel() {
+		if (this == NONE)
+			throw new UnsupportedOperationException("Unbounded deadlines can not be cancelled");
+		cancelled = true;
+		watches.forEach(Watch::fire);
+	}
+
+	/**
+	 * Get the time left until this deadline expires.
+	 * 
+	 * @return Returns the remaining time in milliseconds. {@link Long#MAX_VALUE}
+	 *         if unbounded or {@code 0} if expired
+	 */
+	public long remainingMillis() {
+		if (isCancelled())
+			return 0;
+		if (isUnbounded())
+			return Long.MAX_VALUE;
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+	}
+
+	/**
+	 * Clamp a timeout to the time left until this deadline expires.
+	 * 
+	 * @param timeout - timeout in milliseconds
+	 * 
+	 * @return Returns the smaller of {@code timeout} and the remaining time, but
+	 *         at least {@code 1} so it can be used as a socket timeout
+	 */
+	public int clamp(int timeout) {
+		return (int) Math.max(1, Math.min(timeout, remainingMillis()));
+	}
+
+	/**
+	 * Fail if this deadline has expired.
+	 * 
+	 * @param stage - name of the current stage used in the exception
+	 * 
+	 * @throws TimeoutException      Thrown if this deadline has expired
+	 * @throws CancellationException Thrown if this deadline was cancelled
+	 */
+	public void check(String stage) throws TimeoutException {
+		if (isCancelled())
+			throw cancellation(stage);
+		if (isExpired())
+			throw timeout(stage);
+	}
+
+	/**
+	 * Create the exception thrown when a stage exceeds this deadline.
+	 * 
+	 * @param stage - stage that timed out
+	 * 
+	 * @return Returns a new {@link TimeoutException}
+	 */
+	public TimeoutException timeout(String stage) {
+		return new TimeoutException(stage + " exceeded its deadline of " + timeout.toMillis() + "ms");
+	}
+
+	/**
+	 * Create the exception thrown when a stage is stopped because this deadline
+	 * was cancelled.
+	 * 
+	 * @param stage - stage that was stopped
+	 * 
+	 * @return Returns a new {@link CancellationException}
+	 */
+	public CancellationException cancellation(String stage) {
+		return new CancellationException(stage + " was cancelled");
+	}
+
+	/**
+	 * Run an action once this deadline expires unless the returned
+	 * {@link Watch} is closed first.
+	 * 
+	 * @param onExpired - action that cancels the watched work
+	 * 
+	 * @return Returns a {@link Watch} that must be closed once the work is done
+	 */
+	public Watch watch(Runnable onExpired) {
+		Objects.requireNonNull(onExpired);
+		if (this == NONE)
+			return new Watch(this, null);
+
+		Watch watch = new Watch(this, onExpired);
+		watches.add(watch);
+		// Children expire with their parent, so only the parent is scheduled
+		if (parent != null)
+			watch.parent = parent.watch(watch::fire);
+		else if (!isUnbounded())
+			watch.future = WATCHDOG.schedule(watch::fire, expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+		if (isCancelled())
+			watch.fire();
+		return watch;
+	}
+
+	@Override
+	public String toString() {
+		return isUnbounded() ? "Deadline[none]" : "Deadline[" + remainingMillis() + "ms left]";
+	}
+
+	public static final class Watch implements AutoCloseable {
+		private final AtomicBoolean done = new AtomicBoolean();
+		private final Deadline deadline;
+		private final Runnable onExpired;
+		private volatile ScheduledFuture<?> future;
+		private volatile Watch parent;
+		private volatile boolean fired;
+
+		private Watch(Deadline deadline, Runnable onExpired) {
+			this.deadline = deadline;
+			this.onExpired = onExpired;
+		}
+
+		private void fire() {
+			if (onExpired != null && done.compareAndSet(false, true)) {
+				fired = true;
+				onExpired.run();
+			}
+		}
+
+		/**
+		 * Check if the deadline expired before this watch was closed.
+		 * 
+		 * @return Returns {@code true} if the expiry action was run
+		 */
+		public boolean isFired() {
+			return fired;
+		}
+
+		/**
+		 * Stop watching. The expiry action will not run after this returns unless
+		 * it is already running.
+		 */
+		@Override
+		public void close() {
+			done.set(true);
+			deadline.watches.remove(this);
+			ScheduledFuture<?> f = future;
+			if (f != null)
+				f.cancel(false);
+			Watch p = parent;
+			if (p != null)
+				p.close();
+		}
+	}
+}
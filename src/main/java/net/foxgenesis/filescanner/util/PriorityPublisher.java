@@ -0,0 +1,341 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+import net.foxgenesis.filescanner.jfr.QueueWaitEvent;
+import net.foxgenesis.filescanner.jfr.ScanContext;
+
+/**
+ * A bounded {@link Publisher} for a single {@link Subscriber} that delivers the
+ * cheapest items first.
+ * <p>
+ * Each item is given a virtual deadline of its submission time plus its
+ * estimated cost in nanoseconds and items are delivered in deadline order. A
+ * costly item can therefore only be overtaken by cheaper items submitted less
+ * than its cost after it, which prevents large items from starving. With a
+ * cost of {@code 0} items are delivered in submission order.
+ * <p>
+ * Unlike {@link java.util.concurrent.SubmissionPublisher}, exceptions thrown
+ * by {@link Subscriber#onNext(Object)} are passed to
+ * {@link Subscriber#onError(Throwable)} without cancelling the subscription.
+ * <p>
+ * The time each item spends queued is recorded as a {@link QueueWaitEvent}
+ * while flight recording is enabled.
+ * <p>
+ * Items are delivered one at a time unless a {@link #setConcurrency(IntSupplier)
+ * concurrency limit} is set, in which case each item is delivered on its own
+ * executor task with at most that many running at once. The subscriber must
+ * then be safe to call from several threads.
+ *
+ * @param <T> item type
+ */
+public class PriorityPublisher<T> implements Publisher<T>, AutoCloseable {
+
+	private final PriorityBlockingQueue<Entry<T>> queue = new PriorityBlockingQueue<>();
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final String name;
+	private final Executor executor;
+	private final Semaphore capacity;
+	private final ToLongFunction<? super T> cost;
+	private final Function<? super T, ScanContext> context;
+
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicLong maxWait = new AtomicLong();
+
+	private volatile IntSupplier concurrency;
+
+	private volatile Subscriber<? super T> subscriber;
+	private volatile boolean subscribed;
+	private volatile boolean cancelled;
+	private volatile boolean closed;
+	private boolean completed;
+
+	/**
+	 * @param executor - executor used to deliver items
+	 * @param capacity - maximum number of queued items
+	 * @param cost     - estimated cost of an item in nanoseconds
+	 */
+	public PriorityPublisher(Executor executor, int capacity, ToLongFunction<? super T> cost) {
+		this("Publisher", executor, capacity, cost, item -> ScanContext.current());
+	}
+
+	/**
+	 * @param name     - name of the queue used in events
+	 * @param executor - executor used to deliver items
+	 * @param capacity - maximum number of queued items
+	 * @param cost     - estimated cost of an item in nanoseconds
+	 * @param context  - context of an item used in events
+	 */
+	public PriorityPublisher(String name, Executor executor, int capacity, ToLongFunction<? super T> cost,
+			Function<? super T, ScanContext> context) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.name = Objects.requireNonNull(name);
+		this.executor = Objects.requireNonNull(executor);
+		this.capacity = new Semaphore(capacity);
+		this.cost = Objects.requireNonNull(cost);
+		this.context = Objects.requireNonNull(context);
+	}
+
+	/**
+	 * Queue an item for delivery, blocking uninterruptibly while the queue is
+	 * full.
+	 *
+	 * @param item - item to publish
+	 *
+	 * @return Returns the number of queued items
+	 *
+	 * @throws IllegalStateException Thrown if this publisher is closed
+	 */
+	public int submit(T item) {
+		Objects.requireNonNull(item);
+		if (closed)
+			throw new IllegalStateException("Closed");
+
+		long itemCost = Math.max(0, cost.applyAsLong(item));
+		long deadline = System.nanoTime() + itemCost;
+
+		QueueWaitEvent event = new QueueWaitEvent();
+		if (event.isEnabled())
+			event.begin();
+		else
+			event = null;
+
+		capacity.acquireUninterruptibly();
+		queue.add(new Entry<>(item, System.nanoTime(), deadline, sequence.getAndIncrement(), itemCost, event));
+		signal();
+		return queue.size();
+	}
+
+	/**
+	 * Queue an item for delivery unless the queue is full.
+	 *
+	 * @param item - item to publish
+	 *
+	 * @return Returns {@code true} if the item was queued
+	 *
+	 * @throws IllegalStateException Thrown if this publisher is closed
+	 */
+	public boolean trySubmit(T item) {
+		Objects.requireNonNull(item);
+		if (closed)
+			throw new IllegalStateException("Closed");
+		if (!capacity.tryAcquire())
+			return false;
+
+		long itemCost = Math.max(0, cost.applyAsLong(item));
+		QueueWaitEvent event = new QueueWaitEvent();
+		if (event.isEnabled())
+			event.begin();
+		else
+			event = null;
+
+		long now = System.nanoTime();
+		queue.add(new Entry<>(item, now, now + itemCost, sequence.getAndIncrement(), itemCost, event));
+		signal();
+		return true;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber);
+		synchronized (this) {
+			if (this.subscriber != null) {
+				subscriber.onSubscribe(new Subscription() {
+					@Override
+					public void request(long n) {}
+
+					@Override
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("Publisher already has a subscriber"));
+				return;
+			}
+			this.subscriber = subscriber;
+		}
+
+		executor.execute(() -> {
+			subscriber.onSubscribe(new PrioritySubscription());
+			subscribed = true;
+			signal();
+		});
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Get the number of items waiting to be delivered.
+	 *
+	 * @return Returns the current queue size
+	 */
+	public int estimateBacklog() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the number of items that can be queued without blocking.
+	 *
+	 * @return Returns the free capacity
+	 */
+	public int remainingCapacity() {
+		return capacity.availablePermits();
+	}
+
+	/**
+	 * Get the number of items being delivered concurrently.
+	 *
+	 * @return Returns the number of running deliveries
+	 */
+	public int getRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Get the longest time an item waited to be delivered since the last call,
+	 * including items that are still queued.
+	 *
+	 * @return Returns the longest wait in nanoseconds
+	 */
+	public long pollMaxWait() {
+		long now = System.nanoTime();
+		long max = maxWait.getAndSet(0);
+		for (Entry<T> entry : queue)
+			max = Math.max(max, now - entry.submitted());
+		return max;
+	}
+
+	/**
+	 * Deliver items concurrently. The limit is read before every delivery so it
+	 * may change at any time.
+	 *
+	 * @param concurrency - maximum number of items delivered at once or
+	 *                    {@code null} to deliver one item at a time
+	 */
+	public void setConcurrency(IntSupplier concurrency) {
+		this.concurrency = concurrency;
+		signal();
+	}
+
+	/**
+	 * Stop accepting items. Queued items are still delivered before
+	 * {@link Subscriber#onComplete()} is called.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		signal();
+	}
+
+	private void signal() {
+		if (wip.getAndIncrement() == 0)
+			executor.execute(this::drain);
+	}
+
+	private void drain() {
+		int missed = 1;
+		do {
+			Subscriber<? super T> s = subscriber;
+			if (s != null && subscribed && !cancelled && !completed) {
+				while (demand.get() > 0 && !cancelled) {
+					IntSupplier limit = concurrency;
+					if (limit != null && running.get() >= Math.max(1, limit.getAsInt()))
+						break;
+					Entry<T> entry = queue.poll();
+					if (entry == null)
+						break;
+					capacity.release();
+					demand.decrementAndGet();
+					commit(entry);
+
+					if (limit == null)
+						deliver(s, entry.item());
+					else {
+						running.incrementAndGet();
+						executor.execute(() -> {
+							try {
+								deliver(s, entry.item());
+							} finally {
+								running.decrementAndGet();
+								signal();
+							}
+						});
+					}
+				}
+
+				if (closed && queue.isEmpty() && !cancelled && running.get() == 0) {
+					completed = true;
+					s.onComplete();
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void deliver(Subscriber<? super T> s, T item) {
+		try {
+			s.onNext(item);
+		} catch (Throwable t) {
+			s.onError(t);
+		}
+	}
+
+	private void commit(Entry<T> entry) {
+		maxWait.accumulateAndGet(System.nanoTime() - entry.submitted(), Math::max);
+
+		QueueWaitEvent event = entry.event();
+		if (event == null)
+			return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.setContext(context.apply(entry.item()));
+			event.setQueue(name);
+			event.setCost(entry.cost());
+			event.commit();
+		}
+	}
+
+	private class PrioritySubscription implements Subscription {
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				return;
+			}
+			demand.getAndAccumulate(n, (current, add) -> {
+				long sum = current + add;
+				return sum < 0 ? Long.MAX_VALUE : sum;
+			});
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	private record Entry<T>(T item, long submitted, long deadline, long sequence, long cost, QueueWaitEvent event)
+			implements Comparable<Entry<T>> {
+		@Override
+		public int compareTo(Entry<T> o) {
+			int compare = Long.compare(deadline - o.deadline, 0);
+			return compare != 0 ? compare : Long.compare(sequence, o.sequence);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package net.foxgenesis.filescanner.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers for running and cleaning up child processes.
+ */
+public final class Processes {
+	private static final Logger logger = LoggerFactory.getLogger(Processes.class);
+
+	/**
+	 * How long to wait for a killed process to exit
+	 */
+	private static final long REAP_TIMEOUT = 5;
+
+	/**
+	 * Forcibly destroy processes along with every process they started and wait
+	 * for them to exit.
+	 * 
+	 * @param processes - processes to destroy
+	 */
+	public static void destroyTree(List<Process> processes) {
+		processes.forEach(Processes::kill);
+		processes.forEach(Processes::reap);
+	}
+
+	/**
+	 * Forcibly destroy a process along with every process it started and wait
+	 * for it to exit.
+	 * 
+	 * @param process - process to destroy
+	 */
+	public static void destroyTree(Process process) {
+		kill(process);
+		reap(process);
+	}
+
+	/**
+	 * Forcibly destroy processes along with every process they started without
+	 * waiting for them to exit.
+	 * 
+	 * @param processes - processes to destroy
+	 */
+	public static void kill(List<Process> processes) {
+		processes.forEach(Processes::kill);
+	}
+
+	/**
+	 * Run a short lived command and collect its combined output.
+	 * 
+	 * @param timeout - how long the command may run before it is destroyed
+	 * @param command - command and arguments
+	 * 
+	 * @return Returns the standard output and error of the command
+	 * 
+	 * @throws IOException Thrown if the command could not be started or timed
+	 *                     out
+	 */
+	public static String output(Duration timeout, String... command) throws IOException {
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		try (InputStream in = process.getInputStream()) {
+			CompletableFuture<String> output = CompletableFuture.supplyAsync(() -> {
+				try {
+					return new String(in.readAllBytes());
+				} catch (IOException e) {
+					return "";
+				}
+			});
+
+			if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS))
+				throw new IOException(command[0] + " did not exit within " + timeout);
+			return output.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException | TimeoutException e) {
+			throw new IOException("Failed to read output of " + command[0], e);
+		} finally {
+			destroyTree(process);
+		}
+	}
+
+	private static void kill(Process process) {
+		if (process == null)
+			return;
+		// Descendants first so they are not re-parented before we see them
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+
+	private static void reap(Process process) {
+		if (process == null)
+			return;
+		try {
+			if (!process.waitFor(REAP_TIMEOUT, TimeUnit.SECONDS))
+				logger.warn("Process {} did not exit after being destroyed", process.pid());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package net.foxgenesis.filescanner.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sum of values recorded over a sliding time window. The window is split into
+ * a fixed number of buckets. A bucket that comes around again is replaced with
+ * a new one with a compare-and-set by the first write after it expires, so
+ * writes to the current time slice are never lost to a reset. Recording only
+ * allocates when a bucket is replaced.
+ */
+public class RollingCounter {
+	private final long bucketNanos;
+	private final AtomicReferenceArray<Bucket> buckets;
+
+	/**
+	 * @param window  - length of the window
+	 * @param buckets - number of buckets the window is split into
+	 */
+	public RollingCounter(Duration window, int buckets) {
+		if (buckets < 1)
+			throw new IllegalArgumentException("buckets must be positive");
+		this.bucketNanos = Math.max(1, window.toNanos() / buckets);
+		this.buckets = new AtomicReferenceArray<>(buckets);
+		for (int i = 0; i < buckets; i++)
+			this.buckets.set(i, new Bucket(Long.MIN_VALUE));
+	}
+
+	/**
+	 * Record a value in the current bucket.
+	 * 
+	 * @param value - value to add
+	 */
+	public void add(long value) {
+		long epoch = Math.floorDiv(System.nanoTime(), bucketNanos);
+		int slot = Math.floorMod(epoch, buckets.length());
+
+		Bucket bucket;
+		while ((bucket = buckets.get(slot)).epoch < epoch)
+			buckets.compareAndSet(slot, bucket, new Bucket(epoch));
+		// A write delayed past the next expiry of its slot is counted in the newer bucket
+		bucket.value.addAndGet(value);
+	}
+
+	/**
+	 * Get the sum of all values recorded within the window.
+	 * 
+	 * @return Returns the rolling sum
+	 */
+	public long sum() {
+		long epoch = Math.floorDiv(System.nanoTime(), bucketNanos);
+		long sum = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			Bucket bucket = buckets.get(i);
+			long age = epoch - bucket.epoch;
+			if (age >= 0 && age < buckets.length())
+				sum += bucket.value.get();
+		}
+		return sum;
+	}
+
+	private static final class Bucket {
+		private final long epoch;
+		private final AtomicLong value = new AtomicLong();
+
+		Bucket(long epoch) {
+			this.epoch = epoch;
+		}
+	}
+}
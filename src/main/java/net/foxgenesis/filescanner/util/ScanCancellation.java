@@ -0,0 +1,167 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dv8tion.jda.api.events.message.MessageBulkDeleteEvent;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+/**
+ * Registry of queued and running scans keyed by message id. Scans of a message
+ * are cancelled once the message is deleted, whether by its author, a
+ * moderator or a scanner.
+ * <p>
+ * Every scan holds a {@link Ticket} from the time it is queued until it
+ * finishes. Queued scans check their ticket before starting and running scans
+ * attach their {@link Deadline} so that cancelling the ticket stops any
+ * download and kills any processes.
+ */
+public class ScanCancellation extends ListenerAdapter {
+	private static final Logger logger = LoggerFactory.getLogger(ScanCancellation.class);
+
+	private final Map<Long, Set<Ticket>> tickets = new ConcurrentHashMap<>();
+	private final LongAdder cancelled = new LongAdder();
+
+	/**
+	 * Register a scan of a message.
+	 *
+	 * @param messageId - id of the message being scanned
+	 *
+	 * @return Returns a {@link Ticket} that must be closed once the scan is done
+	 */
+	public Ticket register(long messageId) {
+		Ticket ticket = new Ticket(messageId);
+		tickets.compute(messageId, (id, set) -> {
+			if (set == null)
+				set = ConcurrentHashMap.newKeySet();
+			set.add(ticket);
+			return set;
+		});
+		return ticket;
+	}
+
+	/**
+	 * Cancel all scans of a message.
+	 *
+	 * @param messageId - id of the message
+	 */
+	public void cancel(long messageId) {
+		Set<Ticket> set = tickets.remove(messageId);
+		if (set == null)
+			return;
+
+		logger.debug("Cancelling {} scan(s) of {}", set.size(), messageId);
+		set.forEach(Ticket::cancel);
+		cancelled.add(set.size());
+	}
+
+	@Override
+	public void onMessageDelete(MessageDeleteEvent event) {
+		cancel(event.getMessageIdLong());
+	}
+
+	@Override
+	public void onMessageBulkDelete(MessageBulkDeleteEvent event) {
+		event.getMessageIds().forEach(id -> cancel(Long.parseUnsignedLong(id)));
+	}
+
+	/**
+	 * Get the number of scans that were cancelled.
+	 *
+	 * @return Returns the total number of cancelled scans
+	 */
+	public long getCancelled() {
+		return cancelled.sum();
+	}
+
+	/**
+	 * Get the number of messages with queued or running scans.
+	 *
+	 * @return Returns the number of tracked messages
+	 */
+	public int getTracked() {
+		return tickets.size();
+	}
+
+	private void remove(Ticket ticket) {
+		tickets.computeIfPresent(ticket.messageId, (id, set) -> {
+			set.remove(ticket);
+			return set.isEmpty() ? null : set;
+		});
+	}
+
+	/**
+	 * A single registered scan.
+	 */
+	public final class Ticket implements AutoCloseable {
+		private final long messageId;
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private final CopyOnWriteArrayList<Runnable> onClose = new CopyOnWriteArrayList<>();
+
+		private volatile boolean cancelled;
+		private volatile Deadline deadline;
+
+		private Ticket(long messageId) {
+			this.messageId = messageId;
+		}
+
+		public long getMessageId() {
+			return messageId;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Cancel the specified deadline along with this ticket. Replaces any
+		 * previously attached deadline.
+		 *
+		 * @param deadline - deadline of the running stage
+		 */
+		public void attach(Deadline deadline) {
+			this.deadline = deadline;
+			if (cancelled)
+				deadline.cancel();
+		}
+
+		private void cancel() {
+			cancelled = true;
+			Deadline d = deadline;
+			if (d != null)
+				d.cancel();
+		}
+
+		/**
+		 * Run an action once this ticket is closed, or immediately if it already
+		 * is.
+		 *
+		 * @param action - action to run once
+		 */
+		public void onClose(Runnable action) {
+			onClose.add(action);
+			if (closed.get() && onClose.remove(action))
+				action.run();
+		}
+
+		/**
+		 * Stop tracking this scan.
+		 */
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true))
+				remove(this);
+			for (Runnable action : onClose)
+				if (onClose.remove(action))
+					action.run();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config;
+import net.foxgenesis.watame.util.PrefixedThreadFactory;
+
+/**
+ * Factory for the executors used by the scanning pipelines.
+ */
+public final class ScanExecutors {
+
+	/**
+	 * Create an executor for blocking I/O such as downloads and process pipes.
+	 * When running in {@link Config.ExecutorType#VIRTUAL} mode every task gets
+	 * its own virtual thread, otherwise a cached platform pool is used.
+	 * 
+	 * @param config - scanner configuration
+	 * @param name   - thread name prefix
+	 * 
+	 * @return Returns a new unbounded {@link ExecutorService}
+	 */
+	public static ExecutorService io(Config config, String name) {
+		return switch (config.getExecutor()) {
+		case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+		case PLATFORM -> Executors.newCachedThreadPool(new PrefixedThreadFactory(name));
+		};
+	}
+
+	/**
+	 * Create a bounded platform executor for CPU bound work. When scaling or
+	 * stages are enabled a dedicated pool is always used, large enough for the
+	 * maximum concurrency plus the publisher's delivery task.
+	 * 
+	 * @param config - scanner configuration
+	 * @param name   - thread name prefix
+	 * 
+	 * @return Returns the common pool or a new fixed size pool
+	 */
+	public static ExecutorService workers(Config config, String name) {
+		// Staged jobs block while waiting for a stage and scaled pipelines can outgrow the common pool
+		if (config.isCommonPool() && !config.getStages().isEnabled() && !config.getScaling().isEnabled())
+			return ForkJoinPool.commonPool();
+		int threads = config.getWorkers();
+		if (config.getScaling().isEnabled())
+			threads = Math.max(threads, config.getScaling().getMax() + 1);
+		else if (config.getStages().isEnabled())
+			threads = Math.max(threads, ScanStages.getSlots(config.getStages()) + 1);
+		return Executors.newFixedThreadPool(threads, new PrefixedThreadFactory(name));
+	}
+
+	/**
+	 * Let a publisher deliver several items at once if scaling is enabled.
+	 * 
+	 * @param config    - scanner configuration
+	 * @param name      - name of the pipeline
+	 * @param publisher - publisher of the pipeline
+	 * @param running   - number of decoder processes the pipeline is running
+	 * 
+	 * @return Returns the registered {@link AdaptiveConcurrency} or {@code null}
+	 *         if scaling is disabled
+	 */
+	@Nullable
+	public static AdaptiveConcurrency scale(Config config, String name, PriorityPublisher<?> publisher,
+			LongSupplier running) {
+		if (!config.getScaling().isEnabled())
+			return null;
+		AdaptiveConcurrency concurrency = new AdaptiveConcurrency(name, config.getScaling(), publisher, running);
+		publisher.setConcurrency(concurrency);
+		concurrency.registerMBean();
+		return concurrency;
+	}
+
+	/**
+	 * Split a pipeline into stages if enabled. Unless scaling is enabled the
+	 * publisher delivers as many items at once as the stages can hold, so the
+	 * stage limits decide how much work runs at once.
+	 * 
+	 * @param config    - scanner configuration
+	 * @param name      - name of the pipeline
+	 * @param publisher - publisher of the pipeline
+	 * 
+	 * @return Returns the registered {@link ScanStages} or {@code null} if
+	 *         stages are disabled
+	 */
+	@Nullable
+	public static ScanStages stages(Config config, String name, PriorityPublisher<?> publisher) {
+		ScanStages stages = ScanStages.open(config.getStages(), name);
+		if (stages != null && !config.getScaling().isEnabled()) {
+			int slots = stages.getSlots();
+			publisher.setConcurrency(() -> slots);
+		}
+		return stages;
+	}
+}
@@ -0,0 +1,364 @@
+package net.foxgenesis.filescanner.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.utils.TimeUtil;
+import net.foxgenesis.filescanner.Config.JournalSettings;
+import net.foxgenesis.filescanner.util.ScanCancellation.Ticket;
+
+/**
+ * Append-only, memory-mapped log of queued scans.
+ * <p>
+ * Every admitted message is recorded as a compact {@link Job} before it is
+ * queued and marked done once its {@link Ticket} closes. Jobs that do not fit
+ * into the publisher's in-memory buffer are spilled: only their descriptor is
+ * kept and the message is fetched again once there is room. On startup every
+ * job that was not marked done is spilled, so scans queued during a restart
+ * still happen. Messages that were deleted, are no longer accessible or are
+ * older than {@link JournalSettings#getMaxAge() maxAge} are skipped.
+ * <p>
+ * Records have a fixed size and a checksum so a record torn by a crash ends
+ * the log. Once the mapped file is full it is compacted into a new file that
+ * only holds the pending jobs.
+ * <p>
+ * Records are written to the mapping and only forced to disk every
+ * {@link JournalSettings#getForceInterval() forceInterval}. The operating
+ * system keeps the mapping if the bot crashes, but scans recorded since the
+ * last force are lost if the host does.
+ */
+public class ScanJournal implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(ScanJournal.class);
+
+	/**
+	 * Operation, padding, checksum, guild, channel and message id
+	 */
+	private static final int RECORD_SIZE = 32;
+
+	private static final byte QUEUED = 1;
+	private static final byte DONE = 2;
+
+	private static final ScheduledExecutorService REPLAYER = Executors.newSingleThreadScheduledExecutor(
+			Thread.ofPlatform().name("Scan Journal").daemon().factory());
+
+	private final Path file;
+	private final JournalSettings settings;
+
+	private final Map<Long, Job> pending = new LinkedHashMap<>();
+	private final ArrayDeque<Job> spilled = new ArrayDeque<>();
+	private final AtomicInteger replaying = new AtomicInteger();
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	@Nullable
+	private ScheduledFuture<?> replay;
+
+	private final ScheduledFuture<?> force;
+
+	private ScanJournal(Path file, JournalSettings settings) throws IOException {
+		this.file = Objects.requireNonNull(file);
+		this.settings = Objects.requireNonNull(settings);
+		map(Math.max(settings.getCapacity(), Files.exists(file) ? Files.size(file) / RECORD_SIZE : 0));
+		recover();
+
+		long interval = settings.getForceInterval().toMillis();
+		force = REPLAYER.scheduleWithFixedDelay(this::force, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Open or create the journal of a pipeline.
+	 *
+	 * @param settings - journal settings
+	 * @param name     - name of the pipeline used as the file name
+	 *
+	 * @return Returns the opened journal or {@code null} if it could not be
+	 *         opened
+	 */
+	@Nullable
+	public static ScanJournal open(JournalSettings settings, String name) {
+		if (!settings.isEnabled())
+			return null;
+
+		Path file = settings.getDirectory().resolve(name + ".journal");
+		try {
+			Files.createDirectories(settings.getDirectory());
+			ScanJournal journal = new ScanJournal(file, settings);
+			logger.info("Opened scan journal {} with {} pending scan(s)", file, journal.getPending());
+			return journal;
+		} catch (IOException e) {
+			logger.error("Failed to open scan journal {}. Queued scans will not survive restarts", file, e);
+			return null;
+		}
+	}
+
+	private void map(long records) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		buffer = channel.map(MapMode.READ_WRITE, 0, records * RECORD_SIZE);
+	}
+
+	/**
+	 * Replay the log up to the first empty or torn record and spill every job
+	 * that is still pending.
+	 */
+	private void recover() {
+		int records = 0;
+		while (buffer.remaining() >= RECORD_SIZE) {
+			int position = buffer.position();
+			byte op = buffer.get(position);
+			if (op == 0)
+				break;
+
+			int checksum = buffer.getInt(position + 4);
+			Job job = new Job(buffer.getLong(position + 8), buffer.getLong(position + 16),
+					buffer.getLong(position + 24));
+			if (checksum != checksum(op, job)) {
+				logger.warn("Journal {} has a torn record at {}. Ignoring the rest", file, position);
+				break;
+			}
+
+			if (op == QUEUED)
+				pending.put(job.messageId(), job);
+			else
+				pending.remove(job.messageId());
+			buffer.position(position + RECORD_SIZE);
+			records++;
+		}
+		logger.debug("Replayed {} journal record(s) from {}", records, file);
+		spilled.addAll(pending.values());
+	}
+
+	/**
+	 * Record a job and queue it on a publisher, spilling it if the publisher is
+	 * full. The job is marked done once the ticket is closed.
+	 *
+	 * @param <T>       - item type
+	 * @param message   - message being scanned
+	 * @param publisher - publisher to queue on
+	 * @param item      - item to queue
+	 * @param ticket    - ticket of the item
+	 *
+	 * @return Returns {@code true} if queued or {@code false} if spilled
+	 */
+	public <T> boolean submit(Message message, PriorityPublisher<T> publisher, T item, Ticket ticket) {
+		Job job = Job.of(message);
+		append(job);
+		if (!publisher.trySubmit(item)) {
+			ticket.close();
+			spill(job);
+			return false;
+		}
+		ticket.onClose(() -> complete(job));
+		return true;
+	}
+
+	private synchronized void append(Job job) {
+		if (pending.putIfAbsent(job.messageId(), job) == null)
+			write(QUEUED, job);
+	}
+
+	private synchronized void spill(Job job) {
+		if (pending.containsKey(job.messageId()))
+			spilled.add(job);
+	}
+
+	private synchronized void complete(Job job) {
+		if (pending.remove(job.messageId()) != null)
+			write(DONE, job);
+	}
+
+	private void write(byte op, Job job) {
+		if (buffer == null)
+			return;
+		try {
+			if (buffer.remaining() < RECORD_SIZE)
+				compact();
+
+			// The operation is written last so a torn record reads as empty
+			int position = buffer.position();
+			buffer.putInt(position + 4, checksum(op, job));
+			buffer.putLong(position + 8, job.guildId());
+			buffer.putLong(position + 16, job.channelId());
+			buffer.putLong(position + 24, job.messageId());
+			buffer.put(position, op);
+			buffer.position(position + RECORD_SIZE);
+		} catch (IOException e) {
+			logger.error("Failed to write scan journal {}. Disabling journal", file, e);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Rewrite the pending jobs into a new file and replace the journal with it.
+	 */
+	private void compact() throws IOException {
+		long records = Math.max(settings.getCapacity(), (pending.size() + 1L) * 2);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.deleteIfExists(temp);
+
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer compacted = out.map(MapMode.READ_WRITE, 0, records * RECORD_SIZE);
+			for (Job job : pending.values()) {
+				int position = compacted.position();
+				compacted.putInt(position + 4, checksum(QUEUED, job));
+				compacted.putLong(position + 8, job.guildId());
+				compacted.putLong(position + 16, job.channelId());
+				compacted.putLong(position + 24, job.messageId());
+				compacted.put(position, QUEUED);
+				compacted.position(position + RECORD_SIZE);
+			}
+			compacted.force();
+		}
+
+		buffer.force();
+		channel.close();
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		map(records);
+		buffer.position(pending.size() * RECORD_SIZE);
+		logger.debug("Compacted scan journal {} to {} pending scan(s)", file, pending.size());
+	}
+
+	private static int checksum(byte op, Job job) {
+		CRC32 crc = new CRC32();
+		crc.update(op);
+		for (long value : new long[] { job.guildId(), job.channelId(), job.messageId() })
+			for (int shift = 56; shift >= 0; shift -= 8)
+				crc.update((int) (value >>> shift));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Start moving spilled jobs back into the in-memory queue whenever it has
+	 * room. Messages are fetched again and passed to the admission of the
+	 * pipeline, so deleted messages and disabled guilds are skipped.
+	 *
+	 * @param jda   - used to fetch messages
+	 * @param room  - number of items the in-memory queue can take
+	 * @param admit - admits a fetched message. Returns {@code false} if the
+	 *              message will not be scanned
+	 */
+	public synchronized void start(JDA jda, IntSupplier room, Predicate<Message> admit) {
+		if (replay != null)
+			return;
+		long interval = settings.getReplayInterval().toMillis();
+		replay = REPLAYER.scheduleWithFixedDelay(() -> replay(jda, room, admit), 0, interval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void force() {
+		try {
+			if (buffer != null)
+				buffer.force();
+		} catch (Exception e) {
+			logger.warn("Failed to force scan journal {}", file, e);
+		}
+	}
+
+	private void replay(JDA jda, IntSupplier room, Predicate<Message> admit) {
+		try {
+			OffsetDateTime oldest = OffsetDateTime.now().minus(settings.getMaxAge());
+			while (room.getAsInt() - replaying.get() > 0) {
+				Job job;
+				synchronized (this) {
+					job = spilled.poll();
+				}
+				if (job == null)
+					return;
+
+				GuildMessageChannel channel = jda.getChannelById(GuildMessageChannel.class, job.channelId());
+				if (channel == null || TimeUtil.getTimeCreated(job.messageId()).isBefore(oldest)) {
+					complete(job);
+					continue;
+				}
+
+				replaying.incrementAndGet();
+				channel.retrieveMessageById(job.messageId()).queue(message -> {
+					replaying.decrementAndGet();
+					if (!admit.test(message))
+						complete(job);
+				}, err -> {
+					replaying.decrementAndGet();
+					if (err instanceof ErrorResponseException) {
+						// Deleted or no longer accessible
+						logger.debug("Skipping journaled scan of {}: {}", job.messageId(), err.getMessage());
+						complete(job);
+					} else
+						spill(job);
+				});
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to replay scan journal {}", file, e);
+		}
+	}
+
+	/**
+	 * Get the number of jobs that are not done.
+	 *
+	 * @return Returns the number of queued, running and spilled jobs
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Get the number of jobs waiting for room in the in-memory queue.
+	 *
+	 * @return Returns the number of spilled jobs
+	 */
+	public synchronized int getSpilled() {
+		return spilled.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (replay != null)
+			replay.cancel(false);
+		force.cancel(false);
+		if (buffer != null)
+			buffer.force();
+		buffer = null;
+		channel.close();
+	}
+
+	/**
+	 * Descriptor of a queued scan.
+	 *
+	 * @param guildId   - id of the guild
+	 * @param channelId - id of the channel
+	 * @param messageId - id of the message
+	 */
+	public record Job(long guildId, long channelId, long messageId) {
+		public static Job of(Message message) {
+			return new Job(message.getGuildIdLong(), message.getChannel().getIdLong(), message.getIdLong());
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package net.foxgenesis.filescanner.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.foxgenesis.filescanner.jfr.ScanContext;
+import net.foxgenesis.filescanner.jfr.StageWaitEvent;
+
+/**
+ * A step of a scanning pipeline with its own concurrency limit and a bounded
+ * queue in front of it.
+ * <p>
+ * A job {@link #enter(Deadline) enters} a stage by taking a queue slot and
+ * then waiting for one of the running slots. A job moving on to the next stage
+ * {@link Permit#handoff(ScanStage, Deadline) hands off} its permit: it takes a
+ * queue slot of the next stage before giving up its running slot, so a full
+ * stage holds back the stages before it instead of piling up work in memory.
+ * <p>
+ * Time spent waiting to run is recorded as a {@link StageWaitEvent}.
+ */
+public class ScanStage implements ScanStageMBean {
+	private static final Logger logger = LoggerFactory.getLogger(ScanStage.class);
+
+	public static final String OBJECT_NAME = "net.foxgenesis.filescanner:type=ScanStage,pipeline=";
+
+	private final String pipeline;
+	private final String name;
+	private final int concurrency;
+	private final int capacity;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	private int running;
+	private int queued;
+
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder entered = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder serviceNanos = new LongAdder();
+
+	private volatile ObjectName objectName;
+
+	/**
+	 * @param pipeline    - name of the pipeline used in JMX
+	 * @param name        - name of the stage
+	 * @param concurrency - number of jobs that may run at once
+	 * @param capacity    - number of jobs that may wait to run
+	 */
+	public ScanStage(String pipeline, String name, int concurrency, int capacity) {
+		this.pipeline = Objects.requireNonNull(pipeline);
+		this.name = Objects.requireNonNull(name);
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		if (capacity < 0)
+			throw new IllegalArgumentException("Capacity must not be negative");
+		this.concurrency = concurrency;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Wait for a queue slot and then for a running slot of this stage.
+	 *
+	 * @param deadline - bounds the wait
+	 *
+	 * @return Returns a {@link Permit} that must be closed or handed off once
+	 *         the job leaves this stage
+	 *
+	 * @throws CompletionException Thrown if {@code deadline} expired or was
+	 *                             cancelled while waiting, with a
+	 *                             {@link java.util.concurrent.TimeoutException
+	 *                             TimeoutException} or
+	 *                             {@link java.util.concurrent.CancellationException
+	 *                             CancellationException} as the cause
+	 */
+	public Permit enter(Deadline deadline) {
+		long start = System.nanoTime();
+		reserve(deadline);
+		return acquire(deadline, start);
+	}
+
+	/**
+	 * Take a queue slot.
+	 */
+	private void reserve(Deadline deadline) {
+		lock.lock();
+		try (Deadline.Watch watch = deadline.watch(this::signal)) {
+			// Jobs that can run right away do not need room in the queue
+			while (queued >= capacity && running + queued >= concurrency)
+				await(deadline);
+			queued++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Move from the queue to a running slot. The queue slot is given up if the
+	 * wait fails.
+	 */
+	private Permit acquire(Deadline deadline, long start) {
+		StageWaitEvent event = new StageWaitEvent();
+		event.begin();
+
+		String outcome = "failed";
+		lock.lock();
+		try (Deadline.Watch watch = deadline.watch(this::signal)) {
+			while (running >= concurrency)
+				await(deadline);
+			running++;
+			outcome = "ok";
+		} finally {
+			queued--;
+			changed.signalAll();
+			lock.unlock();
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.setContext(ScanContext.current());
+				event.setStage(name);
+				event.setOutcome(outcome);
+				event.commit();
+			}
+		}
+
+		long now = System.nanoTime();
+		entered.increment();
+		waitNanos.add(now - start);
+		return new Permit(now);
+	}
+
+	private void await(Deadline deadline) {
+		if (deadline.isCancelled())
+			throw new CompletionException(deadline.cancellation("Wait for " + name + " stage"));
+		if (deadline.isExpired())
+			throw new CompletionException(deadline.timeout("Wait for " + name + " stage"));
+		try {
+			changed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	private void signal() {
+		lock.lock();
+		try {
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void leave(long start) {
+		serviceNanos.add(System.nanoTime() - start);
+		completed.increment();
+		lock.lock();
+		try {
+			running--;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the number of jobs this stage holds when it is full.
+	 *
+	 * @return Returns the concurrency limit plus the queue capacity
+	 */
+	public int getSlots() {
+		return concurrency + capacity;
+	}
+
+	@Override
+	public int getRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	@Override
+	public double getAverageWait() {
+		long count = entered.sum();
+		return count == 0 ? 0 : waitNanos.sum() / 1_000_000D / count;
+	}
+
+	@Override
+	public double getAverageService() {
+		long count = completed.sum();
+		return count == 0 ? 0 : serviceNanos.sum() / 1_000_000D / count;
+	}
+
+	@Override
+	public double getSaturation() {
+		return getRunning() / (double) concurrency;
+	}
+
+	/**
+	 * Register this instance with the platform MBean server under
+	 * {@link #OBJECT_NAME} followed by the pipeline and stage name.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName objectName = new ObjectName(
+					OBJECT_NAME + ObjectName.quote(pipeline) + ",name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			logger.warn("Failed to register {} stage MBean of {}", name, pipeline, e);
+		}
+	}
+
+	/**
+	 * Unregister this instance from the platform MBean server.
+	 */
+	public void unregisterMBean() {
+		ObjectName objectName = this.objectName;
+		this.objectName = null;
+		if (objectName != null)
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {}
+	}
+
+	@Override
+	public String toString() {
+		return "ScanStage[" + pipeline + "/" + name + ", running: " + getRunning() + "/" + concurrency
+				+ ", queued: " + getQueued() + "/" + capacity + "]";
+	}
+
+	/**
+	 * Running slot of a job in a {@link ScanStage}.
+	 */
+	public final class Permit implements AutoCloseable {
+		private final long start;
+		private boolean closed;
+
+		private Permit(long start) {
+			this.start = start;
+		}
+
+		/**
+		 * Move a job into the next stage. A queue slot of the next stage is taken
+		 * before this permit is released.
+		 *
+		 * @param next     - stage to move to
+		 * @param deadline - bounds the wait
+		 *
+		 * @return Returns the {@link Permit} of the next stage
+		 *
+		 * @throws CompletionException Thrown if {@code deadline} expired or was
+		 *                             cancelled while waiting. This permit is
+		 *                             released if the queue slot was taken
+		 */
+		public Permit handoff(ScanStage next, Deadline deadline) {
+			long start = System.nanoTime();
+			next.reserve(deadline);
+			close();
+			return next.acquire(deadline, start);
+		}
+
+		/**
+		 * Get the stage this permit belongs to.
+		 *
+		 * @return Returns the {@link ScanStage} of this permit
+		 */
+		public ScanStage getStage() {
+			return ScanStage.this;
+		}
+
+		@Override
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+			leave(start);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package net.foxgenesis.filescanner.util;
+
+/**
+ * Management interface of {@link ScanStage}.
+ */
+public interface ScanStageMBean {
+
+	/**
+	 * Get the number of jobs that may run in this stage at once.
+	 * 
+	 * @return Returns the concurrency limit
+	 */
+	int getConcurrency();
+
+	/**
+	 * Get the number of jobs that may wait for this stage.
+	 * 
+	 * @return Returns the queue capacity
+	 */
+	int getCapacity();
+
+	/**
+	 * Get the number of jobs running in this stage.
+	 * 
+	 * @return Returns the number of running jobs
+	 */
+	int getRunning();
+
+	/**
+	 * Get the number of jobs waiting for this stage.
+	 * 
+	 * @return Returns the number of queued jobs
+	 */
+	int getQueued();
+
+	/**
+	 * Get the number of jobs that left this stage.
+	 * 
+	 * @return Returns the number of completed jobs
+	 */
+	long getCompleted();
+
+	/**
+	 * Get the average time jobs waited to enter this stage.
+	 * 
+	 * @return Returns the average wait in milliseconds
+	 */
+	double getAverageWait();
+
+	/**
+	 * Get the average time jobs spent in this stage.
+	 * 
+	 * @return Returns the average service time in milliseconds
+	 */
+	double getAverageService();
+
+	/**
+	 * Get the fraction of the concurrency limit in use.
+	 * 
+	 * @return Returns the running jobs divided by the concurrency limit
+	 */
+	double getSaturation();
+}
@@ -0,0 +1,108 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.springframework.lang.Nullable;
+
+import net.foxgenesis.filescanner.Config.StageSettings;
+import net.foxgenesis.filescanner.Config.StageSettings.Limit;
+
+/**
+ * The {@link ScanStage stages} of a scanning pipeline. Jobs move through them
+ * in order:
+ * <ol>
+ * <li>{@link #getDownload() download} - fetching the attachment</li>
+ * <li>{@link #getTransform() transform} - decoding and pre-processing it</li>
+ * <li>{@link #getAnalysis() analysis} - measuring or detecting</li>
+ * <li>{@link #getAction() action} - acting on the verdict</li>
+ * </ol>
+ * Pipelines skip the stages they have no work for.
+ */
+public class ScanStages implements AutoCloseable {
+	private final ScanStage download;
+	private final ScanStage transform;
+	private final ScanStage analysis;
+	private final ScanStage action;
+
+	private ScanStages(String pipeline, StageSettings settings) {
+		this.download = create(pipeline, "download", settings.getDownload());
+		this.transform = create(pipeline, "transform", settings.getTransform());
+		this.analysis = create(pipeline, "analysis", settings.getAnalysis());
+		this.action = create(pipeline, "action", settings.getAction());
+	}
+
+	/**
+	 * Create and register the stages of a pipeline.
+	 *
+	 * @param settings - stage settings
+	 * @param pipeline - name of the pipeline used in JMX
+	 *
+	 * @return Returns the stages or {@code null} if staging is disabled
+	 */
+	@Nullable
+	public static ScanStages open(StageSettings settings, String pipeline) {
+		if (!settings.isEnabled())
+			return null;
+		ScanStages stages = new ScanStages(Objects.requireNonNull(pipeline), settings);
+		stages.getStages().forEach(ScanStage::registerMBean);
+		return stages;
+	}
+
+	private static ScanStage create(String pipeline, String name, Limit limit) {
+		return new ScanStage(pipeline, name, limit.getConcurrency(), limit.getCapacity());
+	}
+
+	public ScanStage getDownload() {
+		return download;
+	}
+
+	public ScanStage getTransform() {
+		return transform;
+	}
+
+	public ScanStage getAnalysis() {
+		return analysis;
+	}
+
+	public ScanStage getAction() {
+		return action;
+	}
+
+	/**
+	 * Get all stages in order.
+	 *
+	 * @return Returns an unmodifiable {@link List} of stages
+	 */
+	public List<ScanStage> getStages() {
+		return List.of(download, transform, analysis, action);
+	}
+
+	/**
+	 * Get the number of jobs the pipeline holds when every stage is full.
+	 *
+	 * @return Returns the sum of the slots of every stage
+	 */
+	public int getSlots() {
+		return getStages().stream().mapToInt(ScanStage::getSlots).sum();
+	}
+
+	/**
+	 * Get the number of jobs a pipeline with the specified settings holds when
+	 * every stage is full.
+	 *
+	 * @param settings - stage settings
+	 *
+	 * @return Returns the sum of the slots of every stage
+	 */
+	public static int getSlots(StageSettings settings) {
+		return Stream.of(settings.getDownload(), settings.getTransform(), settings.getAnalysis(), settings.getAction())
+				.mapToInt(limit -> limit.getConcurrency() + limit.getCapacity()).sum();
+	}
+
+	@Override
+	public void close() {
+		getStages().forEach(ScanStage::unregisterMBean);
+	}
+}
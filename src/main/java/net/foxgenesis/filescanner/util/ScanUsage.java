@@ -0,0 +1,247 @@
+package net.foxgenesis.filescanner.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import net.foxgenesis.filescanner.Config.QuotaSettings;
+
+/**
+ * Per guild accounting of the scanning capacity used. Counters are striped so
+ * recording from many scanning threads does not contend.
+ * <p>
+ * When quotas are enabled, the CPU and decoder time used by a guild is also
+ * summed over a rolling window. Jobs of guilds over their quota are given a
+ * queue penalty so they yield to other guilds without being dropped.
+ * <p>
+ * CPU time is measured per thread and cannot be measured on virtual threads.
+ * Scans without a measurement are counted as such instead of as free, and only
+ * their decoder time counts toward the quota.
+ */
+public class ScanUsage {
+	/**
+	 * Number of buckets the quota window is split into
+	 */
+	private static final int BUCKETS = 12;
+
+	/**
+	 * CPU time of a thread that cannot be measured
+	 */
+	public static final long UNAVAILABLE = -1;
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final Map<Long, GuildUsage> guilds = new ConcurrentHashMap<>();
+	private final QuotaSettings quota;
+
+	public ScanUsage(QuotaSettings quota) {
+		this.quota = Objects.requireNonNull(quota);
+	}
+
+	/**
+	 * Record the cost of a single scanned attachment.
+	 * 
+	 * @param guild        - id of the guild the attachment was posted in
+	 * @param cpuNanos     - CPU time used by the scanning thread or
+	 *                     {@link #UNAVAILABLE}
+	 * @param decoderNanos - wall time spent in external decoders
+	 * @param bytes        - number of bytes downloaded
+	 */
+	public void record(long guild, long cpuNanos, long decoderNanos, long bytes) {
+		guilds.computeIfAbsent(guild, GuildUsage::new).record(cpuNanos, decoderNanos, bytes);
+	}
+
+	/**
+	 * Get the queue penalty of a guild.
+	 * 
+	 * @param guild - id of the guild
+	 * 
+	 * @return Returns the penalty in nanoseconds or {@code 0} if the guild is
+	 *         within its quota
+	 */
+	public long getPenalty(long guild) {
+		if (!quota.isEnabled())
+			return 0;
+		GuildUsage usage = guilds.get(guild);
+		return usage != null && usage.isOverQuota() ? quota.getPenalty().toNanos() : 0;
+	}
+
+	/**
+	 * Get a snapshot of the usage of a guild.
+	 * 
+	 * @param guild - id of the guild
+	 * 
+	 * @return Returns the usage of the guild. Empty if it has not been scanned
+	 */
+	public Snapshot get(long guild) {
+		GuildUsage usage = guilds.get(guild);
+		return usage == null ? new GuildUsage(guild).snapshot() : usage.snapshot();
+	}
+
+	/**
+	 * Get the guilds that used the most scan time.
+	 * 
+	 * @param limit - maximum number of guilds
+	 * 
+	 * @return Returns up to {@code limit} snapshots ordered by scan time
+	 */
+	public List<Snapshot> getTop(int limit) {
+		return guilds.values().stream().map(GuildUsage::snapshot)
+				.sorted(Comparator.comparingLong(Snapshot::getTotalNanos).reversed()).limit(limit).toList();
+	}
+
+	/**
+	 * Get the CPU time used by the current thread.
+	 * 
+	 * @return Returns the CPU time in nanoseconds or {@link #UNAVAILABLE} if the
+	 *         thread is virtual or CPU time is not supported
+	 */
+	public static long cpuTime() {
+		// Virtual threads are not measured by the JVM
+		if (Thread.currentThread().isVirtual() || !threads.isCurrentThreadCpuTimeSupported())
+			return UNAVAILABLE;
+		long time = threads.getCurrentThreadCpuTime();
+		return time < 0 ? UNAVAILABLE : time;
+	}
+
+	/**
+	 * Get the CPU time used by the current thread since a previous call to
+	 * {@link #cpuTime()}.
+	 * 
+	 * @param start - CPU time returned by {@link #cpuTime()}
+	 * 
+	 * @return Returns the CPU time in nanoseconds or {@link #UNAVAILABLE} if
+	 *         either measurement is unavailable
+	 */
+	public static long cpuSince(long start) {
+		long now = cpuTime();
+		return start == UNAVAILABLE || now == UNAVAILABLE ? UNAVAILABLE : Math.max(0, now - start);
+	}
+
+	private Duration getLimit(long guild) {
+		return quota.getGuilds().getOrDefault(guild, quota.getLimit());
+	}
+
+	private class GuildUsage {
+		private final LongAdder scans = new LongAdder();
+		private final LongAdder cpuNanos = new LongAdder();
+		private final LongAdder unmeasured = new LongAdder();
+		private final LongAdder decoderNanos = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final RollingCounter window = new RollingCounter(quota.getWindow(), BUCKETS);
+
+		private final long guild;
+
+		GuildUsage(long guild) {
+			this.guild = guild;
+		}
+
+		void record(long cpu, long decoder, long downloaded) {
+			scans.increment();
+			if (cpu == UNAVAILABLE) {
+				unmeasured.increment();
+				cpu = 0;
+			}
+			cpuNanos.add(cpu);
+			decoderNanos.add(decoder);
+			bytes.add(downloaded);
+			window.add(cpu + decoder);
+		}
+
+		boolean isOverQuota() {
+			return window.sum() > getLimit(guild).toNanos();
+		}
+
+		Snapshot snapshot() {
+			long used = window.sum();
+			Duration limit = getLimit(guild);
+			return new Snapshot(guild, scans.sum(), unmeasured.sum(), cpuNanos.sum(), decoderNanos.sum(), bytes.sum(),
+					used, quota.isEnabled() ? limit : null, quota.isEnabled() && used > limit.toNanos());
+		}
+	}
+
+	/**
+	 * Point in time copy of the usage of a guild.
+	 */
+	@Getter
+	public static final class Snapshot {
+		private final long guild;
+		private final long scans;
+
+		/**
+		 * Number of scans whose CPU time could not be measured
+		 */
+		private final long unmeasuredScans;
+
+		private final long cpuNanos;
+		private final long decoderNanos;
+		private final long bytes;
+
+		/**
+		 * CPU and decoder time used within the quota window
+		 */
+		private final long windowNanos;
+
+		/**
+		 * Quota of the guild or {@code null} if quotas are disabled
+		 */
+		private final Duration limit;
+
+		private final boolean throttled;
+
+		Snapshot(long guild, long scans, long unmeasuredScans, long cpuNanos, long decoderNanos, long bytes,
+				long windowNanos, Duration limit, boolean throttled) {
+			this.guild = guild;
+			this.scans = scans;
+			this.unmeasuredScans = unmeasuredScans;
+			this.cpuNanos = cpuNanos;
+			this.decoderNanos = decoderNanos;
+			this.bytes = bytes;
+			this.windowNanos = windowNanos;
+			this.limit = limit;
+			this.throttled = throttled;
+		}
+
+		public long getTotalNanos() {
+			return cpuNanos + decoderNanos;
+		}
+
+		/**
+		 * Check if the CPU time of every scan was measured.
+		 * 
+		 * @return Returns {@code true} if {@link #getCpuSeconds()} covers all scans
+		 */
+		public boolean isCpuMeasured() {
+			return unmeasuredScans == 0;
+		}
+
+		public double getCpuSeconds() {
+			return cpuNanos / 1e9;
+		}
+
+		public double getDecoderSeconds() {
+			return decoderNanos / 1e9;
+		}
+
+		public double getMegabytes() {
+			return bytes / 1_048_576D;
+		}
+
+		/**
+		 * Get how much of its quota the guild has used.
+		 * 
+		 * @return Returns the used fraction of the quota or {@code 0} if quotas are
+		 *         disabled
+		 */
+		public double getQuotaUsed() {
+			return limit == null || limit.isZero() ? 0 : (double) windowNanos / limit.toNanos();
+		}
+	}
+}
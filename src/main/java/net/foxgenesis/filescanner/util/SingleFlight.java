@@ -0,0 +1,153 @@
+package net.foxgenesis.filescanner.util;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Runs at most one task per key at a time. Callers that arrive while a task
+ * for the same key is running wait for its result instead of running their
+ * own. Results are not kept once the task finishes.
+ * <p>
+ * A task that fails with a {@link CancellationException} anywhere in its cause
+ * chain does not fail its waiters. The cancellation belonged to the caller
+ * that started the task, so the waiters run the task again themselves.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public final class SingleFlight<K, V> {
+	private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+	/**
+	 * Run a task or wait for the running task with the same key.
+	 *
+	 * @param <E>      - checked exception thrown by the task
+	 * @param key      - key of the task
+	 * @param deadline - bounds the wait for a running task. A task started by
+	 *                 this call is expected to honor it itself
+	 * @param task     - task to run if none is running for {@code key}
+	 *
+	 * @return Returns the result of the task
+	 *
+	 * @throws E                   Thrown if the task failed
+	 * @throws CompletionException Thrown if {@code deadline} expired or was
+	 *                             cancelled while waiting, with a
+	 *                             {@link java.util.concurrent.TimeoutException
+	 *                             TimeoutException} or
+	 *                             {@link CancellationException} as the cause
+	 */
+	public <E extends Exception> V run(K key, Deadline deadline, Task<V, E> task) throws E {
+		return run(key, deadline, null, task);
+	}
+
+	/**
+	 * Run a task or wait for the running task with the same key.
+	 *
+	 * @param <E>      - checked exception thrown by the task
+	 * @param key      - key of the task
+	 * @param deadline - bounds the wait for a running task. A task started by
+	 *                 this call is expected to honor it itself
+	 * @param onWait   - run once before waiting for a running task, such as to
+	 *                 give up resources that only the task needs, or
+	 *                 {@code null}
+	 * @param task     - task to run if none is running for {@code key}
+	 *
+	 * @return Returns the result of the task
+	 *
+	 * @throws E                   Thrown if the task failed
+	 * @throws CompletionException Thrown if {@code deadline} expired or was
+	 *                             cancelled while waiting, with a
+	 *                             {@link java.util.concurrent.TimeoutException
+	 *                             TimeoutException} or
+	 *                             {@link CancellationException} as the cause
+	 */
+	public <E extends Exception> V run(K key, Deadline deadline, @Nullable Runnable onWait, Task<V, E> task)
+			throws E {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(task);
+
+		while (true) {
+			CompletableFuture<V> flight = new CompletableFuture<>();
+			CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+			if (running == null)
+				return lead(key, flight, task);
+
+			if (onWait != null) {
+				onWait.run();
+				onWait = null;
+			}
+			try {
+				return await(running, deadline);
+			} catch (ExecutionException e) {
+				if (isCancellation(e.getCause()))
+					continue;
+				throw this.<E>rethrow(e.getCause());
+			}
+		}
+	}
+
+	private <E extends Exception> V lead(K key, CompletableFuture<V> flight, Task<V, E> task) throws E {
+		try {
+			V result = task.call();
+			flight.complete(result);
+			return result;
+		} catch (Throwable t) {
+			flight.completeExceptionally(t);
+			throw t;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	private V await(CompletableFuture<V> running, Deadline deadline) throws ExecutionException {
+		// Copy so expiring this wait does not complete the shared flight
+		CompletableFuture<V> wait = running.copy();
+		Deadline.Watch watch = deadline.watch(() -> wait.cancel(false));
+		try {
+			return wait.get();
+		} catch (CancellationException e) {
+			if (deadline.isCancelled())
+				throw new CompletionException(deadline.cancellation("Wait for in-flight scan"));
+			throw new CompletionException(deadline.timeout("Wait for in-flight scan"));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		} finally {
+			watch.close();
+		}
+	}
+
+	private static boolean isCancellation(Throwable t) {
+		for (; t != null; t = t.getCause())
+			if (t instanceof CancellationException)
+				return true;
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E extends Exception> E rethrow(Throwable cause) throws E {
+		// The task only throws E or unchecked exceptions
+		if (cause instanceof Error error)
+			throw error;
+		if (cause instanceof RuntimeException runtime)
+			throw runtime;
+		throw (E) cause;
+	}
+
+	/**
+	 * Task run by a {@link SingleFlight}.
+	 *
+	 * @param <V> result type
+	 * @param <E> checked exception thrown by the task
+	 */
+	@FunctionalInterface
+	public interface Task<V, E extends Exception> {
+		V call() throws E;
+	}
+}
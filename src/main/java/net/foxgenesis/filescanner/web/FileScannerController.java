@@ -13,6 +13,7 @@ import jakarta.validation.Valid;
 import net.dv8tion.jda.api.entities.Guild;
 import net.foxgenesis.filescanner.database.FileScannerConfiguration;
 import net.foxgenesis.filescanner.database.FileScannerConfigurationService;
+import net.foxgenesis.filescanner.util.ScanUsage;
 import net.foxgenesis.watame.web.WebPanelUtil;
 import net.foxgenesis.watame.web.annotation.PluginMapping;
 import net.foxgenesis.watame.web.security.DiscordOAuth2User;
@@ -26,10 +27,14 @@ public class FileScannerController {
 	@Autowired
 	private WebPanelUtil util;
 
+	@Autowired
+	private ScanUsage usage;
+
 	@GetMapping
 	public String getView(Model model, @RequestAttribute Guild guild) {
 		model.addAttribute("fileScannerConfiguration",
 				database.getFresh(guild).orElseGet(() -> new FileScannerConfiguration(guild)));
+		model.addAttribute("scanUsage", usage.get(guild.getIdLong()));
 		return "filescanner";
 	}
 
@@ -37,6 +42,7 @@ public class FileScannerController {
 	public String update(Model model, @AuthenticationPrincipal DiscordOAuth2User oauth2User,
 			@RequestAttribute Guild guild, @Valid FileScannerConfiguration fileScannerConfiguration,
 			BindingResult bindingResult, final HttpServletResponse res) {
+		model.addAttribute("scanUsage", usage.get(guild.getIdLong()));
 		if (bindingResult.hasErrors()) {
 			res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 			return "filescanner";
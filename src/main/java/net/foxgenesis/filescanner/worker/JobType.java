@@ -0,0 +1,11 @@
+package net.foxgenesis.filescanner.worker;
+
+/**
+ * Type of work a {@link ScanWorker} should perform.
+ */
+public enum JobType {
+	/**
+	 * Measure the momentary loudness of a video
+	 */
+	LOUDNESS
+}
@@ -0,0 +1,160 @@
+package net.foxgenesis.filescanner.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Sends {@link ScanJob ScanJobs} to the least loaded available
+ * {@link ScanWorker}. Workers that fail are skipped for a backoff period.
+ */
+public class RemoteScanDispatcher {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteScanDispatcher.class);
+
+	/**
+	 * How long a failed worker is skipped
+	 */
+	private static final Duration BACKOFF = Duration.ofSeconds(30);
+
+	private final AtomicLong ids = new AtomicLong();
+	private final List<Endpoint> endpoints;
+	private final int timeout;
+	private final byte[] secret;
+
+	/**
+	 * @param addresses - worker addresses in {@code host:port} form
+	 * @param timeout   - connect and read timeout
+	 * @param secret    - shared secret the workers authenticate connections with
+	 */
+	public RemoteScanDispatcher(List<String> addresses, Duration timeout, String secret) {
+		if (secret == null || secret.isBlank())
+			throw new IllegalArgumentException("Remote scan workers require a shared secret");
+		this.endpoints = addresses.stream().map(RemoteScanDispatcher::parse).map(Endpoint::new).toList();
+		this.timeout = (int) Objects.requireNonNull(timeout).toMillis();
+		this.secret = secret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Check if any worker is currently accepting jobs.
+	 * 
+	 * @return Returns {@code true} if a worker is not in its backoff period
+	 */
+	public boolean hasAvailableWorker() {
+		long now = System.nanoTime();
+		return endpoints.stream().anyMatch(endpoint -> endpoint.isAvailable(now));
+	}
+
+	/**
+	 * Run a job on the least loaded worker.
+	 * 
+	 * @param type     - work to perform
+	 * @param url      - URL of the file
+	 * @param fileName - name of the file
+	 * @param config   - guild settings to snapshot
+	 * @param deadline - time by which the job must finish. Also bounds the
+	 *                 connect and read timeouts
+	 * 
+	 * @return Returns the {@link ScanResult} of the job
+	 * 
+	 * @throws IOException Thrown if no worker is available or communication with
+	 *                     the worker failed
+	 */
+	public ScanResult dispatch(JobType type, String url, String fileName, FileScannerConfiguration config,
+			Deadline deadline) throws IOException {
+		// Checked before connecting so the worker is not blamed for the URL
+		if (url.getBytes(StandardCharsets.UTF_8).length > WorkerProtocol.MAX_STRING_LENGTH)
+			throw new IOException("URL of " + fileName + " is too long to send to a worker");
+
+		long now = System.nanoTime();
+		Endpoint endpoint = endpoints.stream().filter(e -> e.isAvailable(now))
+				.min(Comparator.comparingInt(Endpoint::getLoad))
+				.orElseThrow(() -> new IOException("No scan workers available"));
+
+		long remaining = deadline.isUnbounded() ? 0 : Math.max(1, deadline.remainingMillis());
+		ScanJob job = new ScanJob(ids.incrementAndGet(), type, url, fileName, config.getThreshold(),
+				config.getStrikePercentage(), remaining);
+
+		endpoint.inFlight.incrementAndGet();
+		Socket socket = new Socket();
+		// Closing the socket unblocks the read once the deadline passes or is cancelled
+		try (socket; Deadline.Watch watch = deadline.watch(() -> closeQuietly(socket))) {
+			// Resolve on every connect so workers can move
+			socket.connect(new InetSocketAddress(endpoint.address.getHostString(), endpoint.address.getPort()),
+					deadline.clamp(timeout));
+			socket.setSoTimeout(deadline.clamp(timeout));
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			WorkerProtocol.Session session = WorkerProtocol.connect(in, out, secret);
+			WorkerProtocol.writeJob(out, job, session);
+			WorkerProtocol.Response response = WorkerProtocol.readResult(in, session);
+			endpoint.reportedLoad = response.load();
+
+			if (response.result().id() != job.id())
+				throw new IOException("Worker responded to job " + response.result().id() + " instead of " + job.id());
+			return response.result();
+		} catch (IOException e) {
+			// The job ran out of time. The worker itself is fine
+			if (deadline.isExpired())
+				throw e;
+			logger.warn("Scan worker {} failed. Skipping for {}", endpoint.address, BACKOFF);
+			endpoint.downUntil = System.nanoTime() + BACKOFF.toNanos();
+			throw e;
+		} finally {
+			endpoint.inFlight.decrementAndGet();
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+
+	private static InetSocketAddress parse(String address) {
+		int index = address.lastIndexOf(':');
+		if (index < 0)
+			throw new IllegalArgumentException("Worker address must be in host:port form: " + address);
+		return InetSocketAddress.createUnresolved(address.substring(0, index),
+				Integer.parseInt(address.substring(index + 1)));
+	}
+
+	private static class Endpoint {
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final InetSocketAddress address;
+
+		private volatile int reportedLoad;
+		private volatile long downUntil;
+
+		Endpoint(InetSocketAddress address) {
+			this.address = Objects.requireNonNull(address);
+			this.downUntil = System.nanoTime();
+		}
+
+		boolean isAvailable(long now) {
+			return now - downUntil >= 0;
+		}
+
+		int getLoad() {
+			return inFlight.get() + reportedLoad;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package net.foxgenesis.filescanner.worker;
+
+import java.util.Objects;
+
+/**
+ * A scan sent to a {@link ScanWorker}, including a snapshot of the guild
+ * settings needed to produce a verdict.
+ * 
+ * @param id               - job id echoed in the {@link ScanResult}
+ * @param type             - work to perform
+ * @param url              - URL of the file to scan
+ * @param fileName         - name of the file
+ * @param threshold        - loudness threshold in LU
+ * @param strikePercentage - minimum percentage of the video that must be loud
+ * @param timeout          - milliseconds the worker has to finish the job or
+ *                         {@code 0} for no limit
+ */
+public record ScanJob(long id, JobType type, String url, String fileName, short threshold, short strikePercentage,
+		long timeout) {
+
+	public ScanJob {
+		Objects.requireNonNull(type);
+		Objects.requireNonNull(url);
+		Objects.requireNonNull(fileName);
+	}
+}
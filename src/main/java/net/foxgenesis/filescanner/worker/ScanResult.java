@@ -0,0 +1,27 @@
+package net.foxgenesis.filescanner.worker;
+
+import java.util.List;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Verdict returned by a {@link ScanWorker}.
+ * 
+ * @param id       - id of the {@link ScanJob}
+ * @param success  - {@code false} if the worker failed to scan the file
+ * @param lu       - momentary LU values
+ * @param loudness - largest fraction of the video that was loud
+ * @param loud     - loud verdict using the settings sent with the job
+ * @param error    - error message if the scan failed
+ */
+public record ScanResult(long id, boolean success, List<Double> lu, double loudness, boolean loud,
+		@Nullable String error) {
+
+	public static ScanResult success(long id, List<Double> lu, double loudness, boolean loud) {
+		return new ScanResult(id, true, List.copyOf(lu), loudness, loud, null);
+	}
+
+	public static ScanResult failure(long id, String error) {
+		return new ScanResult(id, false, List.of(), 0, false, error);
+	}
+}
@@ -0,0 +1,216 @@
+package net.foxgenesis.filescanner.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.foxgenesis.filescanner.Config.DecoderSettings;
+import net.foxgenesis.filescanner.Config.FetchSettings;
+import net.foxgenesis.filescanner.loud.DecoderBackends;
+import net.foxgenesis.filescanner.loud.FFMPEGBackend;
+import net.foxgenesis.filescanner.loud.LoudnessAnalysis;
+import net.foxgenesis.filescanner.loud.LoudnessDecoder;
+import net.foxgenesis.filescanner.loud.QTFSBackend;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.AttachmentFetcher.Kind;
+import net.foxgenesis.filescanner.util.AttachmentInfo;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.watame.util.PrefixedThreadFactory;
+
+/**
+ * Standalone process that runs {@link ScanJob ScanJobs} received over a
+ * socket. Started with the same classpath as the bot:
+ * 
+ * <pre>
+ * java net.foxgenesis.filescanner.worker.ScanWorker &lt;port&gt; [ffmpeg] [qtfs] [concurrency] [bind address]
+ * </pre>
+ * 
+ * The shared secret connections must authenticate with is read from the
+ * {@value #SECRET_VARIABLE} environment variable. Videos are only downloaded
+ * from HTTP(S) URLs, with the limits of the default {@link FetchSettings}.
+ */
+public class ScanWorker implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(ScanWorker.class);
+
+	/**
+	 * Environment variable holding the shared secret
+	 */
+	public static final String SECRET_VARIABLE = "FILESCANNER_WORKER_SECRET";
+
+	/**
+	 * How long a new connection may take to answer the challenge
+	 */
+	private static final int HANDSHAKE_TIMEOUT = 10_000;
+
+	private final ExecutorService connections = Executors
+			.newThreadPerTaskExecutor(Thread.ofVirtual().name("Scan Worker-", 0).factory());
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final ServerSocket server;
+	private final LoudnessDecoder decoder;
+	private final AttachmentFetcher fetcher;
+	private final Semaphore permits;
+	private final byte[] secret;
+
+	/**
+	 * @param server      - socket to accept connections on. Closed when this
+	 *                    worker is closed
+	 * @param decoder     - decoder that runs the jobs
+	 * @param fetcher     - fetcher that downloads the videos. Closed when this
+	 *                    worker is closed
+	 * @param concurrency - number of jobs run at once
+	 * @param secret      - shared secret connections must authenticate with
+	 */
+	public ScanWorker(ServerSocket server, LoudnessDecoder decoder, AttachmentFetcher fetcher, int concurrency,
+			String secret) {
+		if (secret == null || secret.isBlank())
+			throw new IllegalArgumentException("A shared secret is required");
+		this.server = Objects.requireNonNull(server);
+		this.decoder = Objects.requireNonNull(decoder);
+		this.fetcher = Objects.requireNonNull(fetcher);
+		this.permits = new Semaphore(concurrency);
+		this.secret = secret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Accept connections until this worker is closed.
+	 */
+	public void run() {
+		logger.info("Scan worker listening on {}", server.getLocalSocketAddress());
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.execute(() -> handle(socket));
+			} catch (IOException e) {
+				if (!server.isClosed())
+					logger.error("Failed to accept connection", e);
+			}
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			WorkerProtocol.Session session = WorkerProtocol.accept(in, out, secret);
+			if (session == null) {
+				logger.warn("Rejected connection from {}: invalid secret", socket.getRemoteSocketAddress());
+				return;
+			}
+			socket.setSoTimeout(0);
+
+			while (true) {
+				ScanJob job;
+				try {
+					job = WorkerProtocol.readJob(in, session);
+				} catch (EOFException e) {
+					return;
+				}
+				ScanResult result = execute(job);
+				WorkerProtocol.writeResult(out, result, active.get(), session);
+			}
+		} catch (IOException e) {
+			logger.warn("Connection to {} failed", socket.getRemoteSocketAddress(), e);
+		}
+	}
+
+	/**
+	 * Run a single job.
+	 * 
+	 * @param job - job to run
+	 * 
+	 * @return Returns the {@link ScanResult} of the job
+	 */
+	ScanResult execute(ScanJob job) {
+		permits.acquireUninterruptibly();
+		active.incrementAndGet();
+		try {
+			long start = System.currentTimeMillis();
+			Deadline deadline = job.timeout() > 0 ? Deadline.after(Duration.ofMillis(job.timeout())) : Deadline.none();
+			if (!AttachmentFetcher.isFetchable(job.url()))
+				return ScanResult.failure(job.id(), "Unsupported URL: " + job.url());
+
+			AttachmentInfo info = new AttachmentInfo(job.fileName(), job.url(), null, -1, -1, -1);
+			List<Double> lu = decoder.decode(() -> fetcher.open(info, Kind.VIDEO, deadline), job.fileName(),
+					deadline);
+			LoudnessAnalysis analysis = LoudnessAnalysis.analyze(lu, job.threshold(), job.strikePercentage());
+
+			logger.debug("Scanned [{}] in {}ms", job.fileName(), System.currentTimeMillis() - start);
+			return ScanResult.success(job.id(), lu, analysis.loudness(), analysis.loud());
+		} catch (Exception e) {
+			logger.warn("Failed to scan {}", job.fileName(), e);
+			return ScanResult.failure(job.id(), e.toString());
+		} finally {
+			active.decrementAndGet();
+			permits.release();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		connections.shutdownNow();
+		fetcher.close();
+		if (decoder instanceof Closeable c)
+			c.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ScanWorker <port> [ffmpeg] [qtfs] [concurrency] [bind address]");
+			System.exit(1);
+		}
+
+		int port = Integer.parseInt(args[0]);
+		Path ffmpeg = Path.of(args.length > 1 ? args[1] : "ffmpeg");
+		Path qtfs = Path.of(args.length > 2 ? args[2] : "lib/qtfs");
+		int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		InetAddress bind = InetAddress.getByName(args.length > 4 ? args[4] : "127.0.0.1");
+
+		String secret = System.getenv(SECRET_VARIABLE);
+		if (secret == null || secret.isBlank()) {
+			System.err.println(SECRET_VARIABLE + " must be set to the shared secret of the bot");
+			System.exit(1);
+		}
+
+		ExecutorService executor = Executors.newCachedThreadPool(new PrefixedThreadFactory("Video Reader"));
+		DecoderBackends decoders = new DecoderBackends(ffmpeg, new DecoderSettings(),
+				List.of(new QTFSBackend(ffmpeg, qtfs, executor), new FFMPEGBackend(ffmpeg, executor)), executor);
+		decoders.probe();
+
+		AttachmentFetcher fetcher = new AttachmentFetcher(new FetchSettings(),
+				Executors.newCachedThreadPool(new PrefixedThreadFactory("Worker Fetcher")));
+
+		try (ScanWorker worker = new ScanWorker(new ServerSocket(port, 50, bind), decoders, fetcher, concurrency,
+				secret)) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					worker.close();
+				} catch (IOException e) {
+					logger.error("Failed to close worker", e);
+				}
+			}));
+			worker.run();
+		}
+	}
+}
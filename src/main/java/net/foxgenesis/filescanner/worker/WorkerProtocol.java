@@ -0,0 +1,321 @@
+package net.foxgenesis.filescanner.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Binary framing of {@link ScanJob ScanJobs} and {@link ScanResult
+ * ScanResults} exchanged between the bot and its {@link ScanWorker
+ * ScanWorkers}. A connection may carry any number of jobs, each answered in
+ * order.
+ * <p>
+ * Every connection starts with the worker sending a random challenge, which
+ * the bot answers with its HMAC under the shared secret followed by a random
+ * nonce of its own. Workers close connections that answer wrong without
+ * reading any jobs. Every job and result after that is sent as a length
+ * prefixed frame signed with the shared secret, both random values and the
+ * position of the frame on the connection, so neither side accepts frames
+ * that were changed, replayed or sent by a peer without the secret.
+ * <p>
+ * Lengths read off the wire are checked before anything is allocated for
+ * them.
+ */
+public final class WorkerProtocol {
+	/**
+	 * "FSW4"
+	 */
+	private static final int MAGIC = 0x46535734;
+
+	/**
+	 * Length of the challenge sent by a worker and the nonce sent by the bot
+	 */
+	private static final int CHALLENGE_LENGTH = 32;
+
+	/**
+	 * Largest frame accepted from a peer
+	 */
+	static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Most LU values accepted in a result. About 27 hours of video
+	 */
+	static final int MAX_VALUES = 1_000_000;
+
+	/**
+	 * Longest string written in a frame, in UTF-8 bytes
+	 */
+	static final int MAX_STRING_LENGTH = 8192;
+
+	private static final byte JOB = 1;
+	private static final byte RESULT = 2;
+
+	private static final String MAC = "HmacSHA256";
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private WorkerProtocol() {}
+
+	/**
+	 * Send a new challenge and read its answer.
+	 *
+	 * @param in     - stream to read from
+	 * @param out    - stream to write to
+	 * @param secret - shared secret
+	 *
+	 * @return Returns the {@link Session} of the connection or {@code null} if
+	 *         the answer was not signed with {@code secret}
+	 *
+	 * @throws IOException Thrown if an I/O error occurs
+	 */
+	@Nullable
+	public static Session accept(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		byte[] challenge = new byte[CHALLENGE_LENGTH];
+		random.nextBytes(challenge);
+		out.write(challenge);
+		out.flush();
+
+		Session session = new Session(secret, challenge);
+		byte[] answer = new byte[session.mac.getMacLength()];
+		in.readFully(answer);
+		if (!MessageDigest.isEqual(session.mac.doFinal(challenge), answer))
+			return null;
+
+		byte[] nonce = new byte[CHALLENGE_LENGTH];
+		in.readFully(nonce);
+		session.nonce = nonce;
+		return session;
+	}
+
+	/**
+	 * Read a challenge, answer it and send a nonce.
+	 *
+	 * @param in     - stream to read from
+	 * @param out    - stream to write to
+	 * @param secret - shared secret
+	 *
+	 * @return Returns the {@link Session} of the connection
+	 *
+	 * @throws IOException Thrown if an I/O error occurs
+	 */
+	public static Session connect(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		byte[] challenge = new byte[CHALLENGE_LENGTH];
+		in.readFully(challenge);
+
+		Session session = new Session(secret, challenge);
+		session.nonce = new byte[CHALLENGE_LENGTH];
+		random.nextBytes(session.nonce);
+		out.write(session.mac.doFinal(challenge));
+		out.write(session.nonce);
+		out.flush();
+		return session;
+	}
+
+	public static void writeJob(DataOutputStream out, ScanJob job, Session session) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(bytes);
+		frame.writeInt(MAGIC);
+		frame.writeLong(job.id());
+		frame.writeByte(job.type().ordinal());
+		writeString(frame, job.url());
+		writeString(frame, truncate(job.fileName()));
+		frame.writeShort(job.threshold());
+		frame.writeShort(job.strikePercentage());
+		frame.writeLong(job.timeout());
+		writeFrame(out, bytes.toByteArray(), session.sign(JOB, session.jobs++, bytes.toByteArray()));
+	}
+
+	public static ScanJob readJob(DataInputStream in, Session session) throws IOException {
+		DataInputStream frame = readFrame(in, JOB, session.jobs++, session);
+		int magic = frame.readInt();
+		if (magic != MAGIC)
+			throw new StreamCorruptedException("Invalid magic: " + Integer.toHexString(magic));
+
+		long id = frame.readLong();
+		int type = frame.readUnsignedByte();
+		if (type >= JobType.values().length)
+			throw new StreamCorruptedException("Unknown job type: " + type);
+
+		return new ScanJob(id, JobType.values()[type], readString(frame), readString(frame), frame.readShort(),
+				frame.readShort(), frame.readLong());
+	}
+
+	/**
+	 * Write a result. Errors longer than {@value #MAX_STRING_LENGTH} bytes are
+	 * truncated.
+	 *
+	 * @param out     - stream to write to
+	 * @param result  - result to write
+	 * @param load    - number of jobs currently running on the worker
+	 * @param session - session of the connection
+	 *
+	 * @throws IOException Thrown if an I/O error occurs
+	 */
+	public static void writeResult(DataOutputStream out, ScanResult result, int load, Session session)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(bytes);
+		frame.writeLong(result.id());
+		frame.writeInt(load);
+		frame.writeBoolean(result.success());
+		if (result.success()) {
+			frame.writeInt(result.lu().size());
+			for (double value : result.lu())
+				frame.writeDouble(value);
+			frame.writeDouble(result.loudness());
+			frame.writeBoolean(result.loud());
+		} else {
+			writeString(frame, truncate(String.valueOf(result.error())));
+		}
+		writeFrame(out, bytes.toByteArray(), session.sign(RESULT, session.results++, bytes.toByteArray()));
+	}
+
+	/**
+	 * Read a result.
+	 *
+	 * @param in      - stream to read from
+	 * @param session - session of the connection
+	 *
+	 * @return Returns the read {@link Response}
+	 *
+	 * @throws IOException Thrown if an I/O error occurs or the result was not
+	 *                     signed by the worker
+	 */
+	public static Response readResult(DataInputStream in, Session session) throws IOException {
+		DataInputStream frame = readFrame(in, RESULT, session.results++, session);
+		long id = frame.readLong();
+		int load = frame.readInt();
+		if (!frame.readBoolean())
+			return new Response(ScanResult.failure(id, readString(frame)), load);
+
+		int count = frame.readInt();
+		if (count < 0 || count > MAX_VALUES)
+			throw new StreamCorruptedException("Invalid LU count: " + count);
+		List<Double> lu = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			lu.add(frame.readDouble());
+		return new Response(ScanResult.success(id, lu, frame.readDouble(), frame.readBoolean()), load);
+	}
+
+	private static void writeFrame(DataOutputStream out, byte[] payload, byte[] signature) throws IOException {
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.write(signature);
+		out.flush();
+	}
+
+	/**
+	 * Read a frame and check its signature.
+	 *
+	 * @return Returns a stream over the payload of the frame
+	 */
+	private static DataInputStream readFrame(DataInputStream in, byte type, long sequence, Session session)
+			throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_FRAME_LENGTH)
+			throw new StreamCorruptedException("Invalid frame length: " + length);
+
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		byte[] signature = new byte[session.mac.getMacLength()];
+		in.readFully(signature);
+		if (!MessageDigest.isEqual(session.sign(type, sequence, payload), signature))
+			throw new StreamCorruptedException("Invalid frame signature");
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_LENGTH)
+			throw new IOException("String of " + bytes.length + " bytes is longer than " + MAX_STRING_LENGTH);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_STRING_LENGTH)
+			throw new StreamCorruptedException("Invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Shorten a message to at most {@value #MAX_STRING_LENGTH} UTF-8 bytes
+	 * without splitting a character.
+	 */
+	static String truncate(String message) {
+		if (message.length() * 3 <= MAX_STRING_LENGTH)
+			return message;
+		int bytes = 0;
+		int end = 0;
+		while (end < message.length()) {
+			int codePoint = message.codePointAt(end);
+			int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+			// Leave room for the ellipsis
+			if (bytes + size > MAX_STRING_LENGTH - 3)
+				return message.substring(0, end) + "…";
+			bytes += size;
+			end += Character.charCount(codePoint);
+		}
+		return message;
+	}
+
+	/**
+	 * A {@link ScanResult} along with the load reported by the worker.
+	 *
+	 * @param result - scan result
+	 * @param load   - number of jobs running on the worker
+	 */
+	public record Response(ScanResult result, int load) {}
+
+	/**
+	 * Keys and counters of an authenticated connection. Used by a single
+	 * thread at a time.
+	 */
+	public static final class Session {
+		private final Mac mac;
+		private final byte[] challenge;
+		private byte[] nonce;
+
+		/**
+		 * Number of job and result frames on this connection so far
+		 */
+		private long jobs;
+		private long results;
+
+		private Session(byte[] secret, byte[] challenge) {
+			try {
+				this.mac = Mac.getInstance(MAC);
+				mac.init(new SecretKeySpec(secret, MAC));
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(MAC + " is not available", e);
+			}
+			this.challenge = challenge;
+		}
+
+		private byte[] sign(byte type, long sequence, byte[] payload) {
+			mac.update(challenge);
+			mac.update(nonce);
+			mac.update(type);
+			mac.update(ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+			return mac.doFinal(payload);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package net.foxgenesis.filescanner;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Videos with known loudness generated locally with the ffmpeg {@code lavfi}
+ * sources. Fixtures are generated once into {@code target/golden-fixtures} and
+ * reused by later runs.
+ * <p>
+ * Tests using fixtures are skipped when ffmpeg is not available. The binaries
+ * can be set with the {@code filescanner.ffmpeg} and {@code filescanner.qtfs}
+ * system properties.
+ */
+public final class GoldenFixtures {
+	public static final Path FFMPEG = Path.of(System.getProperty("filescanner.ffmpeg", "ffmpeg"));
+	public static final Path QTFS = Path.of(System.getProperty("filescanner.qtfs", "lib/qtfs"));
+
+	private static final Path DIRECTORY = Path.of("target", "golden-fixtures");
+
+	/**
+	 * Full scale 1 kHz sine in both channels. About 0 LUFS
+	 */
+	private static final String LOUD_SINE = "sin(1000*2*PI*t)";
+
+	/**
+	 * 1 kHz sine 18 dB above full scale in both channels. About +18 LUFS. AAC
+	 * keeps samples above full scale
+	 */
+	private static final String HOT_SINE = "8*sin(1000*2*PI*t)";
+
+	/**
+	 * 1 kHz sine 30 dB below full scale in both channels. About -30 LUFS
+	 */
+	private static final String QUIET_SINE = "0.0316*sin(1000*2*PI*t)";
+
+	public enum Fixture {
+		SINE_LOUD(sine(LOUD_SINE), 10, true),
+		SINE_LOUD_MOOV_AT_END(sine(LOUD_SINE), 10, false),
+		SINE_QUIET(sine(QUIET_SINE), 10, true),
+		SINE_HOT(sine(HOT_SINE), 10, true),
+		NOISE_LOUD("anoisesrc=c=white:a=1:r=48000", 10, true),
+		SILENT("anullsrc=r=48000:cl=stereo", 10, true),
+		/**
+		 * Two seconds at about 0 LUFS followed by eight at about -30 LUFS
+		 */
+		MIXED(sine("if(lt(t\\,2)\\,1\\,0.0316)*sin(1000*2*PI*t)"), 10, true),
+		/**
+		 * Three minutes at about -30 LUFS with 20 seconds at about 0 LUFS around
+		 * the middle
+		 */
+		LONG_MIXED(sine("if(between(t\\,80\\,100)\\,1\\,0.0316)*sin(1000*2*PI*t)"), 180, true),
+		VERY_LONG(sine(QUIET_SINE), 300, true);
+
+		/**
+		 * lavfi audio source
+		 */
+		private final String source;
+		private final int seconds;
+		private final boolean faststart;
+
+		Fixture(String source, int seconds, boolean faststart) {
+			this.source = source;
+			this.seconds = seconds;
+			this.faststart = faststart;
+		}
+
+		public int seconds() {
+			return seconds;
+		}
+
+		/**
+		 * Check if the {@code moov} atom is at the start of the file, allowing it
+		 * to be read from a pipe without QuickTime-FastStart.
+		 * 
+		 * @return Returns {@code true} if written with {@code +faststart}
+		 */
+		public boolean isFaststart() {
+			return faststart;
+		}
+
+		/**
+		 * Get the fixture file, generating it if needed.
+		 * 
+		 * @return Returns the path of the fixture
+		 * 
+		 * @throws IOException Thrown if the fixture could not be generated
+		 */
+		public Path path() throws IOException {
+			assumeFFMPEG();
+			Path path = DIRECTORY.resolve(name().toLowerCase() + ".mp4");
+			if (Files.isRegularFile(path))
+				return path;
+
+			Files.createDirectories(DIRECTORY);
+			Path temp = Files.createTempFile(DIRECTORY, name().toLowerCase(), ".mp4");
+
+			List<String> command = new ArrayList<>(List.of(FFMPEG.toString(), "-hide_banner", "-loglevel", "error",
+					"-y", "-f", "lavfi", "-i", source, "-f", "lavfi", "-i", "color=c=black:s=64x64:r=5", "-t",
+					Integer.toString(seconds), "-ac", "2", "-c:v", "mpeg4", "-c:a", "aac", "-b:a", "192k"));
+			if (faststart)
+				command.addAll(List.of("-movflags", "+faststart"));
+			command.addAll(List.of("-f", "mp4", temp.toString()));
+
+			run(command);
+			return Files.move(temp, path);
+		}
+	}
+
+	private GoldenFixtures() {}
+
+	/**
+	 * Skip the calling test if ffmpeg is not available.
+	 */
+	public static void assumeFFMPEG() {
+		assumeTrue(isRunnable(FFMPEG.toString(), "-version"), "ffmpeg is not available at " + FFMPEG);
+	}
+
+	/**
+	 * Skip the calling test if QuickTime-FastStart is not available.
+	 */
+	public static void assumeQTFS() {
+		assumeTrue(isRunnable(QTFS.toString(), "-v"), "QuickTime-FastStart is not available at " + QTFS);
+	}
+
+	private static String sine(String expression) {
+		return "aevalsrc=exprs=" + expression + "|" + expression + ":s=48000";
+	}
+
+	private static boolean isRunnable(String... command) {
+		try {
+			Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+			p.getInputStream().transferTo(java.io.OutputStream.nullOutputStream());
+			return p.waitFor(10, TimeUnit.SECONDS);
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void run(List<String> command) throws IOException {
+		Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String output = new String(p.getInputStream().readAllBytes());
+		try {
+			if (p.waitFor() != 0)
+				throw new IOException("Failed to generate fixture: " + String.join(" ", command) + "\n" + output);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+}
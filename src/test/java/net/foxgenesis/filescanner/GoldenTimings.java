@@ -0,0 +1,81 @@
+package net.foxgenesis.filescanner;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per fixture timings compared against a stored baseline.
+ * <p>
+ * Measured timings (in milliseconds) are written to
+ * {@code target/golden-timings.properties} and compared against
+ * {@code src/test/resources/golden-baseline.properties}. A timing fails its
+ * test when it takes longer than {@code filescanner.perf.factor} (default
+ * {@code 2}) times its baseline plus {@code filescanner.perf.slack}
+ * milliseconds (default {@code 250}), or when it has no baseline. Raise the
+ * factor on slow hosts and copy the measured timings over the baseline to
+ * update it.
+ */
+public final class GoldenTimings {
+	private static final Path OUTPUT = Path.of("target", "golden-timings.properties");
+	private static final String BASELINE = "/golden-baseline.properties";
+
+	private static final double FACTOR = Double.parseDouble(System.getProperty("filescanner.perf.factor", "2"));
+	private static final long SLACK = Long.getLong("filescanner.perf.slack", 250);
+
+	private static final Properties baseline = loadBaseline();
+	private static final Properties measured = new Properties();
+
+	private GoldenTimings() {}
+
+	/**
+	 * Record a timing and compare it against the baseline.
+	 * 
+	 * @param key   - name of the measurement
+	 * @param nanos - measured time in nanoseconds
+	 */
+	public static synchronized void record(String key, long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		measured.setProperty(key, Long.toString(millis));
+		write();
+
+		String stored = baseline.getProperty(key);
+		assertNotNull(stored, "No baseline for " + key + " in " + BASELINE + ". Copy it from " + OUTPUT);
+
+		long limit = (long) (Long.parseLong(stored) * FACTOR) + SLACK;
+		assertTrue(millis <= limit,
+				"[Performance regression] " + key + " took " + millis + "ms. Baseline: " + stored + "ms, limit: "
+						+ limit + "ms");
+	}
+
+	private static void write() {
+		try {
+			Files.createDirectories(OUTPUT.getParent());
+			try (OutputStream out = Files.newOutputStream(OUTPUT)) {
+				measured.store(out, "Golden fixture timings in milliseconds");
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to write " + OUTPUT + ": " + e);
+		}
+	}
+
+	private static Properties loadBaseline() {
+		Properties properties = new Properties();
+		try (InputStream in = GoldenTimings.class.getResourceAsStream(BASELINE)) {
+			if (in == null)
+				throw new IllegalStateException("Missing " + BASELINE + " in the test resources");
+			properties.load(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read " + BASELINE, e);
+		}
+		return properties;
+	}
+}
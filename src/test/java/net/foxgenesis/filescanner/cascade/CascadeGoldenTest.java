@@ -0,0 +1,182 @@
+package net.foxgenesis.filescanner.cascade;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.core.io.ClassPathResource;
+
+import net.foxgenesis.filescanner.GoldenTimings;
+import net.foxgenesis.filescanner.cascade.haar.FinalizedHaarCascade;
+import net.foxgenesis.filescanner.cascade.haar.HaarCascade;
+import net.foxgenesis.filescanner.cascade.util.OpenCVUtils;
+import nu.pattern.OpenCV;
+
+/**
+ * Runs synthetic images through the decode, pre-process, rotation and
+ * detection steps of {@link CascadeDetection} using the bundled cat cascade
+ * with its default settings. None of the images contain a face, so any
+ * detection is a false positive.
+ * <p>
+ * Detection itself is checked with a single feature cascade from the test
+ * resources that fires on a white to black edge, since no photo of a cat is
+ * bundled.
+ */
+class CascadeGoldenTest {
+	private static HaarCascade cascade;
+	private static HaarCascade edgeCascade;
+	private static CascadeDetection detection;
+	private static RotationStrategy rotations;
+
+	@BeforeAll
+	static void setup() throws IOException {
+		try {
+			OpenCV.loadLocally();
+		} catch (Throwable t) {
+			assumeTrue(false, "OpenCV natives are not available: " + t);
+		}
+
+		OpenCVProperties properties = new OpenCVProperties();
+		properties.getPre().setThorough(true);
+		OpenCVProperties.CascadeSettings settings = new OpenCVProperties.CascadeSettings();
+
+		cascade = new FinalizedHaarCascade(new ClassPathResource("haar/haarcascade_frontalcatface_extended.xml"),
+				mat -> settings.getScaleFactor(), mat -> settings.getMinimumNeighbors(), null, null);
+		edgeCascade = new FinalizedHaarCascade(new ClassPathResource("haar/test-vertical-edge.xml"),
+				mat -> settings.getScaleFactor(), mat -> settings.getMinimumNeighbors(), null, null);
+		detection = new CascadeDetection(properties);
+		rotations = new RotationStrategy(properties.getPre());
+	}
+
+	static Stream<Arguments> images() {
+		return Stream.of(
+				Arguments.of("black", (Consumer<Mat>) mat -> mat.setTo(new Scalar(0, 0, 0))),
+				Arguments.of("white", (Consumer<Mat>) mat -> mat.setTo(new Scalar(255, 255, 255))),
+				Arguments.of("noise", (Consumer<Mat>) mat -> Core.randu(mat, 0, 255)),
+				Arguments.of("gradient", (Consumer<Mat>) CascadeGoldenTest::gradient),
+				Arguments.of("checkerboard", (Consumer<Mat>) CascadeGoldenTest::checkerboard),
+				Arguments.of("circles", (Consumer<Mat>) CascadeGoldenTest::circles));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("images")
+	void syntheticImageIsClean(String name, Consumer<Mat> painter) throws IOException {
+		assertThat(scan(cascade, name, painter)).as("Detection in synthetic %s image", name).isFalse();
+	}
+
+	@Test
+	void edgeIsFlagged() throws IOException {
+		assertThat(scan(edgeCascade, "edge", CascadeGoldenTest::edge)).as("Detection of edge").isTrue();
+	}
+
+	@Test
+	void uniformImageIsNotFlaggedAsEdge() throws IOException {
+		assertThat(scan(edgeCascade, "uniform", mat -> mat.setTo(new Scalar(128, 128, 128))))
+				.as("Detection of edge in uniform image").isFalse();
+	}
+
+	@Test
+	void rotationsKeepDimensions() throws IOException {
+		Mat image = new Mat(480, 640, CvType.CV_8UC3);
+		MatOfByte encoded = new MatOfByte();
+		try {
+			gradient(image);
+			Imgcodecs.imencode(".png", image, encoded);
+
+			try (RotationStrategy.Rotations r = rotations.rotations(detection.getMatFromBytes(encoded.toArray()))) {
+				assertThat(r.get(0).type()).isEqualTo(CvType.CV_8UC1);
+				assertThat(r.get(0).size()).isEqualTo(new Size(640, 480));
+
+				// Passes after the first are ordered by hits, so only the number of quarter turns is known
+				int swapped = 0;
+				for (int pass = 0; pass < r.passes(); pass++) {
+					Mat rotated = r.get(pass);
+					assertThat(rotated.size()).isIn(new Size(640, 480), new Size(480, 640));
+					if (rotated.rows() == 640 && rotated.cols() == 480)
+						swapped++;
+					assertThat(r.get(pass)).isSameAs(rotated);
+				}
+				assertThat(swapped).as("rotations by 90 and 270 degrees").isEqualTo(2);
+			}
+		} finally {
+			OpenCVUtils.release(image, encoded);
+		}
+	}
+
+	/**
+	 * Paint, encode and decode an image and run a cascade over every rotation.
+	 *
+	 * @return Returns {@code true} if the cascade found anything
+	 */
+	private static boolean scan(HaarCascade cascade, String name, Consumer<Mat> painter) throws IOException {
+		Mat image = new Mat(480, 640, CvType.CV_8UC3);
+		MatOfByte encoded = new MatOfByte();
+		try {
+			painter.accept(image);
+			Imgcodecs.imencode(".png", image, encoded);
+
+			long start = System.nanoTime();
+			boolean found = false;
+			try (RotationStrategy.Rotations r = rotations.rotations(detection.getMatFromBytes(encoded.toArray()))) {
+				assertThat(r.passes()).isEqualTo(4);
+				for (int pass = 0; pass < r.passes() && !found; pass++)
+					found = cascade.find(r.get(pass), false);
+			}
+			GoldenTimings.record("cascade." + name, System.nanoTime() - start);
+			return found;
+		} finally {
+			OpenCVUtils.release(image, encoded);
+		}
+	}
+
+	/**
+	 * White left half and black right half.
+	 */
+	private static void edge(Mat mat) {
+		mat.setTo(new Scalar(0, 0, 0));
+		Imgproc.rectangle(mat, new Point(0, 0), new Point(mat.cols() / 2, mat.rows()), new Scalar(255, 255, 255),
+				-1);
+	}
+
+	private static void gradient(Mat mat) {
+		for (int x = 0; x < mat.cols(); x += 8) {
+			double value = 255D * x / mat.cols();
+			Imgproc.rectangle(mat, new Point(x, 0), new Point(x + 8, mat.rows()), new Scalar(value, value, value),
+					-1);
+		}
+	}
+
+	private static void checkerboard(Mat mat) {
+		int size = 40;
+		for (int y = 0; y < mat.rows(); y += size)
+			for (int x = 0; x < mat.cols(); x += size)
+				if ((x / size + y / size) % 2 == 0)
+					Imgproc.rectangle(mat, new Point(x, y), new Point(x + size, y + size),
+							new Scalar(255, 255, 255), -1);
+	}
+
+	private static void circles(Mat mat) {
+		mat.setTo(new Scalar(128, 128, 128));
+		Imgproc.circle(mat, new Point(320, 240), 150, new Scalar(40, 40, 40), -1);
+		Imgproc.circle(mat, new Point(270, 200), 20, new Scalar(255, 255, 255), -1);
+		Imgproc.circle(mat, new Point(370, 200), 20, new Scalar(255, 255, 255), -1);
+		Imgproc.ellipse(mat, new Point(320, 290), new Size(40, 15), 0, 0, 180, new Scalar(255, 255, 255), 4);
+	}
+}
@@ -0,0 +1,78 @@
+package net.foxgenesis.filescanner.cascade.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.springframework.util.unit.DataSize;
+
+import net.foxgenesis.filescanner.cascade.OpenCVProperties.MemorySettings;
+import net.foxgenesis.filescanner.util.AttachmentRejectedException;
+import nu.pattern.OpenCV;
+
+/**
+ * Tracks 30 KB images against a 50 KB limit, so two live images do not fit.
+ */
+class MatTrackerTest {
+	private final MatTracker tracker = new MatTracker();
+
+	@BeforeAll
+	static void load() {
+		try {
+			OpenCV.loadLocally();
+		} catch (Throwable t) {
+			assumeTrue(false, "OpenCV natives are not available: " + t);
+		}
+	}
+
+	MatTrackerTest() {
+		MemorySettings settings = new MemorySettings();
+		settings.setLimit(DataSize.ofKilobytes(50));
+		tracker.configure(settings);
+	}
+
+	@Test
+	void rejectsImagesOverLimit() throws AttachmentRejectedException {
+		Mat first = image();
+		tracker.admit(first, "first");
+
+		assertThatThrownBy(() -> tracker.admit(image(), "second")).isInstanceOf(AttachmentRejectedException.class);
+		assertThat(tracker.getRejected()).isOne();
+		release(first);
+	}
+
+	@Test
+	void admitsAfterLeakedScope() throws AttachmentRejectedException {
+		MatTracker.Scope scope = tracker.open("leaky scan");
+		Mat leaked = image();
+		tracker.admit(leaked, "leaked");
+		scope.close();
+
+		assertThat(tracker.getLeaks()).isOne();
+		assertThat(tracker.getLiveMats()).isZero();
+		assertThat(tracker.getLiveBytes()).isZero();
+
+		Mat next = image();
+		tracker.admit(next, "next");
+		assertThat(tracker.getLiveBytes()).isEqualTo(next.total() * next.elemSize());
+
+		// Releasing the leaked Mat late must not count its bytes twice
+		release(leaked);
+		assertThat(tracker.getLiveBytes()).isEqualTo(next.total() * next.elemSize());
+		release(next);
+		assertThat(tracker.getLiveBytes()).isZero();
+	}
+
+	private Mat image() {
+		return tracker.track(new Mat(100, 100, CvType.CV_8UC3), "test");
+	}
+
+	private void release(Mat mat) {
+		tracker.untrack(mat);
+		mat.release();
+	}
+}
@@ -0,0 +1,59 @@
+package net.foxgenesis.filescanner.loud;
+
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SINE_LOUD_MOOV_AT_END;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import net.foxgenesis.filescanner.Config.DecoderSettings;
+import net.foxgenesis.filescanner.GoldenFixtures;
+import net.foxgenesis.filescanner.util.Deadline;
+
+class DecoderBackendsTest {
+
+	@Test
+	void parsesFilterList() {
+		String output = """
+				Filters:
+				  T.. = Timeline support
+				  .S. = Slice threading
+				  ..C = Command support
+				  A = Audio input/output
+				  | = Source or sink filter
+				 ... ebur128           A->N       EBU R128 scanner.
+				 T.C volume            A->A       Change input volume.
+				 ... volumedetect      A->A       Detect audio volume.
+				 ... anullsrc          |->A       Null audio source, return empty audio frames.
+				""";
+
+		assertThat(DecoderBackends.parseFilters(output)).containsExactlyInAnyOrder("ebur128", "volume",
+				"volumedetect", "anullsrc");
+	}
+
+	@Test
+	void failsOverWhenBackendCanNotReadVideo() throws IOException {
+		GoldenFixtures.assumeQTFS();
+
+		// FFMPEG can not find a trailing moov atom in a pipe
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try (DecoderBackends backends = new DecoderBackends(GoldenFixtures.FFMPEG, new DecoderSettings(),
+				List.of(new FFMPEGBackend(GoldenFixtures.FFMPEG, executor),
+						new QTFSBackend(GoldenFixtures.FFMPEG, GoldenFixtures.QTFS, executor)),
+				executor)) {
+			backends.probe();
+			assertThat(backends.hasFilter("ebur128")).isTrue();
+
+			List<Double> lu = backends.decode(() -> Files.newInputStream(SINE_LOUD_MOOV_AT_END.path()),
+					SINE_LOUD_MOOV_AT_END.name(), Deadline.none());
+
+			assertThat(LoudnessAnalysis.analyze(lu, -10, (short) 20).loud()).isTrue();
+			assertThat(backends.getBackends()[0]).contains("1 failed");
+		}
+	}
+}
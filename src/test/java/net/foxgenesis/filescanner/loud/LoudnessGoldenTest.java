@@ -0,0 +1,379 @@
+package net.foxgenesis.filescanner.loud;
+
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.LONG_MIXED;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.MIXED;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.NOISE_LOUD;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SILENT;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SINE_HOT;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SINE_LOUD;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SINE_LOUD_MOOV_AT_END;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.SINE_QUIET;
+import static net.foxgenesis.filescanner.GoldenFixtures.Fixture.VERY_LONG;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.Message.Attachment;
+import net.foxgenesis.filescanner.Config.DecoderSettings;
+import net.foxgenesis.filescanner.Config.FetchSettings;
+import net.foxgenesis.filescanner.GoldenFixtures;
+import net.foxgenesis.filescanner.GoldenFixtures.Fixture;
+import net.foxgenesis.filescanner.GoldenTimings;
+import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.Deadline;
+import net.foxgenesis.filescanner.util.ScanCancellation;
+
+/**
+ * Runs the generated {@link GoldenFixtures} through a {@link DecoderSubscriber}
+ * backed by the full {@link QTFSBackend}, {@link FFMPEGBackend} and
+ * {@link NativeBackend} decoders and checks the verdict handed to the
+ * {@link ModerationBatcher} for several thresholds and strike percentages.
+ * Fixtures are attached to mocked messages and downloaded from a local HTTP
+ * server. Any change to the decoders must keep these verdicts. The native
+ * decoder must also stay within {@value #MAX_DEVIATION} LU of the
+ * {@code ebur128} filter at every step, and the {@link LoudnessTriage} must
+ * never clear a loud verdict while taking less time than the full analysis.
+ * Long videos measured by the {@link SegmentedDecoder} must get the same
+ * verdicts as when decoded whole.
+ */
+class LoudnessGoldenTest {
+	/**
+	 * Largest difference allowed between the native meter and FFMPEG
+	 */
+	private static final double MAX_DEVIATION = 0.5;
+
+	/**
+	 * Runs of the triage and the full analysis when comparing their timings
+	 */
+	private static final int TIMING_RUNS = 3;
+
+	private static QTFSBackend qtfs;
+	private static FFMPEGBackend ffmpeg;
+	private static NativeBackend nativeDecoder;
+	private static LoudnessTriage triage;
+	private static ExecutorService executor;
+	private static AttachmentFetcher fetcher;
+	private static HttpServer server;
+	private static boolean nativeAvailable;
+
+	@BeforeAll
+	static void setup() throws IOException {
+		executor = Executors.newCachedThreadPool();
+		fetcher = new AttachmentFetcher(new FetchSettings(), executor);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/attachments/", LoudnessGoldenTest::serve);
+		server.start();
+		qtfs = new QTFSBackend(GoldenFixtures.FFMPEG, GoldenFixtures.QTFS, executor);
+		ffmpeg = new FFMPEGBackend(GoldenFixtures.FFMPEG, executor);
+		nativeDecoder = new NativeBackend();
+		triage = new LoudnessTriage(GoldenFixtures.FFMPEG, new DecoderSettings().getTriageMargin(),
+				Executors.newCachedThreadPool());
+		try {
+			nativeDecoder.probe(Set.of());
+			nativeAvailable = true;
+		} catch (IOException e) {
+			nativeAvailable = false;
+		}
+	}
+
+	@AfterAll
+	static void shutdown() {
+		if (server != null)
+			server.stop(0);
+		if (triage != null)
+			triage.close();
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	static Stream<Arguments> verdicts() {
+		return Stream.of(
+				// fixture, threshold, strike percentage, loud
+				Arguments.of(SINE_LOUD, -10, 20, true),
+				Arguments.of(SINE_LOUD, 5, 20, false),
+				Arguments.of(SINE_LOUD_MOOV_AT_END, -10, 20, true),
+				Arguments.of(SINE_QUIET, -10, 20, false),
+				Arguments.of(SINE_QUIET, -40, 20, true),
+				// Above full scale, which a 16 bit peak would clip
+				Arguments.of(SINE_HOT, 10, 20, true),
+				Arguments.of(NOISE_LOUD, -10, 20, true),
+				Arguments.of(SILENT, -100, 1, false),
+				Arguments.of(MIXED, -10, 10, true),
+				Arguments.of(MIXED, -10, 50, false),
+				Arguments.of(VERY_LONG, -10, 1, false),
+				Arguments.of(LONG_MIXED, -10, 10, true),
+				Arguments.of(LONG_MIXED, -10, 20, false));
+	}
+
+	static Stream<Arguments> segments() {
+		return Stream.of(
+				// fixture, segments
+				Arguments.of(VERY_LONG, 4),
+				// The loud section crosses the boundary at 90 seconds
+				Arguments.of(LONG_MIXED, 2),
+				Arguments.of(LONG_MIXED, 3));
+	}
+
+	@ParameterizedTest(name = "qtfs {0} threshold={1} strike={2}% loud={3}")
+	@MethodSource("verdicts")
+	void qtfsVerdict(Fixture fixture, int threshold, int strikePercentage, boolean loud) throws IOException {
+		GoldenFixtures.assumeQTFS();
+		assertVerdict("qtfs", qtfs, fixture, threshold, strikePercentage, loud);
+	}
+
+	@ParameterizedTest(name = "ffmpeg {0} threshold={1} strike={2}% loud={3}")
+	@MethodSource("verdicts")
+	void ffmpegVerdict(Fixture fixture, int threshold, int strikePercentage, boolean loud) throws IOException {
+		// FFMPEG reads from a pipe and can not seek to a trailing moov atom
+		assumeTrue(fixture.isFaststart(), "Fixture requires QuickTime-FastStart");
+		assertVerdict("ffmpeg", ffmpeg, fixture, threshold, strikePercentage, loud);
+	}
+
+	@ParameterizedTest(name = "triage {0} threshold={1} strike={2}% loud={3}")
+	@MethodSource("verdicts")
+	void triageVerdict(Fixture fixture, int threshold, int strikePercentage, boolean loud) throws Exception {
+		assumeTrue(fixture.isFaststart(), "Fixture requires QuickTime-FastStart");
+		double ceiling;
+		try (InputStream in = Files.newInputStream(fixture.path())) {
+			ceiling = triage.getCeiling(in, fixture.name(), Deadline.none());
+		}
+		boolean quiet = LoudnessTriage.isQuiet(ceiling, threshold);
+
+		// A cleared video has no LU values and so is never loud
+		if (loud)
+			assertThat(quiet).as("%s cleared at %d LU with a ceiling of %.2f", fixture, threshold, ceiling).isFalse();
+		// Videos far below the threshold must be cleared for the triage to be of use
+		if (fixture == SINE_QUIET && threshold == -10)
+			assertThat(quiet).as("%s escalated with a ceiling of %.2f", fixture, ceiling).isTrue();
+	}
+
+	@ParameterizedTest(name = "triage {0} is faster than ffmpeg")
+	@EnumSource(value = Fixture.class, names = { "LONG_MIXED", "VERY_LONG" })
+	void triageIsFasterThanFullAnalysis(Fixture fixture) throws Exception {
+		// Generate outside of the timed section
+		fixture.path();
+
+		long full = fastest(() -> ffmpeg.decode(Files.newInputStream(fixture.path()), fixture.name()));
+		long triaged = fastest(
+				() -> triage.getCeiling(Files.newInputStream(fixture.path()), fixture.name(), Deadline.none()));
+		GoldenTimings.record("triage." + fixture.name().toLowerCase(), triaged);
+
+		assertThat(triaged).as("triage of %s took %d ms, full analysis %d ms", fixture, triaged / 1_000_000,
+				full / 1_000_000).isLessThan(full);
+	}
+
+	@ParameterizedTest(name = "segmented {0} in {1} segments")
+	@MethodSource("segments")
+	void segmentedMatchesWhole(Fixture fixture, int segments) throws Exception {
+		fixture.path();
+		SegmentedDecoder decoder = new SegmentedDecoder(GoldenFixtures.FFMPEG, segments, Duration.ofMinutes(1),
+				Duration.ofSeconds(1), executor);
+
+		List<Double> whole = ffmpeg.decode(Files.newInputStream(fixture.path()), fixture.name());
+		List<Double> split = measure("segmented", fixture, () -> {
+			try {
+				return decoder.decode(fixture.path(), fixture.name(), Deadline.none(), Ebur128::parse);
+			} catch (IOException | TimeoutException e) {
+				throw new AssertionError(e);
+			}
+		});
+
+		assertThat(split).isNotNull().hasSizeBetween(whole.size() - 1, whole.size() + 1);
+		for (Arguments verdict : verdicts().filter(v -> v.get()[0] == fixture).toList()) {
+			int threshold = (int) verdict.get()[1];
+			short strikePercentage = (short) (int) verdict.get()[2];
+			LoudnessAnalysis expected = LoudnessAnalysis.analyze(whole, threshold, strikePercentage);
+			LoudnessAnalysis actual = LoudnessAnalysis.analyze(split, threshold, strikePercentage);
+
+			assertThat(actual.strikeChunks()).as("strike chunks at %d LU", threshold)
+					.isEqualTo(expected.strikeChunks());
+			assertThat(actual.loudness()).isCloseTo(expected.loudness(), within(0.01));
+			assertThat(actual.loud()).isEqualTo(expected.loud());
+		}
+	}
+
+	@ParameterizedTest(name = "native {0} threshold={1} strike={2}% loud={3}")
+	@MethodSource("verdicts")
+	void nativeVerdict(Fixture fixture, int threshold, int strikePercentage, boolean loud) throws IOException {
+		assumeTrue(nativeAvailable, "JavaCV is not on the classpath");
+		assertVerdict("native", nativeDecoder, fixture, threshold, strikePercentage, loud);
+	}
+
+	@ParameterizedTest(name = "native {0} matches ffmpeg")
+	@EnumSource(Fixture.class)
+	void nativeMatchesFFMPEG(Fixture fixture) throws IOException {
+		assumeTrue(nativeAvailable, "JavaCV is not on the classpath");
+		assumeTrue(fixture.isFaststart(), "Fixture requires QuickTime-FastStart");
+		fixture.path();
+
+		List<Double> reference = ffmpeg.decode(Files.newInputStream(fixture.path()), fixture.name());
+		List<Double> lu = decodeNative(fixture);
+
+		assertThat(lu).hasSizeBetween(reference.size() - 1, reference.size() + 1);
+		assertThat(DecoderBackends.maxDeviation(reference, lu)).as("max deviation of %s", fixture)
+				.isLessThanOrEqualTo(MAX_DEVIATION);
+	}
+
+	private static List<Double> decodeNative(Fixture fixture) {
+		try {
+			return nativeDecoder.decode(Files.newInputStream(fixture.path()), fixture.name());
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static List<Double> measure(String decoder, Fixture fixture, Supplier<List<Double>> decode)
+			throws IOException {
+		// Generate outside of the timed section
+		fixture.path();
+
+		long start = System.nanoTime();
+		List<Double> lu = decode.get();
+		GoldenTimings.record(decoder + "." + fixture.name().toLowerCase(), System.nanoTime() - start);
+		return lu;
+	}
+
+	/**
+	 * Get the shortest of {@value #TIMING_RUNS} runs of a task in nanoseconds.
+	 */
+	private static long fastest(Callable<?> task) throws Exception {
+		long fastest = Long.MAX_VALUE;
+		for (int i = 0; i < TIMING_RUNS; i++) {
+			long start = System.nanoTime();
+			task.call();
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		return fastest;
+	}
+
+	/**
+	 * Post a fixture in a message, scan it with a {@link DecoderSubscriber}
+	 * using the specified decoder and check the verdict handed to moderation.
+	 */
+	private static void assertVerdict(String name, LoudnessDecoder decoder, Fixture fixture, int threshold,
+			int strikePercentage, boolean loud) throws IOException {
+		List<LoudVerdict> verdicts = new CopyOnWriteArrayList<>();
+		AtomicReference<List<Double>> measured = new AtomicReference<>();
+		LoudnessDecoder recording = (in, video, deadline) -> {
+			List<Double> lu = decoder.decode(in, video, deadline);
+			measured.set(lu);
+			return lu;
+		};
+
+		FileScannerConfiguration config = new FileScannerConfiguration();
+		config.setThreshold((short) threshold);
+		config.setStrikePercentage((short) strikePercentage);
+
+		try (ModerationBatcher moderation = new ModerationBatcher(new RecordingActions(verdicts));
+				DecoderSubscriber subscriber = new DecoderSubscriber(recording, moderation)) {
+			subscriber.setFetcher(fetcher);
+			subscriber.onSubscribe(mock(Subscription.class));
+			ScannerData data = new ScannerData(message(fixture), config, null, new ScanCancellation().register(1));
+			measure(name, fixture, () -> {
+				subscriber.onNext(data);
+				return measured.get();
+			});
+		}
+
+		// ebur128 reports momentary loudness every 100ms
+		List<Double> lu = measured.get();
+		assertThat(lu).hasSizeBetween(fixture.seconds() * 9, fixture.seconds() * 11);
+
+		LoudnessAnalysis analysis = LoudnessAnalysis.analyze(lu, threshold, (short) strikePercentage);
+		assertThat(verdicts)
+				.as("%s at %d LU with %d%% strike (loudest chunk %.2f)", fixture, threshold, strikePercentage,
+						analysis.loudness())
+				.hasSize(loud ? 1 : 0);
+	}
+
+	/**
+	 * Mock a message with a fixture as its only attachment.
+	 */
+	private static Message message(Fixture fixture) throws IOException {
+		String fileName = fixture.name().toLowerCase() + ".mp4";
+		Attachment attachment = mock(Attachment.class);
+		when(attachment.getFileName()).thenReturn(fileName);
+		when(attachment.getUrl())
+				.thenReturn("http://127.0.0.1:" + server.getAddress().getPort() + "/attachments/" + fileName);
+		when(attachment.getSize()).thenReturn((int) Files.size(fixture.path()));
+		when(attachment.getContentType()).thenReturn("video/mp4");
+		when(attachment.isVideo()).thenReturn(true);
+		when(attachment.getWidth()).thenReturn(64);
+		when(attachment.getHeight()).thenReturn(64);
+
+		Message message = mock(Message.class);
+		when(message.getIdLong()).thenReturn(1L);
+		when(message.getGuildIdLong()).thenReturn(1L);
+		when(message.getChannelIdLong()).thenReturn(1L);
+		when(message.getTimeCreated()).thenReturn(OffsetDateTime.now());
+		when(message.getContentRaw()).thenReturn("");
+		when(message.getAttachments()).thenReturn(List.of(attachment));
+		return message;
+	}
+
+	private static void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1, path.length() - ".mp4".length());
+		Path file = Fixture.valueOf(name.toUpperCase()).path();
+
+		exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+		exchange.sendResponseHeaders(200, Files.size(file));
+		try (OutputStream out = exchange.getResponseBody()) {
+			Files.copy(file, out);
+		}
+	}
+
+	private record RecordingActions(List<LoudVerdict> verdicts) implements ModerationActions {
+		@Override
+		public void removeSingle(LoudVerdict verdict) {
+			verdicts.add(verdict);
+		}
+
+		@Override
+		public void delete(LoudVerdict verdict) {
+			verdicts.add(verdict);
+		}
+
+		@Override
+		public void bulkDelete(List<LoudVerdict> batch) {
+			verdicts.addAll(batch);
+		}
+
+		@Override
+		public void sendNotice(List<LoudVerdict> batch) {}
+	}
+}
@@ -0,0 +1,156 @@
+package net.foxgenesis.filescanner.loud;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import net.dv8tion.jda.api.entities.Message;
+
+/**
+ * Flushes batches by hand with a window long enough to never fire and records
+ * the REST operations the batcher asks for.
+ */
+class ModerationBatcherTest {
+	private static final long CHANNEL = 1;
+
+	private final RecordingActions actions = new RecordingActions();
+	private final ModerationBatcher batcher = new ModerationBatcher(actions, Duration.ofHours(1));
+
+	@AfterEach
+	void close() {
+		batcher.close();
+	}
+
+	@Test
+	void removesImmediatelyWithoutWindow() {
+		try (ModerationBatcher immediate = new ModerationBatcher(actions)) {
+			LoudVerdict verdict = verdict(CHANNEL, Duration.ZERO);
+			immediate.submit(verdict);
+
+			assertThat(actions.calls).containsExactly("single " + id(verdict));
+		}
+	}
+
+	@Test
+	void removesSingleVerdictWithReply() {
+		LoudVerdict verdict = verdict(CHANNEL, Duration.ZERO);
+		batcher.submit(verdict);
+		batcher.flush(CHANNEL);
+
+		assertThat(actions.calls).containsExactly("single " + id(verdict));
+		assertThat(actions.notices).isEmpty();
+	}
+
+	@Test
+	void bulkDeletesBatchWithOneNotice() {
+		List<LoudVerdict> verdicts = submit(3, Duration.ZERO);
+		batcher.flush(CHANNEL);
+
+		assertThat(actions.calls).containsExactly("bulk 3", "notice 3");
+		assertThat(actions.notices).containsExactly(verdicts);
+	}
+
+	@Test
+	void deletesMessagesTooOldForBulkDeletionOneByOne() {
+		List<LoudVerdict> recent = submit(2, Duration.ZERO);
+		List<LoudVerdict> old = submit(2, Duration.ofDays(14));
+		batcher.flush(CHANNEL);
+
+		assertThat(actions.calls).containsExactly("delete " + id(old.get(0)), "delete " + id(old.get(1)), "bulk 2",
+				"notice 4");
+		assertThat(actions.bulk).containsExactly(recent);
+	}
+
+	@Test
+	void splitsBulkDeletionsIntoChunks() {
+		submit(ModerationBatcher.MAX_BULK_DELETE * 2 + 1, Duration.ZERO);
+		batcher.flush(CHANNEL);
+
+		// A lone message left over is deleted on its own
+		assertThat(actions.calls).hasSize(4).startsWith("bulk 100", "bulk 100").endsWith("notice 201");
+		assertThat(actions.calls.get(2)).startsWith("delete ");
+	}
+
+	@Test
+	void batchesPerChannel() {
+		LoudVerdict other = verdict(2, Duration.ZERO);
+		submit(2, Duration.ZERO);
+		batcher.submit(other);
+		batcher.flush(CHANNEL);
+
+		assertThat(actions.calls).containsExactly("bulk 2", "notice 2");
+
+		batcher.flush(2);
+		assertThat(actions.calls).endsWith("single " + id(other));
+	}
+
+	@Test
+	void flushesPendingBatchesOnClose() {
+		submit(2, Duration.ZERO);
+		batcher.close();
+
+		assertThat(actions.calls).containsExactly("bulk 2", "notice 2");
+	}
+
+	private List<LoudVerdict> submit(int count, Duration age) {
+		List<LoudVerdict> verdicts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			LoudVerdict verdict = verdict(CHANNEL, age);
+			verdicts.add(verdict);
+			batcher.submit(verdict);
+		}
+		return verdicts;
+	}
+
+	private static long ids;
+
+	private static LoudVerdict verdict(long channel, Duration age) {
+		Message message = mock(Message.class);
+		long id = ++ids;
+		when(message.getIdLong()).thenReturn(id);
+		when(message.getChannelIdLong()).thenReturn(channel);
+		when(message.getTimeCreated()).thenReturn(OffsetDateTime.now().minus(age));
+		return new LoudVerdict(new ScannerData(message, null, null, null), 0.5, 0.2, (short) 10);
+	}
+
+	private static long id(LoudVerdict verdict) {
+		return verdict.message().getIdLong();
+	}
+
+	private static class RecordingActions implements ModerationActions {
+		private final List<String> calls = new ArrayList<>();
+		private final List<List<LoudVerdict>> bulk = new ArrayList<>();
+		private final List<List<LoudVerdict>> notices = new ArrayList<>();
+
+		@Override
+		public void removeSingle(LoudVerdict verdict) {
+			calls.add("single " + id(verdict));
+		}
+
+		@Override
+		public void delete(LoudVerdict verdict) {
+			calls.add("delete " + id(verdict));
+		}
+
+		@Override
+		public void bulkDelete(List<LoudVerdict> verdicts) {
+			assertThat(verdicts).hasSizeBetween(2, ModerationBatcher.MAX_BULK_DELETE);
+			calls.add("bulk " + verdicts.size());
+			bulk.add(verdicts);
+		}
+
+		@Override
+		public void sendNotice(List<LoudVerdict> verdicts) {
+			calls.add("notice " + verdicts.size());
+			notices.add(List.copyOf(verdicts));
+		}
+	}
+}
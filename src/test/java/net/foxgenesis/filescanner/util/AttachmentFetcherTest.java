@@ -0,0 +1,180 @@
+package net.foxgenesis.filescanner.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.unit.DataSize;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.foxgenesis.filescanner.Config.FetchSettings;
+import net.foxgenesis.filescanner.util.AttachmentFetcher.Kind;
+
+/**
+ * Fetches images from a local stand-in for the CDN ({@code /attachments}) and
+ * the media proxy ({@code /proxy}).
+ */
+class AttachmentFetcherTest {
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private final FetchSettings settings = new FetchSettings();
+
+	private HttpServer server;
+	private AttachmentFetcher fetcher;
+	private volatile int proxyStatus = 200;
+	private volatile String videoType = "video/mp4";
+
+	@BeforeEach
+	void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/attachments/", exchange -> respond(exchange, 200, "original"));
+		server.createContext("/proxy/", exchange -> respond(exchange, proxyStatus, "variant"));
+		server.createContext("/videos/", exchange -> respond(exchange, 200, videoType, "video"));
+		server.start();
+
+		settings.setMaxImageDimension(1280);
+		fetcher = new AttachmentFetcher(settings, Executors.newCachedThreadPool());
+	}
+
+	@AfterEach
+	void stop() {
+		fetcher.close();
+		server.stop(0);
+	}
+
+	@Test
+	void fetchesScaledDownVariantOfLargeImage() throws IOException {
+		assertThat(read(image(4000, 3000))).isEqualTo("variant");
+		assertThat(requests).containsExactly("/proxy/cat.png?ex=1&width=1280&height=960");
+		assertThat(fetcher.getVariants()).isEqualTo(1);
+	}
+
+	@Test
+	void requestsConfiguredFormat() throws IOException {
+		settings.setImageFormat("webp");
+
+		assertThat(read(image(1000, 2000))).isEqualTo("variant");
+		assertThat(requests).containsExactly("/proxy/cat.png?ex=1&width=640&height=1280&format=webp");
+	}
+
+	@Test
+	void downloadsOriginalOfImageThatFits() throws IOException {
+		assertThat(read(image(800, 600))).isEqualTo("original");
+		assertThat(requests).containsExactly("/attachments/cat.png");
+	}
+
+	@Test
+	void downloadsOriginalWhenVariantsAreDisabled() throws IOException {
+		settings.setMaxImageDimension(0);
+
+		assertThat(read(image(4000, 3000))).isEqualTo("original");
+		assertThat(requests).containsExactly("/attachments/cat.png");
+	}
+
+	@Test
+	void fallsBackToOriginalWhenProxyFails() throws IOException {
+		proxyStatus = 415;
+
+		assertThat(read(image(4000, 3000))).isEqualTo("original");
+		assertThat(requests).containsExactly("/proxy/cat.png?ex=1&width=1280&height=960", "/attachments/cat.png");
+		assertThat(fetcher.getVariantFallbacks()).isEqualTo(1);
+	}
+
+	@Test
+	void neverScalesVideos() throws IOException {
+		try (InputStream in = fetcher.open(image(4000, 3000), Kind.VIDEO, Deadline.none())) {
+			in.readAllBytes();
+		}
+		assertThat(requests).containsExactly("/attachments/cat.png");
+	}
+
+	@Test
+	void downloadsUploadedVideoOverLimit() throws IOException {
+		settings.setMaxVideoSize(DataSize.ofBytes(4));
+
+		assertThat(readVideo(video("https://cdn", 5))).isEqualTo("video");
+	}
+
+	@Test
+	void rejectsLinkedVideoOverLimit() {
+		settings.setMaxVideoSize(DataSize.ofBytes(4));
+
+		assertThatThrownBy(() -> readVideo(video(null, -1))).isInstanceOf(AttachmentRejectedException.class);
+		assertThat(requests).containsExactly("HEAD /videos/clip.mp4");
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "video/webm", "application/mp4", "audio/mpeg", "binary/octet-stream",
+			"application/x-matroska; charset=binary" })
+	void acceptsLinkedVideoTypes(String type) throws IOException {
+		videoType = type;
+
+		assertThat(readVideo(video(null, -1))).isEqualTo("video");
+	}
+
+	@Test
+	void rejectsLinkedVideoOfOtherType() {
+		videoType = "text/html";
+
+		assertThatThrownBy(() -> readVideo(video(null, -1))).isInstanceOf(AttachmentRejectedException.class);
+	}
+
+	private AttachmentInfo video(String proxy, long size) {
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		return new AttachmentInfo("clip.mp4", base + "/videos/clip.mp4", proxy, size, -1, -1);
+	}
+
+	private String readVideo(AttachmentInfo info) throws IOException {
+		try (InputStream in = fetcher.open(info, Kind.VIDEO, Deadline.none())) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private AttachmentInfo image(int width, int height) {
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		return new AttachmentInfo("cat.png", base + "/attachments/cat.png", base + "/proxy/cat.png?ex=1", 1024,
+				width, height);
+	}
+
+	private String read(AttachmentInfo info) throws IOException {
+		try (InputStream in = fetcher.open(info, Kind.IMAGE, Deadline.none())) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		respond(exchange, status, "image/png", body);
+	}
+
+	private void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			requests.add("HEAD " + exchange.getRequestURI());
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+
+		requests.add(exchange.getRequestURI().toString());
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package net.foxgenesis.filescanner.worker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.foxgenesis.filescanner.Config.FetchSettings;
+import net.foxgenesis.filescanner.database.FileScannerConfiguration;
+import net.foxgenesis.filescanner.loud.LoudnessAnalysis;
+import net.foxgenesis.filescanner.util.AttachmentFetcher;
+import net.foxgenesis.filescanner.util.Deadline;
+
+/**
+ * Runs a {@link ScanWorker} on an ephemeral loopback port and sends it jobs
+ * through a {@link RemoteScanDispatcher}. Videos are served by a local HTTP
+ * server and measured by a fake decoder.
+ */
+class ScanWorkerTest {
+	private static final String SECRET = "worker secret";
+	private static final List<Double> LU = List.of(-20D, -5D, -5D, -20D, -20D);
+
+	private final AtomicInteger decoded = new AtomicInteger();
+	private final FileScannerConfiguration config = new FileScannerConfiguration();
+
+	private HttpServer http;
+	private ServerSocket socket;
+	private ScanWorker worker;
+	private volatile RuntimeException failure;
+
+	@BeforeEach
+	void start() throws IOException {
+		http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		http.createContext("/videos/", ScanWorkerTest::respond);
+		http.start();
+
+		socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		worker = new ScanWorker(socket, this::decode,
+				new AttachmentFetcher(new FetchSettings(), Executors.newCachedThreadPool()), 2, SECRET);
+		Thread.ofVirtual().start(worker::run);
+
+		config.setThreshold((short) -10);
+		config.setStrikePercentage((short) 20);
+	}
+
+	@AfterEach
+	void stop() throws IOException {
+		worker.close();
+		http.stop(0);
+	}
+
+	@Test
+	void returnsVerdictOfRemoteScan() throws IOException {
+		ScanResult result = dispatcher(SECRET).dispatch(JobType.LOUDNESS, video(), "clip.mp4", config,
+				Deadline.after(Duration.ofSeconds(30)));
+
+		LoudnessAnalysis expected = LoudnessAnalysis.analyze(LU, config.getThreshold(), config.getStrikePercentage());
+		assertThat(result.success()).as("error: %s", result.error()).isTrue();
+		assertThat(result.lu()).isEqualTo(LU);
+		assertThat(result.loudness()).isCloseTo(expected.loudness(), within(1e-9));
+		assertThat(result.loud()).isEqualTo(expected.loud());
+		assertThat(decoded).hasValue(1);
+	}
+
+	@Test
+	void rejectsWrongSecret() {
+		assertThatThrownBy(() -> dispatcher("wrong secret").dispatch(JobType.LOUDNESS, video(), "clip.mp4", config,
+				Deadline.after(Duration.ofSeconds(30)))).isInstanceOf(IOException.class);
+		assertThat(decoded).hasValue(0);
+	}
+
+	@Test
+	void rejectsUrlsOtherThanHttp() throws IOException {
+		ScanResult result = dispatcher(SECRET).dispatch(JobType.LOUDNESS, "file:///etc/passwd", "passwd", config,
+				Deadline.after(Duration.ofSeconds(30)));
+
+		assertThat(result.success()).isFalse();
+		assertThat(result.error()).startsWith("Unsupported URL");
+		assertThat(decoded).hasValue(0);
+	}
+
+	@Test
+	void truncatesLongErrors() throws IOException {
+		failure = new RuntimeException("x".repeat(100_000));
+
+		ScanResult result = dispatcher(SECRET).dispatch(JobType.LOUDNESS, video(), "clip.mp4", config,
+				Deadline.after(Duration.ofSeconds(30)));
+
+		assertThat(result.success()).isFalse();
+		assertThat(result.error()).endsWith("…");
+		assertThat(result.error().getBytes(StandardCharsets.UTF_8))
+				.hasSizeLessThanOrEqualTo(WorkerProtocol.MAX_STRING_LENGTH);
+	}
+
+	@Test
+	void rejectsUnsignedResults() throws Exception {
+		try (ServerSocket fake = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			// Completes the handshake without knowing the secret and claims the video is loud
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream payload = new DataOutputStream(bytes);
+			payload.writeLong(1);
+			payload.writeInt(0);
+			payload.writeBoolean(true);
+			payload.writeInt(0);
+			payload.writeDouble(1);
+			payload.writeBoolean(true);
+			Thread.ofVirtual().start(() -> fakeWorker(fake, bytes.size(), bytes.toByteArray()));
+
+			assertThatThrownBy(() -> dispatcher(SECRET, fake).dispatch(JobType.LOUDNESS, video(), "clip.mp4",
+					config, Deadline.after(Duration.ofSeconds(30)))).isInstanceOf(IOException.class)
+					.hasMessageContaining("signature");
+		}
+	}
+
+	@Test
+	void rejectsOversizedFrames() throws Exception {
+		try (ServerSocket fake = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			Thread.ofVirtual().start(() -> fakeWorker(fake, Integer.MAX_VALUE, new byte[0]));
+
+			assertThatThrownBy(() -> dispatcher(SECRET, fake).dispatch(JobType.LOUDNESS, video(), "clip.mp4",
+					config, Deadline.after(Duration.ofSeconds(30)))).isInstanceOf(IOException.class)
+					.hasMessageContaining("frame length");
+		}
+	}
+
+	private List<Double> decode(InputStream in, String name, Deadline deadline) {
+		try (in) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("video");
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		decoded.incrementAndGet();
+		RuntimeException failure = this.failure;
+		if (failure != null)
+			throw failure;
+		return LU;
+	}
+
+	private RemoteScanDispatcher dispatcher(String secret) {
+		return dispatcher(secret, socket);
+	}
+
+	private static RemoteScanDispatcher dispatcher(String secret, ServerSocket worker) {
+		return new RemoteScanDispatcher(List.of("127.0.0.1:" + worker.getLocalPort()), Duration.ofSeconds(10),
+				secret);
+	}
+
+	private String video() {
+		return "http://127.0.0.1:" + http.getAddress().getPort() + "/videos/clip.mp4";
+	}
+
+	/**
+	 * Accept a single connection, send a challenge, read the answer and reply
+	 * to the job with a frame that is not signed with the secret.
+	 *
+	 * @param length  - length written in front of the frame
+	 * @param payload - payload of the frame
+	 */
+	private static void fakeWorker(ServerSocket server, int length, byte[] payload) {
+		try (Socket socket = server.accept();
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+			out.write(new byte[32]);
+			out.flush();
+			in.readFully(new byte[64]);
+
+			out.writeInt(length);
+			out.write(payload);
+			out.write(new byte[32]);
+			out.flush();
+			// Wait for the bot to hang up
+			in.transferTo(OutputStream.nullOutputStream());
+		} catch (IOException e) {}
+	}
+
+	private static void respond(HttpExchange exchange) throws IOException {
+		byte[] bytes = "video".getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+			return;
+		}
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}